@@ -0,0 +1,663 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import picocli.CommandLine.GeneratedSpecFactory;
+
+/**
+ * Annotation processor that generates a {@link GeneratedSpecFactory} for each class with picocli annotations.
+ * <p>
+ * The generated factory for a class {@code com.acme.App} is named {@code com.acme.App$$PicocliSpecFactory}. It builds the
+ * {@code CommandSpec}, {@code OptionSpec} and {@code PositionalParamSpec} objects for {@code App} instances without inspecting
+ * the annotations at runtime, and accesses the annotated fields directly where the Java access rules allow this.
+ * Picocli picks up the generated factory automatically when it is on the classpath.
+ * </p><p>
+ * To use, put the {@code picocli-codegen} jar on the annotation processor path of the compiler.
+ * Classes that the processor cannot faithfully model (private classes, or fields with conflicting annotations) are
+ * skipped; for these classes picocli falls back to reflection and reports any errors at runtime as usual.
+ * </p>
+ * @since 3.0
+ */
+@SupportedAnnotationTypes({
+        CommandSpecFactoryProcessor.COMMAND,
+        CommandSpecFactoryProcessor.OPTION,
+        CommandSpecFactoryProcessor.PARAMETERS,
+        CommandSpecFactoryProcessor.MIXIN,
+        CommandSpecFactoryProcessor.PARENT_COMMAND})
+public class CommandSpecFactoryProcessor extends AbstractProcessor {
+    static final String COMMAND        = "picocli.CommandLine.Command";
+    static final String OPTION         = "picocli.CommandLine.Option";
+    static final String PARAMETERS     = "picocli.CommandLine.Parameters";
+    static final String MIXIN          = "picocli.CommandLine.Mixin";
+    static final String PARENT_COMMAND = "picocli.CommandLine.ParentCommand";
+    private static final String NO_VERSION_PROVIDER = "picocli.CommandLine.NoVersionProvider";
+
+    public SourceVersion getSupportedSourceVersion() { return SourceVersion.latestSupported(); }
+
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    types.add((TypeElement) element);
+                } else if (element.getKind() == ElementKind.FIELD && element.getEnclosingElement() instanceof TypeElement) {
+                    types.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+        for (TypeElement type : types) {
+            if (!isEligible(type)) { continue; }
+            String source = new Generator(type).generate();
+            if (source != null) { write(type, source); }
+        }
+        return false; // let other processors see the picocli annotations too
+    }
+
+    private boolean isEligible(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) { return false; }
+        NestingKind nesting = type.getNestingKind();
+        if (nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER) { return false; }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) { return false; }
+        }
+        return true;
+    }
+
+    private void write(TypeElement type, String source) {
+        String name = processingEnv.getElementUtils().getBinaryName(type) + GeneratedSpecFactory.SUFFIX;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name, type);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(source);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "picocli: could not generate " + name + ": " + ex, type);
+        }
+    }
+
+    /** Generates the source code of the factory for a single annotated class. */
+    private class Generator {
+        private final TypeElement type;
+        private final String packageName;
+        private final StringBuilder body = new StringBuilder();
+        private final StringBuilder parentBody = new StringBuilder();
+        private boolean hasCommandAnnotation;
+        private int argCount;
+        private int mixinCount;
+
+        Generator(TypeElement type) {
+            this.type = type;
+            this.packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        }
+
+        /** Returns the source of the factory class, or {@code null} if the class cannot be modeled at compile time. */
+        String generate() {
+            for (TypeElement cls = type; cls != null; cls = superclass(cls)) {
+                AnnotationMirror command = mirror(cls, COMMAND);
+                if (command != null) {
+                    hasCommandAnnotation = true;
+                    appendCommandAttributes(values(command));
+                }
+                for (VariableElement field : ElementFilter.fieldsIn(cls.getEnclosedElements())) {
+                    if (!appendField(cls, field)) { return null; }
+                }
+            }
+            if (!hasCommandAnnotation && mixinCount == 0 && argCount == 0) { return null; }
+
+            String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+            String simpleName = packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1);
+            StringBuilder sb = new StringBuilder();
+            sb.append("// Generated by picocli-codegen from ").append(binaryName).append(". Do not edit.\n");
+            if (packageName.length() > 0) { sb.append("package ").append(packageName).append(";\n\n"); }
+            sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\", \"deprecation\"})\n");
+            sb.append("public final class ").append(simpleName).append(GeneratedSpecFactory.SUFFIX)
+                    .append(" extends picocli.CommandLine.GeneratedSpecFactory {\n");
+            sb.append("    public picocli.CommandLine.CommandSpec create(final Object command, final picocli.CommandLine.IFactory factory) throws Exception {\n");
+            sb.append("        final ").append(erasure(type.asType())).append(" target = (").append(erasure(type.asType())).append(") command;\n");
+            sb.append("        picocli.CommandLine.CommandSpec spec = new picocli.CommandLine.CommandSpec(command);\n");
+            sb.append(body);
+            sb.append("        return spec;\n");
+            sb.append("    }\n");
+            if (parentBody.length() > 0) {
+                sb.append("    public void initParentCommand(Object subcommand, Object parent) throws Exception {\n");
+                sb.append(parentBody);
+                sb.append("    }\n");
+            }
+            sb.append("}\n");
+            return sb.toString();
+        }
+
+        private void appendCommandAttributes(Map<String, AnnotationValue> cmd) {
+            List<TypeMirror> subcommands = classes(cmd.get("subcommands"));
+            if (!subcommands.isEmpty()) {
+                boolean lazy = Boolean.TRUE.equals(cmd.get("lazySubcommands").getValue());
+                body.append(lazy ? "        lazySubcommands(spec, factory" : "        subcommands(spec, factory");
+                for (TypeMirror sub : subcommands) { body.append(", ").append(classLiteral(sub)); }
+                body.append(");\n");
+            }
+            TypeMirror versionProvider = (TypeMirror) cmd.get("versionProvider").getValue();
+            body.append("        commandAttributes(spec, new picocli.CommandLine.CommandSpec()");
+            body.append("\n                .name(").append(str(cmd, "name")).append(")");
+            body.append("\n                .separator(").append(str(cmd, "separator")).append(")");
+            body.append("\n                .version(").append(strs(cmd, "version")).append(")");
+            body.append("\n                .headerHeading(").append(str(cmd, "headerHeading")).append(")");
+            body.append("\n                .header(").append(strs(cmd, "header")).append(")");
+            body.append("\n                .synopsisHeading(").append(str(cmd, "synopsisHeading")).append(")");
+            body.append("\n                .abbreviateSynopsis(").append(cmd.get("abbreviateSynopsis").getValue()).append(")");
+            body.append("\n                .customSynopsis(").append(strs(cmd, "customSynopsis")).append(")");
+            body.append("\n                .descriptionHeading(").append(str(cmd, "descriptionHeading")).append(")");
+            body.append("\n                .description(").append(strs(cmd, "description")).append(")");
+            body.append("\n                .parameterListHeading(").append(str(cmd, "parameterListHeading")).append(")");
+            body.append("\n                .optionListHeading(").append(str(cmd, "optionListHeading")).append(")");
+            body.append("\n                .sortOptions(").append(cmd.get("sortOptions").getValue()).append(")");
+            body.append("\n                .requiredOptionMarker((char) ").append((int) (Character) cmd.get("requiredOptionMarker").getValue()).append(")");
+            body.append("\n                .showDefaultValues(").append(cmd.get("showDefaultValues").getValue()).append(")");
+            body.append("\n                .commandListHeading(").append(str(cmd, "commandListHeading")).append(")");
+            body.append("\n                .footerHeading(").append(str(cmd, "footerHeading")).append(")");
+            body.append("\n                .footer(").append(strs(cmd, "footer")).append("),");
+            body.append("\n                ").append(NO_VERSION_PROVIDER.equals(erasure(versionProvider)) ? "null" : classLiteral(versionProvider));
+            body.append(", factory);\n");
+        }
+
+        /** Appends the code for a single field; returns {@code false} if the field cannot be modeled at compile time. */
+        private boolean appendField(TypeElement cls, VariableElement field) {
+            AnnotationMirror option = mirror(field, OPTION);
+            AnnotationMirror parameters = mirror(field, PARAMETERS);
+            AnnotationMirror mixin = mirror(field, MIXIN);
+            if (mirror(field, PARENT_COMMAND) != null) { appendParentCommand(cls, field); }
+            if (option == null && parameters == null && mixin == null) { return true; }
+            if ((option != null && parameters != null) || (mixin != null && (option != null || parameters != null))) {
+                return false; // picocli reports this as an error at runtime
+            }
+            TypeMirror fieldType = field.asType();
+            boolean isConstant = field.getModifiers().contains(Modifier.FINAL)
+                    && (fieldType.getKind().isPrimitive() || "java.lang.String".equals(erasure(fieldType)));
+            if (mixin != null) {
+                appendMixin(cls, field, values(mixin));
+                return true;
+            }
+            if (isConstant) { return false; } // picocli reports this as an error at runtime
+            return option != null ? appendOption(cls, field, values(option)) : appendParameters(cls, field, values(parameters));
+        }
+
+        private void appendMixin(TypeElement cls, VariableElement field, Map<String, AnnotationValue> mixin) {
+            mixinCount++;
+            String annotationName = (String) mixin.get("name").getValue();
+            String name = annotationName.trim().length() == 0 ? field.getSimpleName().toString() : annotationName;
+            if (!isAccessible(cls, field)) {
+                body.append("        mixinField(spec, ").append(literal(name)).append(", command, ")
+                        .append(literal(binaryName(cls))).append(", ").append(literal(field.getSimpleName().toString()))
+                        .append(", factory);\n");
+                return;
+            }
+            String ref = fieldRef(cls, field);
+            String fieldType = erasure(field.asType());
+            body.append("        {\n");
+            body.append("            Object mixin = ").append(ref).append(";\n");
+            body.append("            if (mixin == null) {\n");
+            body.append("                mixin = factory.create(").append(classLiteral(field.asType())).append(");\n");
+            body.append("                ").append(ref).append(" = (").append(fieldType).append(") mixin;\n");
+            body.append("            }\n");
+            body.append("            mixin(spec, ").append(literal(name)).append(", mixin, factory, ")
+                    .append(literal(genericString(cls, field))).append(");\n");
+            body.append("        }\n");
+        }
+
+        private void appendParentCommand(TypeElement cls, VariableElement field) {
+            if (!isAccessible(cls, field)) {
+                parentBody.append("        parentCommandField(subcommand, ").append(literal(binaryName(cls))).append(", ")
+                        .append(literal(field.getSimpleName().toString())).append(", parent);\n");
+                return;
+            }
+            parentBody.append("        ((").append(erasure(cls.asType())).append(") subcommand).").append(field.getSimpleName())
+                    .append(" = (").append(erasure(field.asType())).append(") parent;\n");
+        }
+
+        private boolean appendOption(TypeElement cls, VariableElement field, Map<String, AnnotationValue> option) {
+            argCount++;
+            TypeMirror fieldType = field.asType();
+            List<TypeMirror> auxiliaryTypes = inferTypes(fieldType, classes(option.get("type")));
+            if (auxiliaryTypes == null) { return false; } // picocli reports this as an error at runtime
+            String arity = (String) option.get("arity").getValue();
+            if (isUnspecified(arity)) {
+                boolean zeroArgs = isBoolean(fieldType) || (isMultiValue(fieldType) && isBoolean(auxiliaryTypes.get(0)));
+                arity = zeroArgs ? "0" : "1";
+            }
+            StringBuilder spec = new StringBuilder();
+            spec.append("new picocli.CommandLine.OptionSpec(").append(strs(option, "names")).append(")");
+            spec.append("\n                .help(").append(option.get("help").getValue()).append(")");
+            spec.append("\n                .usageHelp(").append(option.get("usageHelp").getValue()).append(")");
+            spec.append("\n                .versionHelp(").append(option.get("versionHelp").getValue()).append(")");
+            spec.append("\n                .arity(").append(literal(arity)).append(")");
+            spec.append("\n                .required(").append(option.get("required").getValue()).append(")");
+            appendCommon(spec, cls, field, option, auxiliaryTypes);
+            return true;
+        }
+
+        private boolean appendParameters(TypeElement cls, VariableElement field, Map<String, AnnotationValue> parameters) {
+            argCount++;
+            TypeMirror fieldType = field.asType();
+            List<TypeMirror> auxiliaryTypes = inferTypes(fieldType, classes(parameters.get("type")));
+            if (auxiliaryTypes == null) { return false; } // picocli reports this as an error at runtime
+            String arity = (String) parameters.get("arity").getValue();
+            if (isUnspecified(arity)) { arity = isMultiValue(fieldType) ? "0..1" : "1"; }
+            StringBuilder spec = new StringBuilder();
+            spec.append("new picocli.CommandLine.PositionalParamSpec()");
+            spec.append("\n                .arity(").append(literal(arity)).append(")");
+            spec.append("\n                .index(").append(str(parameters, "index")).append(")");
+            spec.append("\n                .required(").append(minArity(arity) > 0).append(")");
+            appendCommon(spec, cls, field, parameters, auxiliaryTypes);
+            return true;
+        }
+
+        private void appendCommon(StringBuilder spec, TypeElement cls, VariableElement field,
+                                  Map<String, AnnotationValue> annotation, List<TypeMirror> auxiliaryTypes) {
+            TypeMirror fieldType = field.asType();
+            spec.append("\n                .description(").append(strs(annotation, "description")).append(")");
+            spec.append("\n                .auxiliaryTypes(").append(classLiterals(auxiliaryTypes)).append(")");
+            spec.append("\n                .paramLabel(").append(literal(inferLabel((String) annotation.get("paramLabel").getValue(),
+                    field.getSimpleName().toString(), fieldType, auxiliaryTypes))).append(")");
+            spec.append("\n                .splitRegex(").append(str(annotation, "split")).append(")");
+            spec.append("\n                .hidden(").append(annotation.get("hidden").getValue()).append(")");
+            spec.append("\n                .converters(converters(factory, ").append(classLiterals(classes(annotation.get("converter")))).append("))");
+            if (!isAccessible(cls, field)) {
+                body.append("        spec.add(bindField(").append(spec).append(", command, ").append(literal(binaryName(cls)))
+                        .append(", ").append(literal(field.getSimpleName().toString())).append("));\n");
+                return;
+            }
+            String ref = fieldRef(cls, field);
+            String typeLiteral = classLiteral(fieldType);
+            spec.append("\n                .type(").append(typeLiteral).append(")");
+            spec.append("\n                .defaultValue(defaultValue(").append(ref).append(", ").append(typeLiteral).append("))");
+            spec.append("\n                .withToString(").append(literal(abbreviate("field " + genericString(cls, field)))).append(")");
+            spec.append("\n                .getter(new picocli.CommandLine.ArgSpec.IGetter() {");
+            spec.append("\n                    public <K> K get() { return (K) (Object) ").append(ref).append("; }");
+            spec.append("\n                })");
+            String primitive = primitiveSetterName(fieldType);
+            spec.append("\n                .setter(new picocli.CommandLine.ArgSpec.I").append(primitive == null ? "" : primitive).append("Setter() {");
+            spec.append("\n                    public <K> K set(K value) {");
+            spec.append("\n                        Object previous = ").append(ref).append(";");
+            spec.append("\n                        ").append(ref).append(" = (").append(boxedErasure(fieldType)).append(") value;");
+            spec.append("\n                        return (K) previous;");
+            spec.append("\n                    }");
+            if (primitive != null) { // set the value without boxing it
+                spec.append("\n                    public void set").append(primitive).append("(").append(fieldType).append(" value) { ")
+                        .append(ref).append(" = value; }");
+            }
+            spec.append("\n                })");
+            body.append("        spec.add(").append(spec).append(");\n");
+        }
+
+        private String fieldRef(TypeElement cls, VariableElement field) {
+            if (field.getModifiers().contains(Modifier.STATIC)) { return erasure(cls.asType()) + "." + field.getSimpleName(); }
+            return "((" + erasure(cls.asType()) + ") target)." + field.getSimpleName();
+        }
+
+        /** Returns whether the generated class (in the package of the annotated class) can access the specified field and its type,
+         * and can assign the field. */
+        private boolean isAccessible(TypeElement declaringClass, VariableElement field) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) { return false; }
+            if (!modifiers.contains(Modifier.PUBLIC) && !isSamePackage(declaringClass)) { return false; }
+            return isAccessible(declaringClass.asType()) && isAccessible(field.asType());
+        }
+
+        private boolean isAccessible(TypeMirror typeMirror) {
+            TypeMirror erasure = processingEnv.getTypeUtils().erasure(typeMirror);
+            if (erasure.getKind() == TypeKind.ARRAY) { return isAccessible(((ArrayType) erasure).getComponentType()); }
+            if (erasure.getKind() != TypeKind.DECLARED) { return erasure.getKind().isPrimitive(); }
+            for (Element e = ((DeclaredType) erasure).asElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+                Set<Modifier> modifiers = e.getModifiers();
+                if (modifiers.contains(Modifier.PRIVATE)) { return false; }
+                if (!modifiers.contains(Modifier.PUBLIC) && !isSamePackage((TypeElement) e)) { return false; }
+            }
+            return true;
+        }
+
+        private boolean isSamePackage(TypeElement element) {
+            return processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().contentEquals(packageName);
+        }
+
+        private String classLiteral(TypeMirror typeMirror) {
+            if (isAccessible(typeMirror)) { return erasure(typeMirror) + ".class"; }
+            return "loadClass(command, " + literal(className(typeMirror)) + ")";
+        }
+
+        private String classLiterals(List<TypeMirror> types) {
+            StringBuilder sb = new StringBuilder("new Class<?>[] {");
+            for (int i = 0; i < types.size(); i++) {
+                sb.append(i == 0 ? "" : ", ").append(classLiteral(types.get(i)));
+            }
+            return sb.append("}").toString();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------------
+    // Mirrors of the type inference done reflectively by picocli at runtime.
+
+    private List<TypeMirror> inferTypes(TypeMirror fieldType, List<TypeMirror> annotationTypes) {
+        if (!annotationTypes.isEmpty()) { return annotationTypes; }
+        if (fieldType.getKind() == TypeKind.ARRAY) { return Collections.singletonList(processingEnv.getTypeUtils().erasure(((ArrayType) fieldType).getComponentType())); }
+        boolean lazy = isLazy(fieldType);
+        if (!lazy && !isMultiValue(fieldType)) { return Collections.singletonList(fieldType); }
+        TypeMirror string = processingEnv.getElementUtils().getTypeElement("java.lang.String").asType();
+        List<TypeMirror> result = new ArrayList<TypeMirror>();
+        List<? extends TypeMirror> typeArguments = fieldType.getKind() == TypeKind.DECLARED
+                ? ((DeclaredType) fieldType).getTypeArguments()
+                : Collections.<TypeMirror>emptyList();
+        if (typeArguments.isEmpty()) { // field is multi-value or lazy but not a parameterized type
+            result.add(string);
+            if (!lazy) { result.add(string); }
+            return result;
+        }
+        if (lazy) { // e.g. Lazy<List<Integer>>: the converter for the raw type converts the whole value
+            TypeMirror inferred = inferLazyType(typeArguments.get(0));
+            return inferred == null ? null : Collections.singletonList(inferred);
+        }
+        for (TypeMirror argument : typeArguments) {
+            TypeMirror inferred = inferType(argument);
+            if (inferred == null) { // too convoluted generic type, giving up
+                return Collections.nCopies(typeArguments.size(), string);
+            }
+            result.add(inferred);
+        }
+        return result;
+    }
+
+    private TypeMirror inferType(TypeMirror argument) {
+        if (isClass(argument)) { return argument; } // e.g. Long
+        if (argument.getKind() == TypeKind.WILDCARD) { // e.g. ? extends Number
+            WildcardType wildcard = (WildcardType) argument;
+            if (wildcard.getSuperBound() != null) { return isClass(wildcard.getSuperBound()) ? wildcard.getSuperBound() : null; }
+            if (wildcard.getExtendsBound() != null) { return isClass(wildcard.getExtendsBound()) ? wildcard.getExtendsBound() : null; }
+            return processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+        }
+        return null;
+    }
+
+    /** Returns the type that the values of a {@code Lazy} field are converted to, or {@code null} for a type variable. */
+    private TypeMirror inferLazyType(TypeMirror argument) {
+        if (argument.getKind() == TypeKind.WILDCARD) { // e.g. ? extends Number
+            WildcardType wildcard = (WildcardType) argument;
+            argument = wildcard.getSuperBound() != null ? wildcard.getSuperBound()
+                    : wildcard.getExtendsBound() != null ? wildcard.getExtendsBound()
+                    : processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+        }
+        if (isClass(argument)) { return argument; }
+        return argument.getKind() == TypeKind.DECLARED ? processingEnv.getTypeUtils().erasure(argument) : null;
+    }
+
+    /** Returns whether the specified type would be represented by a {@code Class} (rather than a generic type) by reflection. */
+    private boolean isClass(TypeMirror typeMirror) {
+        if (typeMirror.getKind() == TypeKind.ARRAY) { return isClass(((ArrayType) typeMirror).getComponentType()); }
+        if (typeMirror.getKind().isPrimitive()) { return true; }
+        return typeMirror.getKind() == TypeKind.DECLARED && ((DeclaredType) typeMirror).getTypeArguments().isEmpty();
+    }
+
+    private boolean isMultiValue(TypeMirror typeMirror) {
+        if (typeMirror.getKind() == TypeKind.ARRAY) { return true; }
+        if (typeMirror.getKind() != TypeKind.DECLARED) { return false; }
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(typeMirror);
+        return isSubtype(erasure, "java.util.Collection") || isSubtype(erasure, "java.util.Map");
+    }
+
+    /** Returns whether the specified type is {@code CommandLine.Lazy} or {@code Callable}, whose values are converted on first use. */
+    private boolean isLazy(TypeMirror typeMirror) {
+        if (typeMirror.getKind() != TypeKind.DECLARED) { return false; }
+        String erasure = processingEnv.getTypeUtils().erasure(typeMirror).toString();
+        return "picocli.CommandLine.Lazy".equals(erasure) || "java.util.concurrent.Callable".equals(erasure);
+    }
+
+    private boolean isMap(TypeMirror typeMirror) {
+        return typeMirror.getKind() == TypeKind.DECLARED && isSubtype(processingEnv.getTypeUtils().erasure(typeMirror), "java.util.Map");
+    }
+
+    private boolean isSubtype(TypeMirror erasure, String typeName) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(typeName);
+        return processingEnv.getTypeUtils().isAssignable(erasure, processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private static boolean isBoolean(TypeMirror typeMirror) {
+        return typeMirror.getKind() == TypeKind.BOOLEAN || "java.lang.Boolean".equals(typeMirror.toString());
+    }
+
+    private static boolean isUnspecified(String range) {
+        String trimmed = range.trim();
+        return trimmed.length() == 0 || trimmed.startsWith("..");
+    }
+
+    private static int minArity(String range) {
+        String trimmed = range.trim();
+        int dots = trimmed.indexOf("..");
+        try {
+            return Integer.parseInt(dots >= 0 ? trimmed.substring(0, dots) : trimmed);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private String inferLabel(String label, String fieldName, TypeMirror fieldType, List<TypeMirror> types) {
+        if (label.trim().length() > 0) { return label.trim(); }
+        String name = fieldName;
+        if (isMap(fieldType)) {
+            name = types.size() < 2 ? "String=String" : simpleName(types.get(0)) + "=" + simpleName(types.get(1));
+        }
+        return "<" + name + ">";
+    }
+
+    private String simpleName(TypeMirror typeMirror) {
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(typeMirror);
+        switch (erasure.getKind()) {
+            case ARRAY:    return simpleName(((ArrayType) erasure).getComponentType()) + "[]";
+            case DECLARED: return ((DeclaredType) erasure).asElement().getSimpleName().toString();
+            default:       return erasure.toString();
+        }
+    }
+
+    /** Returns what {@code Field.toGenericString()} would return for the specified field. */
+    private String genericString(TypeElement declaringClass, VariableElement field) {
+        StringBuilder sb = new StringBuilder();
+        Set<Modifier> modifiers = field.getModifiers();
+        for (Modifier modifier : new Modifier[] {Modifier.PUBLIC, Modifier.PROTECTED, Modifier.PRIVATE, Modifier.STATIC,
+                Modifier.FINAL, Modifier.TRANSIENT, Modifier.VOLATILE}) {
+            if (modifiers.contains(modifier)) { sb.append(modifier).append(' '); }
+        }
+        return sb.append(typeName(field.asType())).append(' ').append(binaryName(declaringClass)).append('.')
+                .append(field.getSimpleName()).toString();
+    }
+
+    /** Returns what {@code Type.getTypeName()} would return for the reflective equivalent of the specified type. */
+    private String typeName(TypeMirror typeMirror) {
+        switch (typeMirror.getKind()) {
+            case ARRAY: return typeName(((ArrayType) typeMirror).getComponentType()) + "[]";
+            case DECLARED:
+                DeclaredType declared = (DeclaredType) typeMirror;
+                StringBuilder sb = new StringBuilder(binaryName((TypeElement) declared.asElement()));
+                List<? extends TypeMirror> args = declared.getTypeArguments();
+                for (int i = 0; i < args.size(); i++) {
+                    sb.append(i == 0 ? "<" : ", ").append(typeName(args.get(i)));
+                }
+                return args.isEmpty() ? sb.toString() : sb.append('>').toString();
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) typeMirror;
+                if (wildcard.getSuperBound() != null) { return "? super " + typeName(wildcard.getSuperBound()); }
+                TypeMirror upper = wildcard.getExtendsBound();
+                return upper == null || "java.lang.Object".equals(upper.toString()) ? "?" : "? extends " + typeName(upper);
+            default: return typeMirror.toString();
+        }
+    }
+
+    /** Mirrors {@code ArgSpecBuilder.abbreviate}. */
+    private static String abbreviate(String text) {
+        return text.replace("field private ", "field ")
+                .replace("field protected ", "field ")
+                .replace("field public ", "field ")
+                .replace("java.lang.", "");
+    }
+
+    // ------------------------------------------------------------------------------------------------------------------
+    // Helpers for reading annotation values and producing Java source fragments.
+
+    private static AnnotationMirror mirror(Element element, String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationType)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, AnnotationValue> values(AnnotationMirror mirror) {
+        Map<String, AnnotationValue> result = new LinkedHashMap<String, AnnotationValue>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            result.put(entry.getKey().getSimpleName().toString(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static List<TypeMirror> classes(AnnotationValue value) {
+        List<TypeMirror> result = new ArrayList<TypeMirror>();
+        for (Object element : (List<?>) value.getValue()) {
+            result.add((TypeMirror) ((AnnotationValue) element).getValue());
+        }
+        return result;
+    }
+
+    private TypeElement superclass(TypeElement cls) {
+        TypeMirror superclass = cls.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) { return null; }
+        TypeElement result = (TypeElement) ((DeclaredType) superclass).asElement();
+        return result.getQualifiedName().contentEquals("java.lang.Object") ? null : result;
+    }
+
+    private String binaryName(TypeElement element) {
+        return processingEnv.getElementUtils().getBinaryName(element).toString();
+    }
+
+    /** Returns the name of the specified type as accepted by {@code Class.forName}. */
+    private String className(TypeMirror typeMirror) {
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(typeMirror);
+        if (erasure.getKind() != TypeKind.ARRAY) { return binaryName((TypeElement) ((DeclaredType) erasure).asElement()); }
+        TypeMirror component = ((ArrayType) erasure).getComponentType();
+        if (component.getKind() == TypeKind.ARRAY) { return "[" + className(component); }
+        return component.getKind() == TypeKind.DECLARED ? "[L" + className(component) + ";" : "[" + descriptor(component);
+    }
+
+    private static String descriptor(TypeMirror primitive) {
+        switch (primitive.getKind()) {
+            case BOOLEAN: return "Z";
+            case BYTE:    return "B";
+            case CHAR:    return "C";
+            case SHORT:   return "S";
+            case INT:     return "I";
+            case LONG:    return "J";
+            case FLOAT:   return "F";
+            default:      return "D";
+        }
+    }
+
+    /** Returns the infix of the primitive setter interface for the specified field type (like "Int" for IIntSetter), or null. */
+    private static String primitiveSetterName(TypeMirror typeMirror) {
+        switch (typeMirror.getKind()) {
+            case INT:     return "Int";
+            case LONG:    return "Long";
+            case DOUBLE:  return "Double";
+            case BOOLEAN: return "Boolean";
+            default:      return null;
+        }
+    }
+
+    private String erasure(TypeMirror typeMirror) { return processingEnv.getTypeUtils().erasure(typeMirror).toString(); }
+
+    /** Returns the erasure of the specified type, or the wrapper type if the specified type is primitive. */
+    private String boxedErasure(TypeMirror typeMirror) {
+        if (typeMirror.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) typeMirror).getQualifiedName().toString();
+        }
+        return erasure(typeMirror);
+    }
+
+    private static String str(Map<String, AnnotationValue> values, String name) {
+        return literal((String) values.get(name).getValue());
+    }
+
+    private static String strs(Map<String, AnnotationValue> values, String name) {
+        StringBuilder sb = new StringBuilder("new String[] {");
+        List<?> list = (List<?>) values.get(name).getValue();
+        for (int i = 0; i < list.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(literal((String) ((AnnotationValue) list.get(i)).getValue()));
+        }
+        return sb.append("}").toString();
+    }
+
+    static String literal(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import picocli.CommandLine;
+import picocli.CommandLine.CommandSpec;
+import picocli.CommandLine.Help;
+import picocli.CommandLine.OptionSpec;
+import picocli.CommandLine.PositionalParamSpec;
+
+import static org.junit.Assert.*;
+
+public class CommandSpecFactoryProcessorTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static final String APP = "" +
+            "package demo;\n" +
+            "import java.io.File;\n" +
+            "import java.util.*;\n" +
+            "import picocli.CommandLine.*;\n" +
+            "@Command(name = \"app\", version = \"1.0\", description = {\"Demo \\\"app\\\"\", \"2nd line\"}, subcommands = App.Sub.class, sortOptions = false)\n" +
+            "public class App extends Base {\n" +
+            "    @Option(names = {\"-v\", \"--verbose\"}, description = \"be verbose\") boolean verbose;\n" +
+            "    @Option(names = \"-n\", arity = \"1\") int count = 3;\n" +
+            "    @Option(names = \"-D\") Map<String, ? super Integer> props;\n" +
+            "    @Option(names = \"-f\", paramLabel = \"FILE\") private File file;\n" +
+            "    @Option(names = \"--host\") Lazy<java.net.InetAddress> host;\n" +
+            "    @Option(names = \"--ports\") Lazy<? extends List<Integer>> ports;\n" +
+            "    @Parameters List<String> params;\n" +
+            "    @Mixin Common common;\n" +
+            "    @Command(name = \"sub\")\n" +
+            "    static class Sub {\n" +
+            "        @ParentCommand App parent;\n" +
+            "        @Option(names = \"-x\") long x;\n" +
+            "    }\n" +
+            "}\n" +
+            "class Base {\n" +
+            "    @Option(names = \"--base\", split = \",\") protected String[] base = {\"a\", \"b\"};\n" +
+            "}\n" +
+            "class Common {\n" +
+            "    @Option(names = \"-q\", hidden = true) boolean quiet;\n" +
+            "}\n";
+
+    @Test
+    public void testGeneratedFactoryBuildsSameModelAsReflection() throws Exception {
+        ClassLoader generated = compile(APP, true);
+        ClassLoader reflective = compile(APP, false);
+        assertNotNull(generated.loadClass("demo.App" + CommandLine.GeneratedSpecFactory.SUFFIX));
+
+        CommandLine expected = new CommandLine(reflective.loadClass("demo.App").newInstance());
+        CommandLine actual = new CommandLine(generated.loadClass("demo.App").newInstance());
+        assertModelEquals(expected.getCommandSpec(), actual.getCommandSpec());
+        assertModelEquals(expected.getSubcommands().get("sub").getCommandSpec(), actual.getSubcommands().get("sub").getCommandSpec());
+        assertEquals(usage(expected), usage(actual));
+    }
+
+    @Test
+    public void testGeneratedFactoryUsesTypedAccessors() throws Exception {
+        ClassLoader generated = compile(APP, true);
+        CommandLine commandLine = new CommandLine(generated.loadClass("demo.App").newInstance());
+        OptionSpec verbose = commandLine.getCommandSpec().optionsMap().get("-v");
+        assertTrue(verbose.getter().getClass().getName().startsWith("demo.App$$PicocliSpecFactory"));
+        assertTrue(verbose.setter().getClass().getName().startsWith("demo.App$$PicocliSpecFactory"));
+        assertTrue(verbose.setter() instanceof CommandLine.ArgSpec.IBooleanSetter);
+        assertTrue(commandLine.getCommandSpec().optionsMap().get("-n").setter() instanceof CommandLine.ArgSpec.IIntSetter);
+    }
+
+    @Test
+    public void testGeneratedFactoryPopulatesFields() throws Exception {
+        ClassLoader generated = compile(APP, true);
+        Object app = generated.loadClass("demo.App").newInstance();
+        List<CommandLine> parsed = new CommandLine(app).parse(
+                "-v", "-n", "5", "-Dx=1", "-f", "a.txt", "--host", "localhost", "--base", "c,d", "-q", "p1", "p2", "sub", "-x", "7");
+        assertEquals(2, parsed.size());
+        assertEquals(true, get(app, "verbose"));
+        assertEquals(5, get(app, "count"));
+        assertEquals(Collections.singletonMap("x", 1), get(app, "props"));
+        assertEquals(new File("a.txt"), get(app, "file"));
+        assertEquals("localhost", ((CommandLine.Lazy<?>) get(app, "host")).text());
+        assertArrayEquals(new String[] {"a", "b", "c", "d"}, (String[]) get(app, "base"));
+        assertEquals(Arrays.asList("p1", "p2"), get(app, "params"));
+        assertEquals(true, get(get(app, "common"), "quiet"));
+
+        Object sub = parsed.get(1).getCommand();
+        assertSame(app, get(sub, "parent"));
+        assertEquals(7L, get(sub, "x"));
+    }
+
+    @Test
+    public void testFinalFieldsAreBoundReflectively() throws Exception {
+        String source = "" +
+                "package demo;\n" +
+                "import java.util.*;\n" +
+                "import picocli.CommandLine.*;\n" +
+                "@Command(name = \"fin\")\n" +
+                "public class Fin {\n" +
+                "    @Option(names = \"-l\") final List<String> list = new ArrayList<String>();\n" +
+                "    @Mixin final Common common = new Common();\n" +
+                "}\n" +
+                "class Common {\n" +
+                "    @Option(names = \"-q\") boolean quiet;\n" +
+                "}\n";
+        ClassLoader generated = compile(source, true);
+        ClassLoader reflective = compile(source, false);
+        assertNotNull(generated.loadClass("demo.Fin" + CommandLine.GeneratedSpecFactory.SUFFIX));
+        assertModelEquals(new CommandLine(reflective.loadClass("demo.Fin").newInstance()).getCommandSpec(),
+                new CommandLine(generated.loadClass("demo.Fin").newInstance()).getCommandSpec());
+
+        Object app = generated.loadClass("demo.Fin").newInstance();
+        Object common = get(app, "common");
+        new CommandLine(app).parse("-l", "a", "-l", "b", "-q");
+        assertEquals(Arrays.asList("a", "b"), get(app, "list"));
+        assertSame(common, get(app, "common"));
+        assertEquals(true, get(common, "quiet"));
+    }
+
+    @Test
+    public void testPrivateClassIsNotGenerated() throws Exception {
+        String source = "" +
+                "package demo;\n" +
+                "import picocli.CommandLine.*;\n" +
+                "public class Outer {\n" +
+                "    @Command private static class Hidden { @Option(names = \"-x\") int x; }\n" +
+                "    @Command static class Visible { @Option(names = \"-x\") int x; }\n" +
+                "}\n";
+        ClassLoader generated = compile(source, true);
+        assertNotNull(generated.loadClass("demo.Outer$Visible" + CommandLine.GeneratedSpecFactory.SUFFIX));
+        try {
+            generated.loadClass("demo.Outer$Hidden" + CommandLine.GeneratedSpecFactory.SUFFIX);
+            fail("Expected no factory for private class");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    private static void assertModelEquals(CommandSpec expected, CommandSpec actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.toString(), actual.toString());
+        assertArrayEquals(expected.version(), actual.version());
+        assertArrayEquals(expected.description(), actual.description());
+        assertEquals(expected.sortOptions(), actual.sortOptions());
+        assertEquals(expected.mixins().keySet(), actual.mixins().keySet());
+        assertEquals(expected.subcommands().keySet(), actual.subcommands().keySet());
+        assertEquals(expected.options().size(), actual.options().size());
+        for (int i = 0; i < expected.options().size(); i++) {
+            OptionSpec option = expected.options().get(i);
+            assertEquals(option, actual.options().get(i));
+            assertEquals(option.toString(), actual.options().get(i).toString());
+        }
+        assertEquals(expected.positionalParameters().size(), actual.positionalParameters().size());
+        for (int i = 0; i < expected.positionalParameters().size(); i++) {
+            PositionalParamSpec positional = expected.positionalParameters().get(i);
+            assertEquals(positional, actual.positionalParameters().get(i));
+            assertEquals(positional.toString(), actual.positionalParameters().get(i).toString());
+        }
+    }
+
+    private static String usage(CommandLine commandLine) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        commandLine.usage(new PrintStream(baos, true), Help.Ansi.OFF);
+        return baos.toString("UTF-8");
+    }
+
+    private static Object get(Object object, String fieldName) throws Exception {
+        for (Class<?> cls = object.getClass(); cls != null; cls = cls.getSuperclass()) {
+            try {
+                Field field = cls.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field.get(object);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+
+    private ClassLoader compile(String source, boolean runProcessor) throws Exception {
+        File root = temp.newFolder();
+        String publicClass = source.replaceAll("(?s).*public class (\\w+).*", "$1");
+        File sourceFile = new File(root, "src/demo/" + publicClass + ".java");
+        assertTrue(sourceFile.getParentFile().mkdirs());
+        FileWriter writer = new FileWriter(sourceFile);
+        writer.write(source);
+        writer.close();
+        File classes = new File(root, "classes");
+        assertTrue(classes.mkdirs());
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> args = new ArrayList<String>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"), "-d", classes.getPath(), "-s", classes.getPath()));
+        args.addAll(runProcessor
+                ? Arrays.asList("-processor", CommandSpecFactoryProcessor.class.getName())
+                : Collections.singletonList("-proc:none"));
+        args.add(sourceFile.getPath());
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int result = compiler.run(null, null, errors, args.toArray(new String[0]));
+        assertEquals(errors.toString(), 0, result);
+        return new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+    }
+}
@@ -17,13 +17,17 @@ package picocli;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.io.StreamTokenizer;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -50,6 +54,7 @@ import java.sql.Timestamp;
 import java.text.BreakIterator;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -57,21 +62,30 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Currency;
 import java.util.Date;
+import java.util.EmptyStackException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.Stack;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.regex.Pattern;
 
 import picocli.CommandLine.Help.Ansi.IStyle;
@@ -146,13 +160,25 @@ public class CommandLine {
     public static final String VERSION = "3.0.0-alpha1-SNAPSHOT";
 
     private final Tracer tracer = new Tracer();
-    private final CommandSpec commandSpec;
+    private CommandSpec commandSpec;
     private final Interpreter interpreter;
     private final IFactory factory;
+    private volatile Class<?> lazySubcommand;
+    private CommandSpec lazyParent;
 
     private boolean overwrittenOptionsAllowed = false;
     private boolean unmatchedArgumentsAllowed = false;
+    private boolean stopParsingAtHelp = false;
+    private boolean caseInsensitiveEnumValuesAllowed = false;
+    private boolean abbreviatedEnumValuesAllowed = false;
     private boolean expandAtFiles = true;
+    private int parseResultCacheSize;
+    private volatile Map<List<String>, ParseReplay> parseResultCache; // null unless the cache size is positive
+    private IParseListener parseListener;
+    private boolean metricsEnabled = isMetricsProperty();
+    private boolean lightweightExceptions = false;
+    private volatile ShortUsage shortUsage; // rendered when first needed, and again after the model changes
+    private CommandMetrics metrics; // looked up when first used, after the parent command is known
 
     private List<String> unmatchedArguments = new ArrayList<String>();
     private boolean usageHelpRequested;
@@ -193,12 +219,54 @@ public class CommandLine {
         commandSpec.commandLine(this);
         commandSpec.validate();
     }
+    /** Constructs a placeholder for a {@linkplain Command#lazySubcommands() lazily instantiated} subcommand. */
+    private CommandLine(IFactory factory, Class<?> subcommand) {
+        this.factory = factory;
+        interpreter = new Interpreter();
+        lazySubcommand = subcommand;
+    }
 
     /**
      * Returns the {@code CommandSpec} model that this {@code CommandLine} was constructed with.
+     * For a {@linkplain Command#lazySubcommands() lazily instantiated} subcommand, the first invocation of this method
+     * instantiates the user object and builds the model.
      * @return the {@code CommandSpec} model
      * @since 3.0 */
-    public CommandSpec getCommandSpec() { return commandSpec; }
+    public CommandSpec getCommandSpec() {
+        if (lazySubcommand != null) { instantiateLazySubcommand(); }
+        return commandSpec;
+    }
+    private synchronized void instantiateLazySubcommand() {
+        if (lazySubcommand == null || commandSpec != null) { return; } // done by another thread, or in progress on this thread
+        CommandSpec spec = CommandSpecBuilder.buildSubcommand(lazySubcommand, factory);
+        spec.commandLine(this);
+        spec.validate();
+        spec.parent(lazyParent);
+        commandSpec = spec;
+        if (lazyParent != null) { CommandSpecBuilder.initParentCommand(spec.userObject(), lazyParent.userObject()); }
+
+        // apply the settings this placeholder received to the newly created subcommands
+        setOverwrittenOptionsAllowed(overwrittenOptionsAllowed);
+        setUnmatchedArgumentsAllowed(unmatchedArgumentsAllowed);
+        setStopParsingAtHelp(stopParsingAtHelp);
+        setCaseInsensitiveEnumValuesAllowed(caseInsensitiveEnumValuesAllowed);
+        setAbbreviatedEnumValuesAllowed(abbreviatedEnumValuesAllowed);
+        setMetricsEnabled(metricsEnabled);
+        setLightweightExceptions(lightweightExceptions);
+        setParseListener(parseListener);
+        for (Map.Entry<Class<?>, ITypeConverter<?>> entry : interpreter.converters.registry.entrySet()) {
+            registerConverter((Class<Object>) entry.getKey(), (ITypeConverter<Object>) entry.getValue());
+        }
+        lazySubcommand = null;
+        lazyParent = null;
+    }
+    /** Returns the subcommands of this command, without instantiating a lazy subcommand that is not used yet. */
+    private Collection<CommandLine> instantiatedSubcommands() {
+        return commandSpec == null ? Collections.<CommandLine>emptyList() : commandSpec.commands.values();
+    }
+    private void initParent(CommandSpec parent) {
+        if (commandSpec == null) { lazyParent = parent; } else { commandSpec.parent(parent); }
+    }
 
     /**
      * Adds the options and positional parameters in the specified mixin to this command.
@@ -289,7 +357,7 @@ public class CommandLine {
      * @since 0.9.8
      */
     public CommandLine getParent() {
-        CommandSpec parent = getCommandSpec().parent();
+        CommandSpec parent = commandSpec == null ? lazyParent : commandSpec.parent();
         return parent == null ? null : parent.commandLine();
     }
 
@@ -333,7 +401,7 @@ public class CommandLine {
      */
     public CommandLine setOverwrittenOptionsAllowed(boolean newValue) {
         this.overwrittenOptionsAllowed = newValue;
-        for (CommandLine command : getCommandSpec().subcommands().values()) {
+        for (CommandLine command : instantiatedSubcommands()) {
             command.setOverwrittenOptionsAllowed(newValue);
         }
         return this;
@@ -362,12 +430,251 @@ public class CommandLine {
      */
     public CommandLine setUnmatchedArgumentsAllowed(boolean newValue) {
         this.unmatchedArgumentsAllowed = newValue;
-        for (CommandLine command : getCommandSpec().subcommands().values()) {
+        for (CommandLine command : instantiatedSubcommands()) {
             command.setUnmatchedArgumentsAllowed(newValue);
         }
         return this;
     }
 
+    /** Returns whether enum values may be specified on the command line in a different case than the enum constant names.
+     * The default is {@code false}.
+     * @return {@code true} if {@code seconds} and {@code Seconds} are accepted for enum constant {@code SECONDS}, {@code false} otherwise
+     * @see #setCaseInsensitiveEnumValuesAllowed(boolean)
+     * @since 3.0
+     */
+    public boolean isCaseInsensitiveEnumValuesAllowed() {
+        return caseInsensitiveEnumValuesAllowed;
+    }
+
+    /** Sets whether enum values may be specified on the command line in a different case than the enum constant names.
+     * A value that exactly matches the name of a constant always selects that constant; a value that matches several
+     * constants when case is ignored is rejected.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setCaseInsensitiveEnumValuesAllowed(boolean newValue) {
+        this.caseInsensitiveEnumValuesAllowed = newValue;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setCaseInsensitiveEnumValuesAllowed(newValue);
+        }
+        return this;
+    }
+
+    /** Returns whether enum values may be abbreviated on the command line to a unique prefix of an enum constant name.
+     * The default is {@code false}.
+     * @return {@code true} if {@code SEC} is accepted for enum constant {@code SECONDS}, {@code false} otherwise
+     * @see #setAbbreviatedEnumValuesAllowed(boolean)
+     * @since 3.0
+     */
+    public boolean isAbbreviatedEnumValuesAllowed() {
+        return abbreviatedEnumValuesAllowed;
+    }
+
+    /** Sets whether enum values may be abbreviated on the command line to a unique prefix of an enum constant name.
+     * A value that exactly matches the name of a constant always selects that constant; a prefix of more than one
+     * constant name is rejected. Combined with {@link #setCaseInsensitiveEnumValuesAllowed(boolean)}, prefixes are
+     * matched case-insensitively.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setAbbreviatedEnumValuesAllowed(boolean newValue) {
+        this.abbreviatedEnumValuesAllowed = newValue;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setAbbreviatedEnumValuesAllowed(newValue);
+        }
+        return this;
+    }
+    /** Returns the {@code ParsePlan.ENUM_*} flags for the current enum settings. */
+    private int enumMatching() {
+        return (caseInsensitiveEnumValuesAllowed ? ParsePlan.ENUM_CASE_INSENSITIVE : 0)
+                | (abbreviatedEnumValuesAllowed ? ParsePlan.ENUM_ABBREVIATED : 0);
+    }
+    /** Returns the parse plan of this command for the registered converters and the current enum settings. */
+    ParsePlan parsePlan() { return getCommandSpec().parsePlan(interpreter.converters, enumMatching()); }
+
+    /** Returns whether parsing stops when a {@linkplain Option#usageHelp() usageHelp} or {@linkplain Option#versionHelp() versionHelp}
+     * option is matched. The default is {@code false}: the remaining arguments are converted and applied as usual.
+     * @return {@code true} if the arguments that follow a help option are not processed, {@code false} otherwise
+     * @see #setStopParsingAtHelp(boolean)
+     * @since 3.0
+     */
+    public boolean isStopParsingAtHelp() {
+        return stopParsingAtHelp;
+    }
+
+    /** Sets whether parsing stops when a {@linkplain Option#usageHelp() usageHelp} or {@linkplain Option#versionHelp() versionHelp}
+     * option is matched. When {@code true}, the arguments that follow the help option are read from the command line
+     * (and from {@code @files}), but not converted, validated or matched to subcommands, so help is shown quickly even if
+     * converting the other arguments is slow, for example because a converter does a DNS lookup or opens a database
+     * connection. Arguments that precede the help option are processed as usual.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setStopParsingAtHelp(boolean newValue) {
+        this.stopParsingAtHelp = newValue;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setStopParsingAtHelp(newValue);
+        }
+        return this;
+    }
+
+    /** Returns whether {@link ParameterException}s for this command are lightweight: they have no stack trace, and the
+     * {@link DefaultExceptionHandler} prints a short usage message instead of the full usage help. The default is {@code false}.
+     * @return {@code true} if parameter exceptions are lightweight, {@code false} otherwise
+     * @see #setLightweightExceptions(boolean)
+     * @since 3.0
+     */
+    public boolean isLightweightExceptions() {
+        return lightweightExceptions;
+    }
+
+    /** Sets whether {@link ParameterException}s for this command are lightweight. Lightweight exceptions do not fill in their
+     * stack trace when they are created, and the {@link DefaultExceptionHandler} prints the synopsis of the command, which is
+     * rendered only once, instead of rendering the full usage help for every error. This makes rejecting invalid input
+     * much cheaper for applications that validate many command lines, most of which are invalid.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setLightweightExceptions(boolean newValue) {
+        this.lightweightExceptions = newValue;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setLightweightExceptions(newValue);
+        }
+        return this;
+    }
+
+    /** Returns the maximum number of parse results this {@code CommandLine} caches. The default is {@code 0}: nothing is cached.
+     * @return the maximum number of argument arrays whose parse results are cached
+     * @see #setParseResultCacheSize(int)
+     * @since 3.0
+     */
+    public int getParseResultCacheSize() {
+        return parseResultCacheSize;
+    }
+
+    /** Sets the maximum number of parse results to cache. When {@link #parse(String...)} is called on this
+     * {@code CommandLine} with the same arguments as an earlier call, the converted values of the earlier call are
+     * set on the options and positional parameters again, without tokenizing and converting the arguments.
+     * When the cache is full, the least recently used result is discarded.
+     * <p>Results are only cached if parsing succeeded, if no {@code @file} arguments were specified, and if all
+     * converters that were used implement {@link IPureConverter}, so that the cached values may be shared. Values are
+     * added to the current values of multi-value options and positional parameters as they would be by a real parse.
+     * A result is not reused when the model, the registered converters, or the settings of the commands have changed.
+     * When a result is replayed, the {@linkplain #setParseListener(IParseListener) parse listener} is notified of the
+     * matched options, unmatched arguments and subcommands, but not of converted values.</p>
+     * <p>Unlike most settings, this setting only applies to this {@code CommandLine}, not to its subcommands.</p>
+     * @param newValue the maximum number of results to cache; {@code 0} disables caching and discards any cached results
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setParseResultCacheSize(final int newValue) {
+        if (newValue < 0) { throw new IllegalArgumentException("Cache size must not be negative: " + newValue); }
+        this.parseResultCacheSize = newValue;
+        this.parseResultCache = newValue == 0 ? null : new LinkedHashMap<List<String>, ParseReplay>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<String>, ParseReplay> eldest) { return size() > newValue; }
+        };
+        return this;
+    }
+
+    /** Returns the listener that is notified while command line arguments are parsed, or {@code null} (the default).
+     * @return the parse listener, or {@code null}
+     * @see #setParseListener(IParseListener)
+     * @since 3.0
+     */
+    public IParseListener getParseListener() {
+        return parseListener;
+    }
+
+    /** Sets the listener that is notified of options that are matched, values that are converted, subcommands,
+     * unmatched arguments and errors while command line arguments are parsed. When a parse result is
+     * {@linkplain #setParseResultCacheSize(int) replayed from the cache}, the listener is notified of the matched options,
+     * unmatched arguments and subcommands again, but not of converted values, because the cached values are not converted again.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param listener the listener to notify, or {@code null} to stop notifying a listener
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setParseListener(IParseListener listener) {
+        this.parseListener = listener;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setParseListener(listener);
+        }
+        return this;
+    }
+
+    /** Returns whether parse, conversion and execution metrics are collected for this command. The default is {@code false},
+     * unless system property {@code picocli.metrics} is set to a value other than {@code "false"}.
+     * @return {@code true} if metrics are collected, {@code false} otherwise
+     * @see #setMetricsEnabled(boolean)
+     * @since 3.0
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /** Sets whether parse, conversion and execution metrics are collected for this command. When enabled, picocli registers a
+     * {@link CommandMetricsMBean} for the command with the platform MBean server (where {@code javax.management} is available),
+     * with object name {@code picocli:type=CommandMetrics,name="<qualified command name>"}. All {@code CommandLine} objects
+     * for a command with the same qualified name share the same metrics, until they are {@linkplain CommandMetrics#unregister() unregistered}.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 3.0
+     */
+    public CommandLine setMetricsEnabled(boolean newValue) {
+        this.metricsEnabled = newValue;
+        for (CommandLine command : instantiatedSubcommands()) {
+            command.setMetricsEnabled(newValue);
+        }
+        return this;
+    }
+
+    /** Returns the metrics collected for this command, or {@code null} if {@linkplain #isMetricsEnabled() metrics are not enabled}.
+     * @return the metrics of this command, or {@code null}
+     * @since 3.0
+     */
+    public CommandMetrics getMetrics() {
+        if (!metricsEnabled) { return null; }
+        if (metrics == null || metrics.unregistered) {
+            String name = getCommandSpec().name();
+            for (CommandSpec parent = commandSpec.parent(); parent != null; parent = parent.parent()) {
+                name = parent.name() + " " + name;
+            }
+            metrics = CommandMetrics.forCommand(name);
+        }
+        return metrics;
+    }
+    private static boolean isMetricsProperty() {
+        String value = System.getProperty("picocli.metrics");
+        return value != null && !"false".equalsIgnoreCase(value);
+    }
+
     /** Returns the list of unmatched command line arguments, if any.
      * @return the list of unmatched command line arguments or an empty list
      * @see #isUnmatchedArgumentsAllowed()
@@ -420,6 +727,49 @@ public class CommandLine {
     public List<CommandLine> parse(String... args) {
         return interpreter.parse(args);
     }
+    /** Parses the specified command line arguments and returns the result, without modifying the annotated fields, the
+     * model or the state of this {@code CommandLine}. Because all state of the parse is kept in the result, one
+     * {@code CommandLine} instance can parse arguments for many threads concurrently.
+     * <p>
+     * The values in the result are the values the options and positional parameters would have after
+     * {@link #parse(String...) parse}: multi-value options add to a copy of the initial value of the array, collection or map.
+     * </p>
+     * @param args the command line arguments to parse
+     * @return the options, positional parameters and subcommands that were matched, and their values
+     * @throws ParameterException if the specified command line arguments are invalid; use
+     *      {@link ParameterException#getCommandLine()} to get the command or subcommand whose user input was invalid
+     * @since 3.0 */
+    public ParseResult parseArgs(String... args) {
+        return interpreter.parseArgs(args);
+    }
+    /** Parses the command line arguments supplied by the specified iterator. Arguments are read from the iterator as
+     * they are processed and are not retained afterwards, so the number of arguments is not limited by memory.
+     * <p>
+     * Values for multi-value positional parameters are added to the {@code Collection} field one by one as they are
+     * converted. Use a collection that processes and discards its elements to handle arguments incrementally.
+     * A {@code Collection} positional parameter that is the only one at its index range does not need the arguments to
+     * be buffered; arrays and overlapping positional parameters do.
+     * </p><p>
+     * An {@code @-} argument is replaced by the arguments read from standard input, which are also read as they are processed.
+     * </p>
+     * @param args supplies the command line arguments to parse
+     * @return a list with the top-level command and any subcommands initialized by this method
+     * @throws ParameterException if the specified command line arguments are invalid
+     * @see #parse(String...)
+     * @since 3.0 */
+    public List<CommandLine> parse(Iterator<String> args) {
+        return interpreter.parse(args);
+    }
+    /** Parses the command line arguments read from the specified reader. The text is split into arguments like an
+     * argument file: arguments are separated by whitespace, may be quoted, and {@code #} starts a comment.
+     * Arguments are read as they are processed, as described for {@link #parse(Iterator)}.
+     * @param reader supplies the command line arguments to parse
+     * @return a list with the top-level command and any subcommands initialized by this method
+     * @throws ParameterException if the specified command line arguments are invalid
+     * @since 3.0 */
+    public List<CommandLine> parse(Reader reader) {
+        return interpreter.parse(new ArgumentTokenizer(Assert.notNull(reader, "reader"), "reader"));
+    }
     /**
      * Represents a function that can process a List of {@code CommandLine} objects resulting from successfully
      * {@linkplain #parse(String...) parsing} the command line arguments. This is a
@@ -476,14 +826,222 @@ public class CommandLine {
      *     System.err.println(paramException.getMessage());
      *     paramException.getCommandLine().usage(System.err);
      * </pre>
+     * <p>If the command has {@linkplain #setLightweightExceptions(boolean) lightweight exceptions}, only the synopsis
+     * of the command is printed instead of the full usage message.</p>
      * @since 2.0 */
     public static class DefaultExceptionHandler implements IExceptionHandler {
         public List<Object> handleException(ParameterException ex, PrintStream out, Help.Ansi ansi, String... args) {
             out.println(ex.getMessage());
-            ex.getCommandLine().usage(out, ansi);
+            CommandLine commandLine = ex.getCommandLine();
+            if (commandLine.isLightweightExceptions()) {
+                out.print(commandLine.shortUsage(ansi));
+            } else {
+                commandLine.usage(out, ansi);
+            }
             return Collections.emptyList();
         }
     }
+    /**
+     * Receives notifications of what happens while a command line is parsed, for example to collect metrics.
+     * Unlike the tracing enabled with the {@code picocli.trace} system property, notifications do not format any messages;
+     * when no listener is registered, the parser does not measure or report anything.
+     * Listeners are called on the thread that parses the command line and should return quickly.
+     * @see #setParseListener(IParseListener)
+     * @since 3.0 */
+    public static interface IParseListener {
+        /** Called when an option is matched on the command line, before its parameters are consumed.
+         * @param commandLine the command or subcommand that has the option
+         * @param option the option that was matched
+         * @param name the option name as specified on the command line, like {@code "-v"} or {@code "--file"} */
+        void optionMatched(CommandLine commandLine, OptionSpec option, String name);
+
+        /** Called when a value for an option or positional parameter was converted.
+         * Values of primitive type are boxed for this notification.
+         * @param commandLine the command or subcommand that has the option or positional parameter
+         * @param argSpec the option or positional parameter the value is for
+         * @param text the command line argument (or the part of it after splitting) that was converted
+         * @param value the result of the conversion
+         * @param elapsedNanos how long the conversion took, in nanoseconds */
+        void valueConverted(CommandLine commandLine, ArgSpec argSpec, String text, Object value, long elapsedNanos);
+
+        /** Called when a subcommand is matched, before its arguments are parsed.
+         * @param parent the command that has the subcommand
+         * @param subcommand the subcommand that was matched
+         * @param name the subcommand name as specified on the command line */
+        void subcommandEntered(CommandLine parent, CommandLine subcommand, String name);
+
+        /** Called when an argument cannot be matched to an option, positional parameter or subcommand.
+         * @param commandLine the command or subcommand that was parsing the argument
+         * @param arg the argument that was not matched */
+        void unmatched(CommandLine commandLine, String arg);
+
+        /** Called when parsing fails, before the exception is thrown to the caller.
+         * @param exception the exception; use {@link ParameterException#getCommandLine()} to get the command or
+         *          subcommand whose user input was invalid */
+        void error(ParameterException exception);
+    }
+    /**
+     * Management interface of the {@link CommandMetrics} that are collected for a command when
+     * {@linkplain #setMetricsEnabled(boolean) metrics are enabled}.
+     * Latency histograms have one bucket per power of two: bucket {@code i} counts the durations of at least
+     * 2<sup>i</sup> and less than 2<sup>i+1</sup> nanoseconds; the last bucket also counts all longer durations.
+     * @since 3.0 */
+    public interface CommandMetricsMBean {
+        /** Returns the qualified name of the command, with the names of its parent commands separated by spaces.
+         * @return the command name, like {@code "git commit"} */
+        String getCommandName();
+        /** Returns how many times the command line arguments of this command were parsed. Only the command that
+         * {@code parse} is called on counts the call: parsing a parent command does not change the parse count of the
+         * subcommands it matches, so subcommands usually have a parse count of zero.
+         * @return the number of {@code parse} calls, including calls that failed */
+        long getParseCount();
+        /** Returns the total time spent parsing the command line arguments of this command, including its subcommands.
+         * @return the parse time in nanoseconds */
+        long getParseTimeNanos();
+        /** Returns the number of parse calls per latency bucket.
+         * @return the parse latency histogram */
+        long[] getParseLatencyHistogram();
+        /** Returns how many times the user input for this command was invalid.
+         * @return the number of {@code ParameterException}s for this command */
+        long getParameterExceptionCount();
+        /** Returns how many times this command was executed by one of the built-in parse result handlers,
+         * like {@link RunLast} or {@link RunAll}.
+         * @return the number of executions, including executions that failed */
+        long getExecutionCount();
+        /** Returns the total time spent executing this command.
+         * @return the execution time in nanoseconds */
+        long getExecutionTimeNanos();
+        /** Returns the number of executions per latency bucket.
+         * @return the execution latency histogram */
+        long[] getExecutionLatencyHistogram();
+        /** Returns how many values were converted for the options and positional parameters of this command, per converter class.
+         * @return a map from converter class name to the number of converted values */
+        Map<String, Long> getConversionCounts();
+        /** Returns the total time spent converting values for the options and positional parameters of this command, per converter class.
+         * @return a map from converter class name to the conversion time in nanoseconds */
+        Map<String, Long> getConversionTimeNanos();
+        /** Sets all counters and histograms to zero. */
+        void reset();
+    }
+    /**
+     * Parse, conversion and execution metrics for a command, collected when {@linkplain #setMetricsEnabled(boolean) metrics are enabled}.
+     * There is one instance per qualified command name, registered with the platform MBean server when it is created,
+     * until it is {@linkplain #unregister() unregistered}.
+     * Counters are {@linkplain StripedCounter striped}, so that commands that are parsed on many threads concurrently do not
+     * contend on the same cache line.
+     * @since 3.0 */
+    public static final class CommandMetrics implements CommandMetricsMBean {
+        static final int BUCKETS = 40;
+        private static final int PARSES = 0, PARSE_NANOS = 1, PARAMETER_EXCEPTIONS = 2, EXECUTIONS = 3, EXECUTION_NANOS = 4;
+        private static final ConcurrentMap<String, CommandMetrics> REGISTRY = new ConcurrentHashMap<String, CommandMetrics>();
+
+        private final String commandName;
+        private final StripedCounter counters = new StripedCounter(5);
+        private final StripedCounter parseLatency = new StripedCounter(BUCKETS);
+        private final StripedCounter executionLatency = new StripedCounter(BUCKETS);
+        private final ConcurrentMap<Class<?>, StripedCounter> conversions = new ConcurrentHashMap<Class<?>, StripedCounter>();
+
+        private volatile boolean unregistered;
+
+        private CommandMetrics(String commandName) { this.commandName = commandName; }
+
+        /** Returns the metrics for the specified qualified command name, creating and registering them if necessary. */
+        static CommandMetrics forCommand(String commandName) {
+            CommandMetrics result = REGISTRY.get(commandName);
+            if (result != null) { return result; }
+            CommandMetrics created = new CommandMetrics(commandName);
+            result = REGISTRY.putIfAbsent(commandName, created);
+            if (result != null) { return result; }
+            try {
+                MetricsExporter.INSTANCE.register(created);
+            } catch (Exception ex) {
+                new Tracer().warn("Could not register metrics for command '%s': %s%n", commandName, ex);
+            }
+            return created;
+        }
+        /** Returns the name this object is registered with in the platform MBean server.
+         * @return {@code picocli:type=CommandMetrics,name="<qualified command name>"}, with the command name quoted
+         *          like {@code javax.management.ObjectName.quote} does */
+        public String objectName() {
+            StringBuilder result = new StringBuilder("picocli:type=CommandMetrics,name=\"");
+            for (int i = 0; i < commandName.length(); i++) {
+                char c = commandName.charAt(i);
+                if (c == '\n') { result.append("\\n"); continue; }
+                if (c == '"' || c == '*' || c == '?' || c == '\\') { result.append('\\'); }
+                result.append(c);
+            }
+            return result.append('"').toString();
+        }
+        /** Removes these metrics from the platform MBean server and from the metrics that are shared by command name.
+         * {@code CommandLine} objects that collect metrics for this command start collecting new metrics the next time
+         * they are used. Applications that are undeployed from a container without exiting the JVM should unregister
+         * their metrics, for example with {@link #unregisterAll()}. */
+        public void unregister() {
+            if (!REGISTRY.remove(commandName, this)) { return; }
+            unregistered = true;
+            try {
+                MetricsExporter.INSTANCE.unregister(this);
+            } catch (Exception ex) {
+                new Tracer().warn("Could not unregister metrics for command '%s': %s%n", commandName, ex);
+            }
+        }
+        /** {@linkplain #unregister() Unregisters} the metrics of all commands. */
+        public static void unregisterAll() {
+            for (CommandMetrics metrics : REGISTRY.values()) { metrics.unregister(); }
+        }
+
+        void parsed(long elapsedNanos) {
+            counters.add(PARSES, 1);
+            counters.add(PARSE_NANOS, elapsedNanos);
+            parseLatency.add(bucket(elapsedNanos), 1);
+        }
+        void parameterException() {
+            counters.add(PARAMETER_EXCEPTIONS, 1);
+        }
+        void executed(long elapsedNanos) {
+            counters.add(EXECUTIONS, 1);
+            counters.add(EXECUTION_NANOS, elapsedNanos);
+            executionLatency.add(bucket(elapsedNanos), 1);
+        }
+        void converted(ITypeConverter<?> converter, long elapsedNanos) {
+            Class<?> type = converter.getClass();
+            StripedCounter counter = conversions.get(type);
+            if (counter == null) {
+                StripedCounter existing = conversions.putIfAbsent(type, counter = new StripedCounter(2));
+                if (existing != null) { counter = existing; }
+            }
+            counter.add(0, 1);
+            counter.add(1, elapsedNanos);
+        }
+        private static int bucket(long nanos) {
+            return Math.min(BUCKETS - 1, Math.max(0, 63 - Long.numberOfLeadingZeros(nanos)));
+        }
+
+        public String getCommandName()           { return commandName; }
+        public long getParseCount()              { return counters.sum(PARSES); }
+        public long getParseTimeNanos()          { return counters.sum(PARSE_NANOS); }
+        public long[] getParseLatencyHistogram() { return parseLatency.sums(); }
+        public long getParameterExceptionCount() { return counters.sum(PARAMETER_EXCEPTIONS); }
+        public long getExecutionCount()          { return counters.sum(EXECUTIONS); }
+        public long getExecutionTimeNanos()      { return counters.sum(EXECUTION_NANOS); }
+        public long[] getExecutionLatencyHistogram() { return executionLatency.sums(); }
+        public Map<String, Long> getConversionCounts()    { return conversions(0); }
+        public Map<String, Long> getConversionTimeNanos() { return conversions(1); }
+        private Map<String, Long> conversions(int slot) {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<Class<?>, StripedCounter> entry : conversions.entrySet()) {
+                result.put(entry.getKey().getName(), entry.getValue().sum(slot));
+            }
+            return result;
+        }
+        public void reset() {
+            counters.reset();
+            parseLatency.reset();
+            executionLatency.reset();
+            conversions.clear();
+        }
+        public String toString() { return getClass().getSimpleName() + "[" + commandName + "]"; }
+    }
     /**
      * Helper method that may be useful when processing the list of {@code CommandLine} objects that result from successfully
      * {@linkplain #parse(String...) parsing} command line arguments. This method prints out
@@ -513,6 +1071,18 @@ public class CommandLine {
         return false;
     }
     private static Object execute(CommandLine parsed) {
+        CommandMetrics metrics = parsed.getMetrics();
+        Object event = Profiler.INSTANCE.begin(Profiler.EXECUTE);
+        if (metrics == null && event == null) { return executeCommand(parsed); }
+        long start = System.nanoTime();
+        try {
+            return executeCommand(parsed);
+        } finally {
+            if (metrics != null) { metrics.executed(System.nanoTime() - start); }
+            if (event != null) { Profiler.INSTANCE.end(event, parsed.getCommandSpec().name(), 0, null); }
+        }
+    }
+    private static Object executeCommand(CommandLine parsed) {
         Object command = parsed.getCommand();
         if (command instanceof Runnable) {
             try {
@@ -813,6 +1383,58 @@ public class CommandLine {
      * @param colorScheme the {@code ColorScheme} defining the styles for options, parameters and commands when ANSI is enabled
      */
     public void usage(PrintStream out, Help.ColorScheme colorScheme) {
+        Object event = Profiler.INSTANCE.begin(Profiler.RENDER_HELP);
+        try {
+            printUsage(out, colorScheme);
+        } finally {
+            if (event != null) { Profiler.INSTANCE.end(event, getCommandSpec().name(), 0, null); }
+        }
+    }
+    /** Returns the synopsis heading and synopsis of this command, rendering them the first time they are needed. */
+    private String shortUsage(Help.Ansi ansi) {
+        ShortUsage usage = shortUsage;
+        if (usage == null || !usage.isCurrent(this)) { shortUsage = usage = new ShortUsage(this); }
+        int index = ansi.enabled() ? 1 : 0;
+        String result = usage.text[index];
+        if (result == null) {
+            Help help = new Help(getCommandSpec(), Help.defaultColorScheme(ansi));
+            usage.text[index] = result = help.synopsisHeading() + help.synopsis(help.synopsisHeadingLength());
+        }
+        return result;
+    }
+    /** The synopsis heading and synopsis of a command without and with ANSI escape codes, with the model they were
+     * rendered from. Like cached parse results, they are rendered again when the parse plan or the subcommands change. */
+    private static final class ShortUsage {
+        final String[] text = new String[2];
+        final ParsePlan plan;
+        final int subcommandsModCount;
+        final String name;
+        final String separator;
+        final String synopsisHeading;
+        final boolean abbreviateSynopsis;
+        final String[] customSynopsis;
+        ShortUsage(CommandLine commandLine) {
+            CommandSpec spec = commandLine.getCommandSpec();
+            plan = commandLine.parsePlan();
+            subcommandsModCount = spec.subcommandsModCount;
+            name = spec.name();
+            separator = spec.separator();
+            synopsisHeading = spec.synopsisHeading();
+            abbreviateSynopsis = spec.abbreviateSynopsis();
+            customSynopsis = spec.customSynopsis();
+        }
+        boolean isCurrent(CommandLine commandLine) {
+            CommandSpec spec = commandLine.getCommandSpec();
+            return commandLine.parsePlan() == plan
+                    && spec.subcommandsModCount == subcommandsModCount
+                    && Assert.equals(spec.name(), name)
+                    && Assert.equals(spec.separator(), separator)
+                    && Assert.equals(spec.synopsisHeading(), synopsisHeading)
+                    && spec.abbreviateSynopsis() == abbreviateSynopsis
+                    && spec.customSynopsis() == customSynopsis;
+        }
+    }
+    private void printUsage(PrintStream out, Help.ColorScheme colorScheme) {
         Help help = new Help(getCommandSpec(), colorScheme);
         StringBuilder sb = new StringBuilder()
                 .append(help.headerHeading())
@@ -1050,6 +1672,12 @@ public class CommandLine {
      * subcommands and nested sub-subcommands <em>at the moment the converter is registered</em>. Subcommands added
      * later will not have this converter added automatically. To ensure a custom type converter is available to all
      * subcommands, register the type converter last, after adding subcommands.</p>
+     * <p>A registered converter is also used for subclasses and implementations of the specified class that have no
+     * converter of their own, so a converter registered for {@code Number} handles an option of type {@code AtomicLong}.
+     * When several supertypes have a converter, the converter of the nearest supertype is used. Such a converter must
+     * return an instance of the requested subtype. Built-in converters are only used for their exact type. This also
+     * applies to enums: a converter registered for an interface that an enum implements takes precedence over the
+     * built-in conversion of enum constant names.</p>
      *
      * @param cls the target class to convert parameter string values to
      * @param converter the class capable of converting string values to the specified target type
@@ -1058,8 +1686,8 @@ public class CommandLine {
      * @see #addSubcommand(String, Object)
      */
     public <K> CommandLine registerConverter(Class<K> cls, ITypeConverter<K> converter) {
-        interpreter.converterRegistry.put(Assert.notNull(cls, "class"), Assert.notNull(converter, "converter"));
-        for (CommandLine command : getCommandSpec().commands.values()) {
+        interpreter.registerConverter(Assert.notNull(cls, "class"), Assert.notNull(converter, "converter"));
+        for (CommandLine command : instantiatedSubcommands()) {
             command.registerConverter(cls, converter);
         }
         return this;
@@ -1122,6 +1750,8 @@ public class CommandLine {
     private static CommandLine toCommandLine(Object obj, IFactory factory) { return obj instanceof CommandLine ? (CommandLine) obj : new CommandLine(obj, factory);}
     private static boolean isMultiValue(Field field) {  return isMultiValue(field.getType()); }
     private static boolean isMultiValue(Class<?> cls) { return cls.isArray() || Collection.class.isAssignableFrom(cls) || Map.class.isAssignableFrom(cls); }
+    /** Returns whether values for fields of the specified type are {@linkplain Lazy converted lazily}. */
+    private static boolean isLazy(Class<?> cls) { return cls == Lazy.class || cls == Callable.class; }
     /**
      * <p>
      * Annotate fields in your class with {@code @Option} and picocli will initialize these fields when matching
@@ -1648,6 +2278,15 @@ public class CommandLine {
          */
         Class<?>[] subcommands() default {};
 
+        /** Specify {@code true} to defer instantiating the {@linkplain #subcommands() declaratively registered subcommands}
+         * until they are needed. The parent command then only registers a placeholder {@code CommandLine} with the name of
+         * each subcommand. The subcommand's user object, its {@code CommandSpec} and its own subcommands are created the
+         * first time the subcommand is matched on the command line, or when its {@code CommandSpec} is otherwise requested,
+         * for example to show usage help. False by default.
+         * @return whether the declaratively registered subcommands should be instantiated on demand
+         * @since 3.0 */
+        boolean lazySubcommands() default false;
+
         /** String that separates options from option parameters. Default is {@code "="}. Spaces are also accepted.
          * @return the string that separates options from option parameters, used both when parsing and when generating usage help
          * @see CommandLine#setSeparator(String) */
@@ -1797,6 +2436,143 @@ public class CommandLine {
         K convert(String value) throws Exception;
     }
 
+    /**
+     * Converter that can also convert a command line argument to a primitive {@code int} without boxing it.
+     * Picocli uses {@link #convertInt(String)} when the value is set on an {@code int} field or added to an {@code int[]} array.
+     * @since 3.0
+     */
+    public interface IIntConverter extends ITypeConverter<Integer> {
+        /** Converts the specified command line argument value to an {@code int}.
+         * @param value the command line argument String value
+         * @return the resulting {@code int} value
+         * @throws Exception an exception detailing what went wrong during the conversion */
+        int convertInt(String value) throws Exception;
+    }
+
+    /**
+     * Converter that can also convert a command line argument to a primitive {@code long} without boxing it.
+     * Picocli uses {@link #convertLong(String)} when the value is set on a {@code long} field or added to a {@code long[]} array.
+     * @since 3.0
+     */
+    public interface ILongConverter extends ITypeConverter<Long> {
+        /** Converts the specified command line argument value to a {@code long}.
+         * @param value the command line argument String value
+         * @return the resulting {@code long} value
+         * @throws Exception an exception detailing what went wrong during the conversion */
+        long convertLong(String value) throws Exception;
+    }
+
+    /**
+     * Converter that can also convert a command line argument to a primitive {@code double} without boxing it.
+     * Picocli uses {@link #convertDouble(String)} when the value is set on a {@code double} field or added to a {@code double[]} array.
+     * @since 3.0
+     */
+    public interface IDoubleConverter extends ITypeConverter<Double> {
+        /** Converts the specified command line argument value to a {@code double}.
+         * @param value the command line argument String value
+         * @return the resulting {@code double} value
+         * @throws Exception an exception detailing what went wrong during the conversion */
+        double convertDouble(String value) throws Exception;
+    }
+
+    /**
+     * Converter that can also convert a command line argument to a primitive {@code boolean} without boxing it.
+     * Picocli uses {@link #convertBoolean(String)} when the value is set on a {@code boolean} field or added to a {@code boolean[]} array.
+     * @since 3.0
+     */
+    public interface IBooleanConverter extends ITypeConverter<Boolean> {
+        /** Converts the specified command line argument value to a {@code boolean}.
+         * @param value the command line argument String value
+         * @return the resulting {@code boolean} value
+         * @throws Exception an exception detailing what went wrong during the conversion */
+        boolean convertBoolean(String value) throws Exception;
+    }
+
+    /**
+     * Marker interface for {@link ITypeConverter}s whose result only depends on the command line argument value, that have
+     * no side effects, and that return immutable values. If all converters used in a parse are pure, the parse result may
+     * be {@linkplain CommandLine#setParseResultCacheSize(int) cached} and replayed without converting the values again.
+     * Converters that open connections or depend on the environment, like a {@code java.sql.Connection} converter,
+     * should not implement this interface.
+     * @since 3.0
+     */
+    public interface IPureConverter {}
+
+    /**
+     * A value of an option or positional parameter that is converted when it is first used, rather than when the command
+     * line is parsed. Declare an annotated field of type {@code Lazy<T>} or {@code Callable<T>} to defer converting its
+     * value to {@code T}, for example when converting is expensive and the value is only used on some code paths:
+     * <pre>
+     * &#064;Option(names = "--db") Lazy&lt;Connection&gt; db; // DriverManager.getConnection is only called by db.get()
+     * </pre>
+     * <p>While parsing, picocli stores the command line argument and the {@linkplain ITypeConverter converter} for
+     * {@code T}. The converter is invoked by the first call to {@link #get()} or {@link #call()}; the result is remembered,
+     * so later calls, from any thread, return the same object.</p>
+     * <p>The type argument is the type to convert to. If it is a generic type itself, like {@code Lazy<List<Integer>>},
+     * the converter for its raw type converts the whole value; type variables cannot be converted to.</p>
+     * @param <T> the type of the converted value
+     * @since 3.0
+     */
+    public static final class Lazy<T> implements Callable<T> {
+        private final String text;
+        private final Class<?> type;
+        private final ITypeConverter<T> converter;
+        private final String description; // the option or positional parameter, like "option '--db'", or null
+        private volatile boolean converted;
+        private T value;
+
+        /** Constructs a {@code Lazy} that converts the specified text with the specified converter when it is first used.
+         * @param text the command line argument to convert
+         * @param type the type to convert to, used in error messages
+         * @param converter the converter to convert the argument with */
+        public Lazy(String text, Class<?> type, ITypeConverter<T> converter) { this(text, type, converter, null); }
+        Lazy(String text, Class<?> type, ITypeConverter<T> converter, String description) {
+            this.text = Assert.notNull(text, "text");
+            this.type = Assert.notNull(type, "type");
+            this.converter = Assert.notNull(converter, "converter");
+            this.description = description;
+        }
+        /** Returns the command line argument that was specified for this value.
+         * @return the unconverted command line argument */
+        public String text() { return text; }
+
+        /** Returns whether the value was converted already.
+         * @return {@code true} if {@link #get()} or {@link #call()} returned successfully before, {@code false} otherwise */
+        public boolean isConverted() { return converted; }
+
+        /** Returns the converted value, converting the command line argument the first time this method is called.
+         * @return the converted value
+         * @throws Exception the exception thrown by the converter, if the argument could not be converted */
+        public T call() throws Exception {
+            if (!converted) {
+                synchronized (this) {
+                    if (!converted) {
+                        value = converter.convert(text);
+                        converted = true;
+                    }
+                }
+            }
+            return value;
+        }
+        /** Returns the converted value, converting the command line argument the first time this method is called.
+         * @return the converted value
+         * @throws TypeConversionException if the argument could not be converted; the message names the option or
+         *          positional parameter that the argument was specified for */
+        public T get() {
+            String desc = description == null ? "" : " for " + description;
+            try {
+                return call();
+            } catch (TypeConversionException ex) {
+                if (description == null) { throw ex; }
+                throw new TypeConversionException(ex.getMessage() + desc);
+            } catch (Exception ex) {
+                throw new TypeConversionException(String.format("Could not convert '%s' to %s%s: %s", text, type.getSimpleName(), desc, ex));
+            }
+        }
+        /** Returns the converted value if it was converted already, or the unconverted command line argument otherwise. */
+        public String toString() { return converted ? String.valueOf(value) : text; }
+    }
+
     /**
      * Provides version information for a command. Commands may configure a provider with the
      * {@link Command#versionProvider()} annotation attribute.
@@ -2033,10 +2809,6 @@ public class CommandLine {
         Collections.reverse(stack);
         return stack;
     }
-    private static <T> List<T> reverseList(List<T> list) {
-        Collections.reverse(list);
-        return list;
-    }
     private static <T> T[] copy(T[] array, Class<T> cls) {
         try {
             T[] result = (T[]) Array.newInstance(cls, array.length);
@@ -2047,52 +2819,82 @@ public class CommandLine {
         }
     }
     private static class CommandSpecBuilder {
+        private static final Map<Class<?>, SoftReference<CommandTemplate>> TEMPLATES =
+                Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<CommandTemplate>>());
+
         static CommandSpec build(Object command, IFactory factory) {
             if (command instanceof CommandSpec) { return (CommandSpec) command; }
+            Object event = Profiler.INSTANCE.begin(Profiler.BUILD);
+            if (event == null) { return buildSpec(command, factory); }
+            CommandSpec result = null;
+            try {
+                return result = buildSpec(command, factory);
+            } finally {
+                Profiler.INSTANCE.end(event, result == null ? null : result.name(),
+                        result == null ? 0 : result.options().size() + result.positionalParameters().size(), command.getClass().getName());
+            }
+        }
+        private static CommandSpec buildSpec(Object command, IFactory factory) {
+            GeneratedSpecFactory generated = GeneratedSpecFactory.lookup(Assert.notNull(command, "command").getClass());
+            if (generated != null) { return buildFromGeneratedFactory(generated, command, factory); }
 
-            CommandSpec result = new CommandSpec(Assert.notNull(command, "command"));
-
-            Class<?> cls = command.getClass();
-            boolean hasCommandAnnotation = false;
-            while (cls != null) {
-                hasCommandAnnotation |= updateCommandAttributes(cls, result, factory);
-                hasCommandAnnotation |= initFromAnnotatedFields(command, cls, result, factory);
-                cls = cls.getSuperclass();
+            CommandSpec result = template(command.getClass()).bind(command, factory);
+            result.withToString(command.getClass().getName()).validate();
+            return result;
+        }
+        /** Returns the template for the specified class, inspecting its annotations only if no template is cached yet. */
+        private static CommandTemplate template(Class<?> cls) {
+            SoftReference<CommandTemplate> ref = TEMPLATES.get(cls);
+            CommandTemplate result = ref == null ? null : ref.get();
+            if (result == null) {
+                result = new CommandTemplate(cls);
+                TEMPLATES.put(cls, new SoftReference<CommandTemplate>(result));
+            }
+            return result;
+        }
+        private static CommandSpec buildFromGeneratedFactory(GeneratedSpecFactory generated, Object command, IFactory factory) {
+            CommandSpec result;
+            try {
+                result = generated.create(command, factory);
+            } catch (InitializationException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new InitializationException("Could not build CommandSpec for " + command.getClass().getName() +
+                        " with " + generated.getClass().getName() + ": " + ex, ex);
+            }
+            for (PositionalParamSpec positional : result.positionalParameters) {
+                positional.capacity = isMultiValue(positional.type())
+                        ? Range.parameterCapacity(positional.arity(), positional.index())
+                        : positional.arity();
             }
-            validateCommandSpec(result, hasCommandAnnotation, command);
             result.withToString(command.getClass().getName()).validate();
             return result;
         }
 
-        private static boolean updateCommandAttributes(Class<?> cls, CommandSpec commandSpec, IFactory factory) {
-            // superclass values should not overwrite values if both class and superclass have a @Command annotation
-            if (!cls.isAnnotationPresent(Command.class)) { return false; }
-
-            Command cmd = cls.getAnnotation(Command.class);
-            initSubcommands(cmd, commandSpec, factory);
-
-            if (!commandSpec.isSeparatorInitialized())            { commandSpec.separator(cmd.separator()); }
-            if (!commandSpec.isNameInitialized())                 { commandSpec.name(cmd.name()); }
-            if (!commandSpec.isSynopsisHeadingInitialized())      { commandSpec.synopsisHeading(cmd.synopsisHeading()); }
-            if (!commandSpec.isCommandListHeadingInitialized())   { commandSpec.commandListHeading(cmd.commandListHeading()); }
-            if (!commandSpec.isRequiredOptionMarkerInitialized()) { commandSpec.requiredOptionMarker(cmd.requiredOptionMarker()); }
-            if (!commandSpec.isVersionInitialized())              { commandSpec.version(cmd.version()); } // only if no dynamic version
-            if (!commandSpec.isCustomSynopsisInitialized())       { commandSpec.customSynopsis(cmd.customSynopsis()); }
-            if (!commandSpec.isDescriptionInitialized())          { commandSpec.description(cmd.description()); }
-            if (!commandSpec.isDescriptionHeadingInitialized())   { commandSpec.descriptionHeading(cmd.descriptionHeading()); }
-            if (!commandSpec.isHeaderInitialized())               { commandSpec.header(cmd.header()); }
-            if (!commandSpec.isHeaderHeadingInitialized())        { commandSpec.headerHeading(cmd.headerHeading()); }
-            if (!commandSpec.isFooterInitialized())               { commandSpec.footer(cmd.footer()); }
-            if (!commandSpec.isFooterHeadingInitialized())        { commandSpec.footerHeading(cmd.footerHeading()); }
-            if (!commandSpec.isParameterListHeadingInitialized()) { commandSpec.parameterListHeading(cmd.parameterListHeading()); }
-            if (!commandSpec.isOptionListHeadingInitialized())    { commandSpec.optionListHeading(cmd.optionListHeading()); }
-            if (!commandSpec.isAbbreviateSynopsisInitialized() && cmd.abbreviateSynopsis()) { commandSpec.abbreviateSynopsis(cmd.abbreviateSynopsis()); }
-            if (!commandSpec.isSortOptionsInitialized()        && !cmd.sortOptions())       { commandSpec.sortOptions(cmd.sortOptions()); }
-            if (!commandSpec.isShowDefaultValuesInitialized()  && cmd.showDefaultValues())  { commandSpec.showDefaultValues(cmd.showDefaultValues()); }
-            if (!commandSpec.isVersionProviderInitialized()    && cmd.versionProvider() != NoVersionProvider.class) {
-                commandSpec.versionProvider(DefaultFactory.createVersionProvider(factory, cmd.versionProvider()));
+        /** Initializes the attributes of the specified {@code CommandSpec} that were not initialized yet with the values of the
+         * specified {@code attributes}: superclass values should not overwrite values if both class and superclass have a @Command annotation. */
+        static void initCommandAttributes(CommandSpec spec, CommandSpec attributes, Class<? extends IVersionProvider> versionProvider, IFactory factory) {
+            if (!spec.isSeparatorInitialized())            { spec.separator(attributes.separator()); }
+            if (!spec.isNameInitialized())                 { spec.name(attributes.name()); }
+            if (!spec.isSynopsisHeadingInitialized())      { spec.synopsisHeading(attributes.synopsisHeading()); }
+            if (!spec.isCommandListHeadingInitialized())   { spec.commandListHeading(attributes.commandListHeading()); }
+            if (!spec.isRequiredOptionMarkerInitialized()) { spec.requiredOptionMarker(attributes.requiredOptionMarker()); }
+            if (!spec.isVersionInitialized())              { spec.version(attributes.version()); } // only if no dynamic version
+            if (!spec.isCustomSynopsisInitialized())       { spec.customSynopsis(attributes.customSynopsis()); }
+            if (!spec.isDescriptionInitialized())          { spec.description(attributes.description()); }
+            if (!spec.isDescriptionHeadingInitialized())   { spec.descriptionHeading(attributes.descriptionHeading()); }
+            if (!spec.isHeaderInitialized())               { spec.header(attributes.header()); }
+            if (!spec.isHeaderHeadingInitialized())        { spec.headerHeading(attributes.headerHeading()); }
+            if (!spec.isFooterInitialized())               { spec.footer(attributes.footer()); }
+            if (!spec.isFooterHeadingInitialized())        { spec.footerHeading(attributes.footerHeading()); }
+            if (!spec.isParameterListHeadingInitialized()) { spec.parameterListHeading(attributes.parameterListHeading()); }
+            if (!spec.isOptionListHeadingInitialized())    { spec.optionListHeading(attributes.optionListHeading()); }
+            if (!spec.isAbbreviateSynopsisInitialized() && attributes.abbreviateSynopsis()) { spec.abbreviateSynopsis(attributes.abbreviateSynopsis()); }
+            if (!spec.isSortOptionsInitialized()        && !attributes.sortOptions())       { spec.sortOptions(attributes.sortOptions()); }
+            if (!spec.isShowDefaultValuesInitialized()  && attributes.showDefaultValues())  { spec.showDefaultValues(attributes.showDefaultValues()); }
+            if (!spec.isVersionProviderInitialized()    && versionProvider != null) {
+                spec.versionProvider(DefaultFactory.createVersionProvider(factory, versionProvider));
             }
-            return true;
         }
         private static String[] generateVersionStrings(Class<? extends IVersionProvider> cls, IFactory factory) {
             if (cls == null || cls == NoVersionProvider.class) { return new String[0]; }
@@ -2109,8 +2911,12 @@ public class CommandLine {
         private static Boolean nonNull(Boolean left, Boolean right) { return left == null ? right : left; }
         private static Character nonNull(Character left, Character right) { return left == null ? right : left; }
 
-        private static void initSubcommands(Command cmd, CommandSpec parent, IFactory factory) {
-            for (Class<?> sub : cmd.subcommands()) {
+        private static void initSubcommands(Class<?>[] subcommands, CommandSpec parent, IFactory factory, boolean lazy) {
+            for (Class<?> sub : subcommands) {
+                if (lazy) {
+                    parent.addSubcommand(subCommandName(sub), new CommandLine(factory, sub));
+                    continue;
+                }
                 try {
                     CommandLine subcommandLine = toCommandLine(factory.create(sub), factory);
                     parent.addSubcommand(subCommandName(sub), subcommandLine);
@@ -2125,17 +2931,26 @@ public class CommandLine {
                 }
             }
         }
+        /** Instantiates a {@linkplain Command#lazySubcommands() lazy} subcommand and returns its {@code CommandSpec}. */
+        static CommandSpec buildSubcommand(Class<?> sub, IFactory factory) {
+            try {
+                Object command = factory.create(sub);
+                return command instanceof CommandLine ? ((CommandLine) command).getCommandSpec() : build(command, factory);
+            }
+            catch (InitializationException ex) { throw ex; }
+            catch (NoSuchMethodException ex) { throw new InitializationException("Cannot instantiate subcommand " +
+                    sub.getName() + ": the class has no constructor", ex); }
+            catch (Exception ex) {
+                throw new InitializationException("Could not instantiate and add subcommand " +
+                        sub.getName() + ": " + ex, ex);
+            }
+        }
         static void initParentCommand(Object subcommand, Object parent) {
             try {
-                Class<?> cls = subcommand.getClass();
-                while (cls != null) {
-                    for (Field f : cls.getDeclaredFields()) {
-                        if (f.isAnnotationPresent(ParentCommand.class)) {
-                            f.setAccessible(true);
-                            f.set(subcommand, parent);
-                        }
-                    }
-                    cls = cls.getSuperclass();
+                GeneratedSpecFactory generated = GeneratedSpecFactory.lookup(subcommand.getClass());
+                if (generated != null) { generated.initParentCommand(subcommand, parent); return; }
+                for (Field f : template(subcommand.getClass()).parentCommandFields) {
+                    f.set(subcommand, parent);
                 }
             } catch (Exception ex) {
                 throw new InitializationException("Unable to initialize @ParentCommand field: " + ex, ex);
@@ -2149,21 +2964,6 @@ public class CommandLine {
             }
             return subCommand.name();
         }
-        private static boolean initFromAnnotatedFields(Object scope, Class<?> cls, CommandSpec receiver, IFactory factory) {
-            boolean result = false;
-            for (Field field : cls.getDeclaredFields()) {
-                if (isMixin(field))    {
-                    receiver.addMixin(mixinName(field), buildMixinForField(field, scope, factory));
-                    result = true;
-                }
-                if (isArgSpec(field)) {
-                    validateArgSpecField(field);
-                    if (isOption(field))    { receiver.add(ArgSpecBuilder.buildOptionSpec(scope, field, factory)); }
-                    if (isParameter(field)) { receiver.add(ArgSpecBuilder.buildPositionalParamSpec(scope, field, factory)); }
-                }
-            }
-            return result;
-        }
         private static String mixinName(Field field) {
             String annotationName = field.getAnnotation(Mixin.class).name();
             return empty(annotationName) ? field.getName() : annotationName;
@@ -2194,24 +2994,278 @@ public class CommandLine {
                     userObject = factory.create(field.getType());
                     field.set(scope, userObject);
                 }
-                CommandSpec result = build(userObject, factory);
-                return result.withToString(abbreviate("mixin from field " + field.toGenericString()));
+                return buildMixin(userObject, factory, field.toGenericString());
             } catch (InitializationException ex) {
                 throw ex;
             } catch (Exception ex) {
                 throw new InitializationException("Could not access or modify mixin field " + field + ": " + ex, ex);
             }
         }
+        private static CommandSpec buildMixin(Object userObject, IFactory factory, String fieldDescription) {
+            return build(userObject, factory).withToString(abbreviate("mixin from field " + fieldDescription));
+        }
+        /** The result of inspecting the annotations of a command class and its superclasses once. A template can be bound to
+         * any number of instances of the class: binding creates a new {@code CommandSpec} with new {@code OptionSpec} and
+         * {@code PositionalParamSpec} objects that read and write the fields of the specified instance. */
+        private static class CommandTemplate {
+            private final List<Step> steps = new ArrayList<Step>();
+            private final List<Field> parentCommandFields = new ArrayList<Field>();
+            private boolean hasCommandAnnotation;
+
+            CommandTemplate(Class<?> cls) {
+                while (cls != null) {
+                    if (cls.isAnnotationPresent(Command.class)) {
+                        steps.add(new CommandStep(cls.getAnnotation(Command.class)));
+                        hasCommandAnnotation = true;
+                    }
+                    for (Field field : cls.getDeclaredFields()) {
+                        if (field.isAnnotationPresent(ParentCommand.class)) {
+                            field.setAccessible(true);
+                            parentCommandFields.add(field);
+                        }
+                        if (isMixin(field)) {
+                            steps.add(new MixinStep(field));
+                            hasCommandAnnotation = true;
+                        }
+                        if (isArgSpec(field)) {
+                            try {
+                                validateArgSpecField(field);
+                                steps.add(new ArgStep(field));
+                            } catch (RuntimeException ex) {
+                                steps.add(new InvalidFieldStep(field));
+                            }
+                        }
+                    }
+                    cls = cls.getSuperclass();
+                }
+            }
+            CommandSpec bind(Object command, IFactory factory) {
+                CommandSpec result = new CommandSpec(command);
+                for (Step step : steps) { step.apply(result, command, factory); }
+                validateCommandSpec(result, hasCommandAnnotation, command);
+                return result;
+            }
+        }
+        private interface Step {
+            void apply(CommandSpec spec, Object command, IFactory factory);
+        }
+        private static class CommandStep implements Step {
+            private final Class<?>[] subcommands;
+            private final boolean lazySubcommands;
+            private final CommandSpec attributes;
+            private final Class<? extends IVersionProvider> versionProvider;
+            CommandStep(Command cmd) {
+                subcommands = cmd.subcommands();
+                lazySubcommands = cmd.lazySubcommands();
+                attributes = new CommandSpec()
+                        .separator(cmd.separator())
+                        .name(cmd.name())
+                        .synopsisHeading(cmd.synopsisHeading())
+                        .commandListHeading(cmd.commandListHeading())
+                        .requiredOptionMarker(cmd.requiredOptionMarker())
+                        .version(cmd.version())
+                        .customSynopsis(cmd.customSynopsis())
+                        .description(cmd.description())
+                        .descriptionHeading(cmd.descriptionHeading())
+                        .header(cmd.header())
+                        .headerHeading(cmd.headerHeading())
+                        .footer(cmd.footer())
+                        .footerHeading(cmd.footerHeading())
+                        .parameterListHeading(cmd.parameterListHeading())
+                        .optionListHeading(cmd.optionListHeading())
+                        .abbreviateSynopsis(cmd.abbreviateSynopsis())
+                        .sortOptions(cmd.sortOptions())
+                        .showDefaultValues(cmd.showDefaultValues());
+                versionProvider = cmd.versionProvider() == NoVersionProvider.class ? null : cmd.versionProvider();
+            }
+            public void apply(CommandSpec spec, Object command, IFactory factory) {
+                initSubcommands(subcommands, spec, factory, lazySubcommands);
+                initCommandAttributes(spec, attributes, versionProvider, factory);
+            }
+        }
+        private static class MixinStep implements Step {
+            private final Field field;
+            private final String name;
+            MixinStep(Field field) { this.field = field; this.name = mixinName(field); }
+            public void apply(CommandSpec spec, Object command, IFactory factory) {
+                spec.addMixin(name, buildMixinForField(field, command, factory));
+            }
+        }
+        private static class ArgStep implements Step {
+            private final Field field;
+            private final ArgSpec<?> prototype;
+            private final Class<? extends ITypeConverter<?>>[] converterClasses;
+            private final ArgSpecBuilder.FieldAccessor accessor;
+            private volatile ITypeConverter<?>[] defaultConverters;
+            ArgStep(Field field) {
+                this.field = field;
+                this.accessor = ArgSpecBuilder.accessor(field);
+                if (isOption(field)) {
+                    prototype = ArgSpecBuilder.buildOptionPrototype(field);
+                    converterClasses = field.getAnnotation(Option.class).converter();
+                } else {
+                    prototype = ArgSpecBuilder.buildPositionalParamPrototype(field);
+                    converterClasses = field.getAnnotation(Parameters.class).converter();
+                }
+            }
+            public void apply(CommandSpec spec, Object command, IFactory factory) {
+                ArgSpec<?> result = prototype.isOption()
+                        ? new OptionSpec((OptionSpec) prototype)
+                        : new PositionalParamSpec((PositionalParamSpec) prototype);
+                result.converters(converters(factory));
+                ArgSpecBuilder.bind(result, command, field, accessor);
+                spec.add(result);
+            }
+            /** Converters created by the default factory are shared by all bound specs; a custom factory is asked for new instances every time. */
+            private ITypeConverter<?>[] converters(IFactory factory) {
+                if (factory.getClass() != DefaultFactory.class) { return DefaultFactory.createConverter(factory, converterClasses); }
+                ITypeConverter<?>[] result = defaultConverters;
+                if (result == null) { defaultConverters = result = DefaultFactory.createConverter(factory, converterClasses); }
+                return result;
+            }
+        }
+        /** Repeats the inspection of a field that could not be turned into a template, so that every bind reports the problem. */
+        private static class InvalidFieldStep implements Step {
+            private final Field field;
+            InvalidFieldStep(Field field) { this.field = field; }
+            public void apply(CommandSpec spec, Object command, IFactory factory) {
+                validateArgSpecField(field);
+                new ArgStep(field).apply(spec, command, factory);
+            }
+        }
         static boolean isArgSpec(Field f)   { return isOption(f) || isParameter(f); }
         static boolean isOption(Field f)    { return f.isAnnotationPresent(Option.class); }
         static boolean isParameter(Field f) { return f.isAnnotationPresent(Parameters.class); }
         static boolean isMixin(Field f)     { return f.isAnnotationPresent(Mixin.class); }
     }
 
+    /**
+     * Base class for the {@code CommandSpec} factories generated at compile time by the {@code picocli-codegen} annotation processor.
+     * <p>
+     * For a {@code @Command}-annotated class like {@code com.acme.App}, the annotation processor generates a class
+     * {@code com.acme.App$$PicocliSpecFactory} that builds the {@link CommandSpec}, {@link OptionSpec} and {@link PositionalParamSpec}
+     * objects for instances of {@code App} directly, with typed getters and setters instead of reflection. When such a class
+     * is found on the classpath, picocli uses it instead of reflectively inspecting the annotations of the user object.
+     * </p><p>
+     * Applications don't need to use this class directly. The static helper methods are for use by generated code only.
+     * </p>
+     * @since 3.0 */
+    public abstract static class GeneratedSpecFactory {
+        /** Suffix appended to the binary name of an annotated class to form the name of its generated factory: <code>{@value}</code>. */
+        public static final String SUFFIX = "$$PicocliSpecFactory";
+        private static final Object NONE = new Object();
+        private static final Map<Class<?>, SoftReference<Object>> FACTORIES =
+                Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<Object>>());
+
+        /** Returns a new {@code CommandSpec} with the command attributes, subcommands, mixins, options and positional
+         * parameters for the specified user object.
+         * @param command the annotated user object, an instance of the class this factory was generated for
+         * @param factory the factory to use for instantiating subcommands, mixins, converters and version providers
+         * @return a new {@code CommandSpec}; picocli will validate it before use
+         * @throws Exception if a problem occurred building the model */
+        public abstract CommandSpec create(Object command, IFactory factory) throws Exception;
+
+        /** Assigns the specified parent command to the {@link ParentCommand @ParentCommand}-annotated fields of the specified subcommand.
+         * This implementation does nothing.
+         * @param subcommand the annotated user object, an instance of the class this factory was generated for
+         * @param parent the user object of the parent command
+         * @throws Exception if a problem occurred setting a field */
+        public void initParentCommand(Object subcommand, Object parent) throws Exception { }
+
+        /** Returns the generated factory for the specified class, or {@code null} if no such factory is on the classpath. */
+        static GeneratedSpecFactory lookup(Class<?> cls) {
+            SoftReference<Object> ref = FACTORIES.get(cls);
+            Object result = ref == null ? null : ref.get();
+            if (result == null) {
+                result = NONE;
+                try {
+                    Class<?> generated = Class.forName(cls.getName() + SUFFIX, true, cls.getClassLoader());
+                    if (GeneratedSpecFactory.class.isAssignableFrom(generated)) { result = generated.newInstance(); }
+                } catch (Exception ignored) {
+                } catch (LinkageError ignored) {
+                }
+                FACTORIES.put(cls, new SoftReference<Object>(result));
+            }
+            return result == NONE ? null : (GeneratedSpecFactory) result;
+        }
+
+        /** Initializes the attributes of the specified {@code CommandSpec} that were not initialized yet from the
+         * {@code @Command} annotation of a subclass or a mixin with the values of the specified {@code attributes}. */
+        protected static void commandAttributes(CommandSpec spec, CommandSpec attributes, Class<? extends IVersionProvider> versionProvider, IFactory factory) {
+            CommandSpecBuilder.initCommandAttributes(spec, attributes, versionProvider, factory);
+        }
+        /** Instantiates the specified subcommand classes and adds them to the specified {@code CommandSpec}. */
+        protected static void subcommands(CommandSpec spec, IFactory factory, Class<?>... subcommands) {
+            CommandSpecBuilder.initSubcommands(subcommands, spec, factory, false);
+        }
+        /** Registers placeholders for the specified {@linkplain Command#lazySubcommands() lazily instantiated} subcommand classes
+         * with the specified {@code CommandSpec}. */
+        protected static void lazySubcommands(CommandSpec spec, IFactory factory, Class<?>... subcommands) {
+            CommandSpecBuilder.initSubcommands(subcommands, spec, factory, true);
+        }
+        /** Returns new instances of the specified converter classes. */
+        protected static ITypeConverter<?>[] converters(IFactory factory, Class<?>... converterClasses) {
+            return DefaultFactory.createConverter(factory, (Class<? extends ITypeConverter<?>>[]) converterClasses);
+        }
+        /** Returns the default value to show in the usage help message for the specified initial field value. */
+        protected static Object defaultValue(Object initialValue, Class<?> type) {
+            return ArgSpecBuilder.formatDefaultValue(initialValue, type);
+        }
+        /** Builds a {@code CommandSpec} for the specified mixin object and adds it to the specified {@code CommandSpec}. */
+        protected static void mixin(CommandSpec spec, String name, Object mixin, IFactory factory, String fieldDescription) {
+            spec.addMixin(name, CommandSpecBuilder.buildMixin(mixin, factory, fieldDescription));
+        }
+        /** Reflectively obtains (or instantiates) the mixin in the specified field and adds its {@code CommandSpec} to the
+         * specified {@code CommandSpec}. Used for fields that are not accessible to the generated code. */
+        protected static void mixinField(CommandSpec spec, String name, Object command, String declaringClass, String fieldName, IFactory factory) {
+            spec.addMixin(name, CommandSpecBuilder.buildMixinForField(field(command, declaringClass, fieldName), command, factory));
+        }
+        /** Reflectively binds the specified option or positional parameter to the specified field: initializes its type,
+         * default value, getter and setter. Used for fields that are not accessible to the generated code. */
+        protected static <T extends ArgSpec<?>> T bindField(T argSpec, Object command, String declaringClass, String fieldName) {
+            ArgSpecBuilder.initCommon(argSpec, command, field(command, declaringClass, fieldName));
+            return argSpec;
+        }
+        /** Reflectively assigns the specified parent command to the specified field of the subcommand.
+         * Used for fields that are not accessible to the generated code. */
+        protected static void parentCommandField(Object subcommand, String declaringClass, String fieldName, Object parent) throws Exception {
+            field(subcommand, declaringClass, fieldName).set(subcommand, parent);
+        }
+        /** Loads the class with the specified binary name with the class loader of the specified command.
+         * Used for classes that are not accessible to the generated code. */
+        protected static Class<?> loadClass(Object command, String name) {
+            try {
+                return Class.forName(name, false, command.getClass().getClassLoader());
+            } catch (ClassNotFoundException ex) {
+                throw new InitializationException("Could not load " + name + ": " + ex, ex);
+            }
+        }
+        private static Field field(Object command, String declaringClass, String fieldName) {
+            for (Class<?> cls = command.getClass(); cls != null; cls = cls.getSuperclass()) {
+                if (!cls.getName().equals(declaringClass)) { continue; }
+                try {
+                    Field result = cls.getDeclaredField(fieldName);
+                    result.setAccessible(true);
+                    return result;
+                } catch (NoSuchFieldException ex) {
+                    throw new InitializationException("Could not find field " + fieldName + " in " + declaringClass + ": " + ex, ex);
+                }
+            }
+            throw new InitializationException(declaringClass + " is not a superclass of " + command.getClass().getName());
+        }
+    }
+
     /** Helper class to reflectively create OptionSpec and PositionalParamSpec objects from annotated elements.
      * Package protected for testing. CONSIDER THIS CLASS PRIVATE.  */
     static class ArgSpecBuilder {
         static OptionSpec buildOptionSpec(Object scope, Field field, IFactory factory) {
+            OptionSpec result = buildOptionPrototype(field);
+            result.converters(DefaultFactory.createConverter(factory, field.getAnnotation(Option.class).converter()));
+            bind(result, scope, field, accessor(field));
+            return result;
+        }
+        /** Returns an OptionSpec with the attributes inferred from the annotated field, without converters and not bound to an object. */
+        static OptionSpec buildOptionPrototype(Field field) {
             Option option = field.getAnnotation(Option.class);
 
             OptionSpec result = new OptionSpec(option.names());
@@ -2226,8 +3280,7 @@ public class CommandLine {
             result.paramLabel(inferLabel(option.paramLabel(), field.getName(), field.getType(), result.auxiliaryTypes()));
             result.splitRegex(option.split());
             result.hidden(option.hidden());
-            result.converters(DefaultFactory.createConverter(factory, option.converter()));
-            initCommon(result, scope, field);
+            initType(result, field);
             return result;
         }
 
@@ -2243,6 +3296,13 @@ public class CommandLine {
             return "<" + name + ">";
         }
         static PositionalParamSpec buildPositionalParamSpec(Object scope, Field field, IFactory factory) {
+            PositionalParamSpec result = buildPositionalParamPrototype(field);
+            result.converters(DefaultFactory.createConverter(factory, field.getAnnotation(Parameters.class).converter()));
+            bind(result, scope, field, accessor(field));
+            return result;
+        }
+        /** Returns a PositionalParamSpec with the attributes inferred from the annotated field, without converters and not bound to an object. */
+        static PositionalParamSpec buildPositionalParamPrototype(Field field) {
             Parameters parameters = field.getAnnotation(Parameters.class);
 
             PositionalParamSpec result = new PositionalParamSpec();
@@ -2255,17 +3315,64 @@ public class CommandLine {
             result.paramLabel(inferLabel(parameters.paramLabel(), field.getName(), field.getType(), result.auxiliaryTypes()));
             result.splitRegex(parameters.split());
             result.hidden(parameters.hidden());
-            result.converters(DefaultFactory.createConverter(factory, parameters.converter()));
-            initCommon(result, scope, field);
+            initType(result, field);
             return result;
         }
         private static void initCommon(ArgSpec result, Object scope, Field field) {
+            initType(result, field);
+            bind(result, scope, field, accessor(field));
+        }
+        private static void initType(ArgSpec result, Field field) {
             field.setAccessible(true);
             result.type(field.getType()); // field type
-            result.defaultValue(getDefaultValue(scope, field));
             result.withToString(abbreviate("field " + field.toGenericString()));
-            result.getter(new FieldGetter(scope, field));
-            result.setter(new FieldSetter(scope, field));
+        }
+        /** Initializes the default value, getter and setter of the specified ArgSpec from the field in the specified object. */
+        static void bind(ArgSpec result, Object scope, Field field, FieldAccessor accessor) {
+            result.defaultValue(getDefaultValue(scope, field));
+            result.getter(accessor.getter(scope));
+            result.setter(accessor.setter(scope));
+        }
+        /** Returns an accessor for the specified field: MethodHandle-based when running on Java 7 or later, unless the
+         * {@code picocli.accessors} system property is set to {@code reflection}, reflection-based otherwise. */
+        static FieldAccessor accessor(Field field) {
+            field.setAccessible(true);
+            if (METHOD_HANDLE_ACCESSOR != null) {
+                try {
+                    return (FieldAccessor) METHOD_HANDLE_ACCESSOR.newInstance(field);
+                } catch (Exception fallbackToReflection) { // e.g. final fields cannot be set with a MethodHandle
+                }
+            }
+            return new ReflectionFieldAccessor(field);
+        }
+        private static final Constructor<?> METHOD_HANDLE_ACCESSOR = methodHandleAccessorConstructor();
+        private static Constructor<?> methodHandleAccessorConstructor() {
+            try {
+                if ("reflection".equalsIgnoreCase(System.getProperty("picocli.accessors"))) { return null; }
+                return Class.forName("picocli.MethodHandleFieldAccessor").getConstructor(Field.class);
+            } catch (Exception ex) {
+                return null;
+            } catch (LinkageError er) { // class files for Java 7 cannot be loaded on Java 5 or 6
+                return null;
+            }
+        }
+        /** Creates the getters and setters that bind options and positional parameters to a field of a user object. */
+        abstract static class FieldAccessor {
+            abstract ArgSpec.IGetter getter(Object scope);
+            abstract ArgSpec.ISetter setter(Object scope);
+        }
+        private static class ReflectionFieldAccessor extends FieldAccessor {
+            private final Field field;
+            ReflectionFieldAccessor(Field field) { this.field = field; }
+            ArgSpec.IGetter getter(Object scope) { return new FieldGetter(scope, field); }
+            ArgSpec.ISetter setter(Object scope) {
+                Class<?> type = field.getType();
+                if (type == int.class)     { return new IntFieldSetter(scope, field); }
+                if (type == long.class)    { return new LongFieldSetter(scope, field); }
+                if (type == double.class)  { return new DoubleFieldSetter(scope, field); }
+                if (type == boolean.class) { return new BooleanFieldSetter(scope, field); }
+                return new FieldSetter(scope, field);
+            }
         }
         static String abbreviate(String text) {
             return text.replace("field private ", "field ")
@@ -2276,6 +3383,21 @@ public class CommandLine {
         private static Class<?>[] inferTypes(Class<?> propertyType, Class<?>[] annotationTypes, Type genericType) {
             if (annotationTypes.length > 0) { return annotationTypes; }
             if (propertyType.isArray()) { return new Class<?>[] { propertyType.getComponentType() }; }
+            if (isLazy(propertyType)) { // e.g. Lazy<Connection>: values are converted to the type argument on first use
+                if (!(genericType instanceof ParameterizedType)) { return new Class<?>[] {String.class}; }
+                Type typeArgument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (typeArgument instanceof WildcardType) { // e.g. ? extends Number
+                    WildcardType wildcardType = (WildcardType) typeArgument;
+                    Type[] lower = wildcardType.getLowerBounds();
+                    typeArgument = lower.length > 0 ? lower[0] : wildcardType.getUpperBounds()[0];
+                }
+                if (typeArgument instanceof Class) { return new Class<?>[] {(Class<?>) typeArgument}; } // e.g. Connection
+                if (typeArgument instanceof ParameterizedType) { // e.g. List<Integer>: the converter for List converts the whole value
+                    return new Class<?>[] {(Class<?>) ((ParameterizedType) typeArgument).getRawType()};
+                }
+                throw new InitializationException("Cannot infer the type to convert " + genericType + " values to: " +
+                        "specify it with the type attribute of the annotation");
+            }
             if (CommandLine.isMultiValue(propertyType)) {
                 if (genericType instanceof ParameterizedType) {// e.g. Map<Long, ? extends Number>
                     ParameterizedType parameterizedType = (ParameterizedType) genericType;
@@ -2299,17 +3421,20 @@ public class CommandLine {
             return new Class<?>[] {propertyType}; // not a multi-value field
         }
         static Object getDefaultValue(Object scope, Field field) {
-            Object defaultValue = null;
             try {
-                defaultValue = field.get(scope);
-                if (defaultValue != null && field.getType().isArray()) {
-                    StringBuilder sb = new StringBuilder();
-                    for (int i = 0; i < Array.getLength(defaultValue); i++) {
-                        sb.append(i > 0 ? ", " : "").append(Array.get(defaultValue, i));
-                    }
-                    defaultValue = sb.insert(0, "[").append("]").toString();
+                return formatDefaultValue(field.get(scope), field.getType());
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+        static Object formatDefaultValue(Object defaultValue, Class<?> type) {
+            if (defaultValue != null && type.isArray()) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < Array.getLength(defaultValue); i++) {
+                    sb.append(i > 0 ? ", " : "").append(Array.get(defaultValue, i));
                 }
-            } catch (Exception ex) { }
+                return sb.insert(0, "[").append("]").toString();
+            }
             return defaultValue;
         }
         private static class FieldGetter implements ArgSpec.IGetter {
@@ -2321,8 +3446,8 @@ public class CommandLine {
             }
         }
         private static class FieldSetter implements ArgSpec.ISetter {
-            private final Object scope;
-            private final Field field;
+            final Object scope;
+            final Field field;
             public FieldSetter(Object scope, Field field) { this.scope = scope; this.field = field; }
             public <T> T set(T value) throws Exception {
                 T result = (T) field.get(scope);
@@ -2330,6 +3455,22 @@ public class CommandLine {
                 return result;
             }
         }
+        private static class IntFieldSetter extends FieldSetter implements ArgSpec.IIntSetter {
+            public IntFieldSetter(Object scope, Field field) { super(scope, field); }
+            public void setInt(int value) throws Exception { field.setInt(scope, value); }
+        }
+        private static class LongFieldSetter extends FieldSetter implements ArgSpec.ILongSetter {
+            public LongFieldSetter(Object scope, Field field) { super(scope, field); }
+            public void setLong(long value) throws Exception { field.setLong(scope, value); }
+        }
+        private static class DoubleFieldSetter extends FieldSetter implements ArgSpec.IDoubleSetter {
+            public DoubleFieldSetter(Object scope, Field field) { super(scope, field); }
+            public void setDouble(double value) throws Exception { field.setDouble(scope, value); }
+        }
+        private static class BooleanFieldSetter extends FieldSetter implements ArgSpec.IBooleanSetter {
+            public BooleanFieldSetter(Object scope, Field field) { super(scope, field); }
+            public void setBoolean(boolean value) throws Exception { field.setBoolean(scope, value); }
+        }
     }
     /** The {@code CommandSpec} class models a command specification, including the options, positional parameters and subcommands
      * supported by the command, as well as attributes for the version help message and the usage help message of the command.
@@ -2371,8 +3512,13 @@ public class CommandLine {
         static final Boolean DEFAULT_SHOW_DEFAULT_VALUES = Boolean.FALSE;
 
         private final Map<String, CommandLine> commands = new LinkedHashMap<String, CommandLine>();
+        private int subcommandsModCount; // incremented when a subcommand is added, so that cached parse results can detect it
         private final Map<String, OptionSpec> optionsByNameMap = new LinkedHashMap<String, OptionSpec>();
         private final Map<Character, OptionSpec> posixOptionsByKeyMap = new LinkedHashMap<Character, OptionSpec>();
+        private final Map<String, OptionSpec> optionsMapView = Collections.unmodifiableMap(optionsByNameMap);
+        private final Map<Character, OptionSpec> posixOptionsMapView = Collections.unmodifiableMap(posixOptionsByKeyMap);
+        private volatile OptionNameIndex optionNameIndex;
+        private volatile ParsePlan parsePlan;
         private final Map<String, CommandSpec> mixins = new LinkedHashMap<String, CommandSpec>();
         private final List<ArgSpec> requiredArgs = new ArrayList<ArgSpec>();
         private final List<OptionSpec> options = new ArrayList<OptionSpec>();
@@ -2438,7 +3584,7 @@ public class CommandLine {
         protected CommandSpec commandLine(CommandLine commandLine) {
             this.commandLine = commandLine;
             for (CommandLine sub : commands.values()) {
-                sub.getCommandSpec().parent(this);
+                sub.initParent(this);
             }
             return this;
         }
@@ -2452,7 +3598,8 @@ public class CommandLine {
          * @return this {@code CommandLine} object for method chaining */
         public CommandSpec addSubcommand(String name, CommandLine commandLine) {
             commands.put(name, commandLine);
-            commandLine.getCommandSpec().parent(this);
+            subcommandsModCount++;
+            commandLine.initParent(this);
             return this;
         }
 
@@ -2482,6 +3629,7 @@ public class CommandLine {
                 }
                 if (name.length() == 2 && name.startsWith("-")) { posixOptionsByKeyMap.put(name.charAt(1), option); }
             }
+            optionNameIndex = null;
             if (option.required()) { requiredArgs.add(option); }
             return this;
         }
@@ -2544,11 +3692,28 @@ public class CommandLine {
 
         /** Returns a map of the option names to option spec objects configured for this command.
          * @return an immutable map of options that this command recognizes. */
-        public Map<String, OptionSpec> optionsMap() { return Collections.unmodifiableMap(optionsByNameMap); }
+        public Map<String, OptionSpec> optionsMap() { return optionsMapView; }
 
         /** Returns a map of the short (single character) option names to option spec objects configured for this command.
          * @return an immutable map of options that this command recognizes. */
-        public Map<Character, OptionSpec> posixOptionsMap() { return Collections.unmodifiableMap(posixOptionsByKeyMap); }
+        public Map<Character, OptionSpec> posixOptionsMap() { return posixOptionsMapView; }
+
+        /** Returns the parse plan for this command, compiling a new plan if the model, the specified converters or the
+         * specified {@code ParsePlan.ENUM_*} flags changed. */
+        ParsePlan parsePlan(ParsePlan.ConverterResolver converters, int enumMatching) {
+            ParsePlan result = parsePlan;
+            if (result == null || !result.isCurrent(this, converters, enumMatching)) {
+                parsePlan = result = new ParsePlan(this, converters, enumMatching);
+            }
+            return result;
+        }
+
+        /** Returns the index used by the parser to look up options by name; rebuilt after options are added. */
+        OptionNameIndex optionNameIndex() {
+            OptionNameIndex result = optionNameIndex;
+            if (result == null) { optionNameIndex = result = new OptionNameIndex(optionsByNameMap); }
+            return result;
+        }
 
         /** Returns the list of required options and positional parameters configured for this command.
          * @return an immutable list of the required options and positional parameters for this command. */
@@ -2768,6 +3933,22 @@ public class CommandLine {
             getter = new ObjectGetterSetter();
             setter = (ISetter) getter;
         }
+        /** Constructs a new {@code ArgSpec} with the attributes of the specified original. */
+        ArgSpec(ArgSpec<?> original) {
+            arity = original.arity;
+            description = original.description;
+            required = original.required;
+            paramLabel = original.paramLabel;
+            splitRegex = original.splitRegex;
+            hidden = original.hidden;
+            type = original.type;
+            auxiliaryTypes = original.auxiliaryTypes;
+            converters = original.converters;
+            defaultValue = original.defaultValue;
+            toString = original.toString;
+            getter = original.getter;
+            setter = original.setter;
+        }
         protected T self() { return (T) this; }
 
         /** Ensures all attributes of this {@code ArgSpec} have a valid value; throws an {@link InitializationException} if this cannot be achieved. */
@@ -2817,6 +3998,22 @@ public class CommandLine {
          * @since 3.0 */
         public static interface ISetter { <K> K set(K value) throws Exception; }
 
+        /** Setter that can also set a primitive {@code int} value without boxing it.
+         * @since 3.0 */
+        public static interface IIntSetter extends ISetter { void setInt(int value) throws Exception; }
+
+        /** Setter that can also set a primitive {@code long} value without boxing it.
+         * @since 3.0 */
+        public static interface ILongSetter extends ISetter { void setLong(long value) throws Exception; }
+
+        /** Setter that can also set a primitive {@code boolean} value without boxing it.
+         * @since 3.0 */
+        public static interface IBooleanSetter extends ISetter { void setBoolean(boolean value) throws Exception; }
+
+        /** Setter that can also set a primitive {@code double} value without boxing it.
+         * @since 3.0 */
+        public static interface IDoubleSetter extends ISetter { void setDouble(double value) throws Exception; }
+
         private static class ObjectGetterSetter implements IGetter, ISetter {
             private Object value;
             public <K> K get() throws Exception { return (K) value; }
@@ -2928,9 +4125,6 @@ public class CommandLine {
         /** Returns a string respresentation of this option or positional parameter. */
         public String toString() { return toString; }
 
-        private String[] splitValue(String value) {
-            return splitRegex().length() == 0 ? new String[] {value} : value.split(splitRegex());
-        }
         public boolean equals(Object obj) {
             if (obj == this) { return true; }
             if (!(obj instanceof ArgSpec)) { return false; }
@@ -3010,6 +4204,14 @@ public class CommandLine {
             System.arraycopy(names, 0, this.names, 1, names.length);
         }
         public OptionSpec(String[] names) { this.names = copy(Assert.notNull(names, "names"), String.class); }
+        /** Constructs a new {@code OptionSpec} with the attributes of the specified original. */
+        OptionSpec(OptionSpec original) {
+            super(original);
+            names = original.names;
+            help = original.help;
+            usageHelp = original.usageHelp;
+            versionHelp = original.versionHelp;
+        }
         protected OptionSpec self() { return this; }
 
         /** Ensures all attributes of this {@code OptionSpec} have a valid value; throws an {@link InitializationException} if this cannot be achieved. */
@@ -3115,6 +4317,15 @@ public class CommandLine {
         private Range index;
         private Range capacity;
 
+        /** Constructs a new {@code PositionalParamSpec}. */
+        public PositionalParamSpec() {}
+        /** Constructs a new {@code PositionalParamSpec} with the attributes of the specified original. */
+        PositionalParamSpec(PositionalParamSpec original) {
+            super(original);
+            index = original.index;
+            capacity = original.capacity;
+        }
+
         /** Ensures all attributes of this {@code PositionalParamSpec} have a valid value; throws an {@link InitializationException} if this cannot be achieved. */
         PositionalParamSpec validate() {
             super.validate();
@@ -3158,71 +4369,17 @@ public class CommandLine {
      * Helper class responsible for processing command line arguments.
      */
     private class Interpreter {
-        private final Map<Class<?>, ITypeConverter<?>> converterRegistry = new HashMap<Class<?>, ITypeConverter<?>>();
-        private boolean isHelpRequested;
-        private int position;
-
-        Interpreter() { registerBuiltInConverters(); }
-
-        private void registerBuiltInConverters() {
-            converterRegistry.put(Object.class,        new BuiltIn.StringConverter());
-            converterRegistry.put(String.class,        new BuiltIn.StringConverter());
-            converterRegistry.put(StringBuilder.class, new BuiltIn.StringBuilderConverter());
-            converterRegistry.put(CharSequence.class,  new BuiltIn.CharSequenceConverter());
-            converterRegistry.put(Byte.class,          new BuiltIn.ByteConverter());
-            converterRegistry.put(Byte.TYPE,           new BuiltIn.ByteConverter());
-            converterRegistry.put(Boolean.class,       new BuiltIn.BooleanConverter());
-            converterRegistry.put(Boolean.TYPE,        new BuiltIn.BooleanConverter());
-            converterRegistry.put(Character.class,     new BuiltIn.CharacterConverter());
-            converterRegistry.put(Character.TYPE,      new BuiltIn.CharacterConverter());
-            converterRegistry.put(Short.class,         new BuiltIn.ShortConverter());
-            converterRegistry.put(Short.TYPE,          new BuiltIn.ShortConverter());
-            converterRegistry.put(Integer.class,       new BuiltIn.IntegerConverter());
-            converterRegistry.put(Integer.TYPE,        new BuiltIn.IntegerConverter());
-            converterRegistry.put(Long.class,          new BuiltIn.LongConverter());
-            converterRegistry.put(Long.TYPE,           new BuiltIn.LongConverter());
-            converterRegistry.put(Float.class,         new BuiltIn.FloatConverter());
-            converterRegistry.put(Float.TYPE,          new BuiltIn.FloatConverter());
-            converterRegistry.put(Double.class,        new BuiltIn.DoubleConverter());
-            converterRegistry.put(Double.TYPE,         new BuiltIn.DoubleConverter());
-            converterRegistry.put(File.class,          new BuiltIn.FileConverter());
-            converterRegistry.put(URI.class,           new BuiltIn.URIConverter());
-            converterRegistry.put(URL.class,           new BuiltIn.URLConverter());
-            converterRegistry.put(Date.class,          new BuiltIn.ISO8601DateConverter());
-            converterRegistry.put(Time.class,          new BuiltIn.ISO8601TimeConverter());
-            converterRegistry.put(BigDecimal.class,    new BuiltIn.BigDecimalConverter());
-            converterRegistry.put(BigInteger.class,    new BuiltIn.BigIntegerConverter());
-            converterRegistry.put(Charset.class,       new BuiltIn.CharsetConverter());
-            converterRegistry.put(InetAddress.class,   new BuiltIn.InetAddressConverter());
-            converterRegistry.put(Pattern.class,       new BuiltIn.PatternConverter());
-            converterRegistry.put(UUID.class,          new BuiltIn.UUIDConverter());
-            converterRegistry.put(Currency.class,      new BuiltIn.CurrencyConverter());
-            converterRegistry.put(TimeZone.class,      new BuiltIn.TimeZoneConverter());
-            converterRegistry.put(ByteOrder.class,     new BuiltIn.ByteOrderConverter());
-            converterRegistry.put(Class.class,         new BuiltIn.ClassConverter());
-            converterRegistry.put(Connection.class,    new BuiltIn.ConnectionConverter());
-            converterRegistry.put(Driver.class,        new BuiltIn.DriverConverter());
-            converterRegistry.put(Timestamp.class,     new BuiltIn.TimestampConverter());
-            converterRegistry.put(NetworkInterface.class, new BuiltIn.NetworkInterfaceConverter());
-
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.Duration", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.Instant", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.LocalDate", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.LocalDateTime", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.LocalTime", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.MonthDay", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.OffsetDateTime", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.OffsetTime", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.Period", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.Year", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.YearMonth", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.ZonedDateTime", "parse", CharSequence.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.ZoneId", "of", String.class);
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.time.ZoneOffset", "of", String.class);
-
-            BuiltIn.registerIfAvailable(converterRegistry, tracer, "java.nio.file.Path", "java.nio.file.Paths", "get", String.class, String[].class);
-        }
+        private volatile ParsePlan.ConverterResolver converters = // copy-on-write overlay on the built-in converters
+                new ParsePlan.ConverterResolver(Collections.<Class<?>, ITypeConverter<?>>emptyMap());
+
+        Interpreter() { BuiltIn.traceUnavailable(tracer); }
 
+        /** Registers the specified converter with this interpreter, replacing any previously registered or built-in converter for the type. */
+        void registerConverter(Class<?> cls, ITypeConverter<?> converter) {
+            Map<Class<?>, ITypeConverter<?>> copy = new HashMap<Class<?>, ITypeConverter<?>>(converters.registry);
+            copy.put(cls, converter);
+            converters = new ParsePlan.ConverterResolver(copy);
+        }
         /**
          * Entry point into parsing command line arguments.
          * @param args the command line arguments
@@ -3230,25 +4387,187 @@ public class CommandLine {
          * @throws ParameterException if the specified command line arguments are invalid
          */
         List<CommandLine> parse(String... args) {
-            Assert.notNull(args, "argument array");
-            if (tracer.isInfo()) {tracer.info("Parsing %d command line args %s%n", args.length, Arrays.toString(args));}
-            List<String> expanded = new ArrayList<String>();
-            for (String arg : args) { addOrExpand(arg, expanded, new LinkedHashSet<String>()); }
-            Stack<String> arguments = new Stack<String>();
-            arguments.addAll(reverseList(expanded));
+            CommandMetrics metrics = getMetrics();
+            Object event = Profiler.INSTANCE.begin(Profiler.PARSE);
+            long start = metrics == null ? 0 : System.nanoTime();
+            try {
+                return parseOrReplay(args);
+            } catch (ParameterException ex) {
+                throw failed(ex);
+            } finally {
+                if (metrics != null) { metrics.parsed(System.nanoTime() - start); }
+                if (event != null) { Profiler.INSTANCE.end(event, commandSpec.name(), args == null ? 0 : args.length, null); }
+            }
+        }
+        /** Notifies the parse listener and metrics of the specified exception. */
+        private ParameterException failed(ParameterException ex) {
+            if (parseListener != null) { parseListener.error(ex); }
+            CommandLine commandLine = ex.getCommandLine() == null ? CommandLine.this : ex.getCommandLine();
+            CommandMetrics metrics = commandLine.getMetrics();
+            if (metrics != null) { metrics.parameterException(); }
+            return ex;
+        }
+        private List<CommandLine> parseOrReplay(String... args) {
+            List<CommandLine> result = new ArrayList<CommandLine>();
+            Map<List<String>, ParseReplay> cache = parseResultCache;
+            if (cache == null || containsArgumentFile(Assert.notNull(args, "argument array"))) {
+                parse(result, expand(args), args, false, null);
+                return result;
+            }
+            List<String> key = Arrays.asList(args.clone());
+            ParseReplay cached;
+            synchronized (cache) { cached = cache.get(key); }
+            if (cached != null && cached.isCurrent()) {
+                if (tracer.isInfo()) { tracer.info("Replaying cached parse result for %s%n", key); }
+                replay(cached, result);
+                return result;
+            }
+            ParseReplay replay = new ParseReplay(CommandLine.this);
+            parse(result, expand(args), args, false, replay);
+            if (replay.isCacheable()) {
+                synchronized (cache) { cache.put(key, replay); }
+            } else if (tracer.isDebug()) {
+                tracer.debug("Not caching parse result: not all converters implement IPureConverter%n");
+            }
+            return result;
+        }
+        private boolean containsArgumentFile(String[] args) {
+            if (!expandAtFiles) { return false; }
+            for (String arg : args) { if (arg.startsWith("@")) { return true; } } // the file may change
+            return false;
+        }
+        /** Sets the values that were recorded when the same arguments were parsed before, without converting them again. */
+        private void replay(ParseReplay replay, List<CommandLine> parsedCommands) {
+            getCommandSpec();
+            clear();
+            parsedCommands.add(CommandLine.this);
+            ParseState state = new ParseState(replay.plan, Collections.<ArgSpec>emptyList(), unmatchedArguments, false, null);
+            try {
+                for (ParseReplay.Op op : replay.ops) {
+                    ArgSpec argSpec = op.binding.argSpec;
+                    switch (op.binding.kind) {
+                        case ARRAY:      state.arrayBuffer(argSpec, op.binding.types[0]).add(op.value); break;
+                        case COLLECTION: addConverted(collection(argSpec, state), op.value); break;
+                        case MAP:        map(argSpec, state).put(op.key, op.value); break;
+                        default:
+                            Object value = op.value;
+                            if (op.toggle) {
+                                Boolean currentValue = (Boolean) state.getValue(argSpec);
+                                value = currentValue == null ? true : !currentValue;
+                            }
+                            state.setValue(argSpec, value);
+                    }
+                }
+                state.applyArrayValues();
+            } catch (Exception ex) {
+                throw new ParameterException(CommandLine.this, "Could not replay cached parse result: " + ex, ex);
+            }
+            unmatchedArguments.addAll(replay.unmatched);
+            usageHelpRequested = replay.usageHelpRequested;
+            versionHelpRequested = replay.versionHelpRequested;
+            if (parseListener != null) {
+                for (ParseReplay.Match match : replay.matches) {
+                    if (match.option == null) {
+                        parseListener.unmatched(CommandLine.this, match.arg);
+                    } else {
+                        parseListener.optionMatched(CommandLine.this, match.option, match.arg);
+                    }
+                }
+                if (replay.subcommand != null) { parseListener.subcommandEntered(CommandLine.this, replay.subcommand.commandLine, replay.subcommandName); }
+            }
+            if (replay.subcommand != null) { replay.subcommand.commandLine.interpreter.replay(replay.subcommand, parsedCommands); }
+        }
+        /** Entry point into parsing command line arguments without modifying the model.
+         * @see CommandLine#parseArgs(String...) */
+        ParseResult parseArgs(String... args) {
+            CommandMetrics metrics = getMetrics();
+            Object event = Profiler.INSTANCE.begin(Profiler.PARSE);
+            long start = metrics == null ? 0 : System.nanoTime();
+            try {
+                return parse(new ArrayList<CommandLine>(), expand(args), args, true, null);
+            } catch (ParameterException ex) {
+                throw failed(ex);
+            } finally {
+                if (metrics != null) { metrics.parsed(System.nanoTime() - start); }
+                if (event != null) { Profiler.INSTANCE.end(event, commandSpec.name(), args == null ? 0 : args.length, null); }
+            }
+        }
+        /** Entry point into parsing command line arguments that are read from the specified iterator as they are processed.
+         * @see CommandLine#parse(Iterator) */
+        List<CommandLine> parse(Iterator<String> args) {
+            Assert.notNull(args, "argument iterator");
+            if (tracer.isInfo()) {tracer.info("Parsing command line args from %s%n", args);}
             List<CommandLine> result = new ArrayList<CommandLine>();
-            parse(result, arguments, args);
+            CommandMetrics metrics = getMetrics();
+            Object event = Profiler.INSTANCE.begin(Profiler.PARSE);
+            long start = metrics == null ? 0 : System.nanoTime();
+            ArgCursor cursor = new ArgCursor(new String[0], new ExpandingIterator(args));
+            try {
+                parse(result, cursor, new String[0], false, null);
+            } catch (ParameterException ex) {
+                throw failed(ex);
+            } finally {
+                if (metrics != null) { metrics.parsed(System.nanoTime() - start); }
+                if (event != null) { Profiler.INSTANCE.end(event, commandSpec.name(), cursor.consumed(), null); }
+            }
             return result;
         }
+        private ArgCursor expand(String[] args) {
+            Assert.notNull(args, "argument array");
+            if (tracer.isInfo()) {tracer.info("Parsing %d command line args %s%n", args.length, Arrays.toString(args));}
+            List<String> expanded = new ArrayList<String>(args.length);
+            for (String arg : args) { addOrExpand(arg, expanded, null); }
+            return new ArgCursor(expanded.toArray(new String[expanded.size()]));
+        }
+        /** Expands {@code @file} arguments from the wrapped iterator; arguments from standard input ({@code @-}) are read lazily. */
+        private class ExpandingIterator implements Iterator<String> {
+            private final List<Iterator<String>> sources = new ArrayList<Iterator<String>>(); // the last one is read first
+            private Iterator<String> expanded = Collections.<String>emptyList().iterator();
+            private String next;
+
+            ExpandingIterator(Iterator<String> args) { sources.add(args); }
+
+            public boolean hasNext() {
+                while (next == null && !expanded.hasNext() && !sources.isEmpty()) {
+                    Iterator<String> current = sources.get(sources.size() - 1);
+                    if (!current.hasNext()) { sources.remove(sources.size() - 1); continue; }
+                    String arg = current.next();
+                    if (!expandAtFiles || !arg.startsWith("@")) {
+                        next = arg; // the common case: use the argument as is
+                    } else if ("@-".equals(arg)) {
+                        if (tracer.isInfo()) { tracer.info("Reading arguments from standard input%n"); }
+                        sources.add(new ArgumentTokenizer(new InputStreamReader(System.in), "standard input"));
+                    } else {
+                        List<String> result = new ArrayList<String>();
+                        addOrExpand(arg, result, null);
+                        expanded = result.iterator();
+                    }
+                }
+                return next != null || expanded.hasNext();
+            }
+            public String next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+                if (next == null) { return expanded.next(); }
+                String result = next;
+                next = null;
+                return result;
+            }
+            public void remove() { throw new UnsupportedOperationException("remove"); }
+        }
 
         private void addOrExpand(String arg, List<String> arguments, Set<String> visited) {
             if (expandAtFiles && !arg.equals("@") && arg.startsWith("@")) {
                 arg = arg.substring(1);
                 if (arg.startsWith("@")) {
                     if (tracer.isInfo()) { tracer.info("Not expanding @-escaped argument %s (trimmed leading '@' char)%n", arg); }
+                } else if ("-".equals(arg)) {
+                    if (tracer.isInfo()) { tracer.info("Expanding arguments from standard input%n"); }
+                    Iterator<String> tokens = new ArgumentTokenizer(new InputStreamReader(System.in), "standard input");
+                    while (tokens.hasNext()) { addOrExpand(tokens.next(), arguments, visited); }
+                    return;
                 } else {
                     if (tracer.isInfo()) { tracer.info("Expanding argument file @%s%n", arg); }
-                    expandArgumentFile(arg, arguments, visited);
+                    expandArgumentFile(arg, arguments, visited == null ? new LinkedHashSet<String>() : visited);
                     return;
                 }
             }
@@ -3271,13 +4590,7 @@ public class CommandLine {
             LineNumberReader reader = null;
             try {
                 reader = new LineNumberReader(new FileReader(file));
-                StreamTokenizer tok = new StreamTokenizer(reader);
-                tok.resetSyntax();
-                tok.wordChars(' ', 255);
-                tok.whitespaceChars(0, ' ');
-                tok.commentChar('#');
-                tok.quoteChar('"');
-                tok.quoteChar('\'');
+                StreamTokenizer tok = ArgumentTokenizer.create(reader);
                 while (tok.nextToken() != StreamTokenizer.TT_EOF) {
                     addOrExpand(tok.sval, result, visited);
                 }
@@ -3291,51 +4604,79 @@ public class CommandLine {
         }
 
         private void clear() {
-            position = 0;
-            isHelpRequested = false;
             CommandLine.this.versionHelpRequested = false;
             CommandLine.this.usageHelpRequested = false;
             CommandLine.this.unmatchedArguments.clear();
         }
 
-        private void parse(List<CommandLine> parsedCommands, Stack<String> argumentStack, String[] originalArgs) {
-            clear(); // first reset any state in case this CommandLine instance is being reused
+        /** Parses the arguments for this command and any subcommands. Unless {@code detached}, the values are set on the
+         * model and the results are available from this {@code CommandLine}; otherwise they are only in the returned result.
+         * @return the result of the parse if {@code detached}, {@code null} otherwise */
+        private ParseResult parse(List<CommandLine> parsedCommands, ArgCursor arguments, String[] originalArgs, boolean detached,
+                                  ParseReplay replay) {
+            getCommandSpec(); // instantiates a lazy subcommand the first time it is matched
+            if (!detached) { clear(); } // first reset any state in case this CommandLine instance is being reused
+            List<ArgSpec> required = new ArrayList<ArgSpec>(commandSpec.requiredArgs());
+            Collections.sort(required, new PositionalParametersSorter());
+            ParseState state = new ParseState(parsePlan(), required,
+                    detached ? new ArrayList<String>() : unmatchedArguments, detached, replay);
+            if (replay != null) {
+                replay.plan = state.plan;
+                replay.overwrittenOptionsAllowed = isOverwrittenOptionsAllowed();
+                replay.unmatchedArgumentsAllowed = isUnmatchedArgumentsAllowed();
+                replay.stopParsingAtHelp = isStopParsingAtHelp();
+                replay.separator = commandSpec.separator();
+                replay.subcommandsModCount = commandSpec.subcommandsModCount;
+            }
             if (tracer.isDebug()) {tracer.debug("Initializing %s: %d options, %d positional parameters, %d required, %d subcommands.%n",
                     commandSpec.toString(), new HashSet<ArgSpec>(commandSpec.optionsMap().values()).size(),
                     commandSpec.positionalParameters().size(), commandSpec.requiredArgs().size(), commandSpec
                             .subcommands().size());}
             parsedCommands.add(CommandLine.this);
-            List<ArgSpec> required = new ArrayList<ArgSpec>(commandSpec.requiredArgs());
-            Set<ArgSpec> initialized = new HashSet<ArgSpec>();
-            Collections.sort(required, new PositionalParametersSorter());
             try {
-                processArguments(parsedCommands, argumentStack, required, initialized, originalArgs);
+                try {
+                    processArguments(parsedCommands, arguments, state, originalArgs);
+                } finally {
+                    state.applyArrayValues(); // array fields are only set once, with all values for this command
+                }
             } catch (ParameterException ex) {
                 throw ex;
             } catch (Exception ex) {
-                int offendingArgIndex = originalArgs.length - argumentStack.size() - 1;
-                String arg = offendingArgIndex >= 0 && offendingArgIndex < originalArgs.length ? originalArgs[offendingArgIndex] : "?";
+                int offendingArgIndex;
+                String arg;
+                if (originalArgs.length == 0) { // arguments from an iterator: don't read the remainder
+                    offendingArgIndex = arguments.lastPoppedIndex();
+                    arg = offendingArgIndex >= 0 ? arguments.lastPopped() : "?";
+                } else {
+                    offendingArgIndex = originalArgs.length - arguments.size() - 1;
+                    arg = offendingArgIndex >= 0 && offendingArgIndex < originalArgs.length ? originalArgs[offendingArgIndex] : "?";
+                }
                 throw ParameterException.create(CommandLine.this, ex, arg, offendingArgIndex, originalArgs);
             }
-            if (!isAnyHelpRequested() && !required.isEmpty()) {
+            if (!state.isAnyHelpRequested() && !required.isEmpty()) {
                 for (ArgSpec missing : required) {
                     if (missing.isOption()) {
                         throw MissingParameterException.create(CommandLine.this, required, commandSpec.separator());
                     } else {
-                        assertNoMissingParameters(missing, missing.arity().min, argumentStack);
+                        assertNoMissingParameters(missing, missing.arity().min, arguments);
                     }
                 }
             }
-            if (!unmatchedArguments.isEmpty()) {
-                if (!isUnmatchedArgumentsAllowed()) { throw new UnmatchedArgumentException(CommandLine.this, unmatchedArguments); }
-                if (tracer.isWarn()) { tracer.warn("Unmatched arguments: %s%n", unmatchedArguments); }
+            if (!state.unmatched.isEmpty()) {
+                if (!isUnmatchedArgumentsAllowed()) { throw new UnmatchedArgumentException(CommandLine.this, state.unmatched); }
+                if (tracer.isWarn()) { tracer.warn("Unmatched arguments: %s%n", state.unmatched); }
+            }
+            if (replay != null) {
+                replay.usageHelpRequested = state.usageHelpRequested;
+                replay.versionHelpRequested = state.versionHelpRequested;
+                replay.unmatched = new ArrayList<String>(state.unmatched);
             }
+            return detached ? state.result(commandSpec) : null;
         }
 
         private void processArguments(List<CommandLine> parsedCommands,
-                                      Stack<String> args,
-                                      Collection<ArgSpec> required,
-                                      Set<ArgSpec> initialized,
+                                      ArgCursor args,
+                                      ParseState state,
                                       String[] originalArgs) throws Exception {
             // arg must be one of:
             // 1. the "--" double dash separating options from positional arguments
@@ -3348,24 +4689,30 @@ public class CommandLine {
 
             String separator = commandSpec.separator();
             while (!args.isEmpty()) {
+                if (stopAtHelp(state, args)) {
+                    return; // we are done: help does not need the other values
+                }
                 String arg = args.pop();
-                if (tracer.isDebug()) {tracer.debug("Processing argument '%s'. Remainder=%s%n", arg, reverse((Stack<String>) args.clone()));}
+                if (tracer.isDebug()) {tracer.debug("Processing argument '%s'. Remainder=%s%n", arg, args);}
 
                 // Double-dash separates options from positional arguments.
                 // If found, then interpret the remaining args as positional parameters.
                 if ("--".equals(arg)) {
                     tracer.info("Found end-of-options delimiter '--'. Treating remainder as positional parameters.%n");
-                    processRemainderAsPositionalParameters(required, initialized, args);
+                    processRemainderAsPositionalParameters(state, args);
                     return; // we are done
                 }
 
                 // if we find another command, we are done with the current command
                 if (commandSpec.subcommands().containsKey(arg)) {
-                    if (!isAnyHelpRequested() && !required.isEmpty()) { // ensure current command portion is valid
-                        throw MissingParameterException.create(CommandLine.this, required, separator);
+                    if (!state.isAnyHelpRequested() && !state.required.isEmpty()) { // ensure current command portion is valid
+                        throw MissingParameterException.create(CommandLine.this, state.required, separator);
                     }
-                    if (tracer.isDebug()) {tracer.debug("Found subcommand '%s' (%s)%n", arg, commandSpec.subcommands().get(arg).commandSpec.toString());}
-                    commandSpec.subcommands().get(arg).interpreter.parse(parsedCommands, args, originalArgs);
+                    if (tracer.isDebug()) {tracer.debug("Found subcommand '%s' (%s)%n", arg, commandSpec.subcommands().get(arg).getCommandSpec().toString());}
+                    CommandLine subcommand = commandSpec.subcommands().get(arg);
+                    if (parseListener != null) { parseListener.subcommandEntered(CommandLine.this, subcommand, arg); }
+                    state.subcommand = subcommand.interpreter.parse(parsedCommands, args, originalArgs, state.isDetached(),
+                            state.replay == null ? null : state.replay.subcommand(subcommand, arg));
                     return; // remainder done by the command
                 }
 
@@ -3374,203 +4721,248 @@ public class CommandLine {
                 // or an option may have one or more option parameters.
                 // A parameter may be attached to the option.
                 boolean paramAttachedToOption = false;
+                OptionNameIndex index = commandSpec.optionNameIndex();
+                OptionSpec option = index.get(arg);
                 int separatorIndex = arg.indexOf(separator);
                 if (separatorIndex > 0) {
-                    String key = arg.substring(0, separatorIndex);
                     // be greedy. Consume the whole arg as an option if possible.
-                    if (commandSpec.optionsMap().containsKey(key) && !commandSpec.optionsMap().containsKey(arg)) {
+                    String key = option == null ? index.name(arg, separatorIndex) : null;
+                    if (key != null) {
+                        option = index.get(key);
                         paramAttachedToOption = true;
                         String optionParam = arg.substring(separatorIndex + separator.length());
                         args.push(optionParam);
                         arg = key;
                         if (tracer.isDebug()) {tracer.debug("Separated '%s' option from '%s' option parameter%n", key, optionParam);}
                     } else {
-                        if (tracer.isDebug()) {tracer.debug("'%s' contains separator '%s' but '%s' is not a known option%n", arg, separator, key);}
+                        if (tracer.isDebug()) {tracer.debug("'%s' contains separator '%s' but '%s' is not a known option%n", arg, separator, arg.substring(0, separatorIndex));}
                     }
                 } else {
                     if (tracer.isDebug()) {tracer.debug("'%s' cannot be separated into <option>%s<option-parameter>%n", arg, separator);}
                 }
-                if (commandSpec.optionsMap().containsKey(arg)) {
-                    processStandaloneOption(required, initialized, arg, args, paramAttachedToOption);
+                if (option != null) {
+                    processStandaloneOption(state, option, arg, args, paramAttachedToOption);
                 }
                 // Compact (single-letter) options can be grouped with other options or with an argument.
                 // only single-letter options can be combined with other options or with an argument
                 else if (arg.length() > 2 && arg.startsWith("-")) {
                     if (tracer.isDebug()) {tracer.debug("Trying to process '%s' as clustered short options%n", arg, args);}
-                    processClusteredShortOptions(required, initialized, arg, args);
+                    processClusteredShortOptions(state, arg, args);
                 }
                 // The argument could not be interpreted as an option.
                 // We take this to mean that the remainder are positional arguments
                 else {
                     args.push(arg);
                     if (tracer.isDebug()) {tracer.debug("Could not find option '%s', deciding whether to treat as unmatched option or positional parameter...%n", arg);}
-                    if (resemblesOption(arg)) { handleUnmatchedArguments(args.pop()); continue; } // #149
+                    if (resemblesOption(arg)) { handleUnmatchedArguments(state, args.pop()); continue; } // #149
                     if (tracer.isDebug()) {tracer.debug("No option named '%s' found. Processing remainder as positional parameters%n", arg);}
-                    processPositionalParameter(required, initialized, args);
+                    processPositionalParameter(state, args);
                 }
             }
         }
-        private boolean resemblesOption(String arg) {
+        /** Returns whether help was requested and parsing should stop; if so, the remaining arguments are skipped. */
+        private boolean stopAtHelp(ParseState state, ArgCursor args) {
+            if (!stopParsingAtHelp || !(state.usageHelpRequested || state.versionHelpRequested)) { return false; }
             int count = 0;
-            for (String optionName : commandSpec.optionsMap().keySet()) {
-                for (int i = 0; i < arg.length(); i++) {
-                    if (optionName.length() > i && arg.charAt(i) == optionName.charAt(i)) { count++; } else { break; }
-                }
-            }
-            boolean result = count > 0 && count * 10 >= commandSpec.optionsMap().size() * 9; // at least one prefix char in common with 9 out of 10 options
-            if (tracer.isDebug()) {tracer.debug("%s %s an option: %d matching prefix chars out of %d option names%n", arg, (result ? "resembles" : "doesn't resemble"), count, commandSpec
-                    .optionsMap().size());}
+            for (; !args.isEmpty(); count++) { args.pop(); }
+            if (tracer.isInfo()) {tracer.info("Help was requested: skipped %d remaining arguments without processing them%n", count);}
+            return true;
+        }
+        private boolean resemblesOption(String arg) {
+            OptionNameIndex index = commandSpec.optionNameIndex();
+            int count = index.prefixMatches(arg);
+            boolean result = count > 0 && count * 10 >= index.size() * 9; // at least one prefix char in common with 9 out of 10 options
+            if (tracer.isDebug()) {tracer.debug("%s %s an option: %d matching prefix chars out of %d option names%n", arg, (result ? "resembles" : "doesn't resemble"), count, index.size());}
             return result;
         }
-        private void handleUnmatchedArguments(String arg) {Stack<String> args = new Stack<String>(); args.add(arg); handleUnmatchedArguments(args);}
-        private void handleUnmatchedArguments(Stack<String> args) {
-            while (!args.isEmpty()) { unmatchedArguments.add(args.pop()); } // addAll would give args in reverse order
+        private void handleUnmatchedArguments(ParseState state, String arg) {
+            if (parseListener != null) { parseListener.unmatched(CommandLine.this, arg); }
+            if (state.replay != null) { state.replay.matched(null, arg); }
+            state.unmatched.add(arg);
+        }
+        private void optionMatched(ParseState state, ArgSpec argSpec, String name) {
+            if (parseListener != null) { parseListener.optionMatched(CommandLine.this, (OptionSpec) argSpec, name); }
+            if (state.replay != null) { state.replay.matched((OptionSpec) argSpec, name); }
         }
 
-        private void processRemainderAsPositionalParameters(Collection<ArgSpec> required, Set<ArgSpec> initialized, Stack<String> args) throws Exception {
-            while (!args.empty()) {
-                processPositionalParameter(required, initialized, args);
+        private void processRemainderAsPositionalParameters(ParseState state, ArgCursor args) throws Exception {
+            while (!args.isEmpty()) {
+                processPositionalParameter(state, args);
             }
         }
-        private void processPositionalParameter(Collection<ArgSpec> required, Set<ArgSpec> initialized, Stack<String> args) throws Exception {
-            if (tracer.isDebug()) {tracer.debug("Processing next arg as a positional parameter at index=%d. Remainder=%s%n", position, reverse((Stack<String>) args.clone()));}
+        private void processPositionalParameter(ParseState state, ArgCursor args) throws Exception {
+            int position = state.position;
+            if (tracer.isDebug()) {tracer.debug("Processing next arg as a positional parameter at index=%d. Remainder=%s%n", position, args);}
             int consumed = 0;
-            for (PositionalParamSpec positionalParam : commandSpec.positionalParameters()) {
+            ParsePlan.Binding[] bindings = state.plan.positionals(position);
+            boolean shared = bindings.length > 1; // only rewind if another positional parameter needs to see the same args
+            for (ParsePlan.Binding binding : bindings) {
+                PositionalParamSpec positionalParam = (PositionalParamSpec) binding.argSpec;
                 Range indexRange = positionalParam.index();
-                if (!indexRange.contains(position)) {
-                    continue;
-                }
-                @SuppressWarnings("unchecked")
-                Stack<String> argsCopy = (Stack<String>) args.clone();
                 Range arity = positionalParam.arity();
                 if (tracer.isDebug()) {tracer.debug("Position %d is in index range %s. Trying to assign args to %s, arity=%s%n", position, indexRange, positionalParam, arity);}
-                assertNoMissingParameters(positionalParam, arity.min, argsCopy);
-                int originalSize = argsCopy.size();
-                applyOption(positionalParam, arity, argsCopy, initialized, "args[" + indexRange + "] at position " + position);
-                int count = originalSize - argsCopy.size();
-                if (count > 0) { required.remove(positionalParam); }
-                consumed = Math.max(consumed, count);
+                assertNoMissingParameters(positionalParam, arity.min, args);
+                int originalConsumed = args.consumed();
+                if (shared) { args.mark(); } // each positional parameter in range sees the same args
+                try {
+                    applyOption(binding, arity, args, state, "args[" + indexRange + "] at position " + position);
+                } finally {
+                    int count = args.consumed() - originalConsumed;
+                    if (shared) { args.rewind(); }
+                    if (count > 0) { state.required.remove(positionalParam); state.matched(positionalParam); }
+                    consumed = Math.max(consumed, count);
+                }
             }
             // remove processed args from the stack
-            for (int i = 0; i < consumed; i++) { args.pop(); }
-            position += consumed;
+            if (shared) { args.skip(consumed); }
+            state.position = position += consumed;
             if (tracer.isDebug()) {tracer.debug("Consumed %d arguments, moving position to index %d.%n", consumed, position);}
             if (consumed == 0 && !args.isEmpty()) {
-                handleUnmatchedArguments(args.pop());
+                handleUnmatchedArguments(state, args.pop());
             }
         }
 
-        private void processStandaloneOption(Collection<ArgSpec> required,
-                                             Set<ArgSpec> initialized,
+        private void processStandaloneOption(ParseState state,
+                                             ArgSpec argSpec,
                                              String arg,
-                                             Stack<String> args,
+                                             ArgCursor args,
                                              boolean paramAttachedToKey) throws Exception {
-            ArgSpec argSpec = commandSpec.optionsMap().get(arg);
-            required.remove(argSpec);
-            Range arity = argSpec.arity();
-            if (paramAttachedToKey) {
-                arity = arity.min(Math.max(1, arity.min)); // if key=value, minimum arity is at least 1
-            }
+            state.required.remove(argSpec);
+            state.matched(argSpec);
+            ParsePlan.Binding binding = state.plan.binding(argSpec);
+            Range arity = paramAttachedToKey ? binding.attachedArity : argSpec.arity(); // if key=value, minimum arity is at least 1
             if (tracer.isDebug()) {tracer.debug("Found option named '%s': %s, arity=%s%n", arg, argSpec, arity);}
-            applyOption(argSpec, arity, args, initialized, "option " + arg);
+            optionMatched(state, argSpec, arg);
+            applyOption(binding, arity, args, state, "option " + arg);
         }
 
-        private void processClusteredShortOptions(Collection<ArgSpec> required,
-                                                  Set<ArgSpec> initialized,
+        private void processClusteredShortOptions(ParseState state,
                                                   String arg,
-                                                  Stack<String> args)
+                                                  ArgCursor args)
                 throws Exception {
             String prefix = arg.substring(0, 1);
-            String cluster = arg.substring(1);
+            String separator = commandSpec.separator();
+            OptionNameIndex index = commandSpec.optionNameIndex();
+            String rest = arg; // the cluster is rest.substring(pos): only created when an option may consume it
+            int pos = 1;
             boolean paramAttachedToOption = true;
             do {
-                if (cluster.length() > 0 && commandSpec.posixOptionsMap().containsKey(cluster.charAt(0))) {
-                    ArgSpec argSpec = commandSpec.posixOptionsMap().get(cluster.charAt(0));
+                if (stopAtHelp(state, args)) {
+                    if (pos < rest.length() && tracer.isDebug()) {tracer.debug("Skipped '%s' in %s%n", rest.substring(pos), arg);}
+                    return; // like -hn x: the options after the help option are not processed
+                }
+                ArgSpec argSpec = pos < rest.length() ? index.posix(rest.charAt(pos)) : null;
+                if (argSpec != null) {
+                    ParsePlan.Binding binding = state.plan.binding(argSpec);
                     Range arity = argSpec.arity();
-                    String argDescription = "option " + prefix + cluster.charAt(0);
-                    if (tracer.isDebug()) {tracer.debug("Found option '%s%s' in %s: %s, arity=%s%n", prefix, cluster.charAt(0), arg,
+                    char c = rest.charAt(pos);
+                    String argDescription = "option " + prefix + c;
+                    if (tracer.isDebug()) {tracer.debug("Found option '%s%s' in %s: %s, arity=%s%n", prefix, c, arg,
                             argSpec, arity);}
-                    required.remove(argSpec);
-                    cluster = cluster.length() > 0 ? cluster.substring(1) : "";
-                    paramAttachedToOption = cluster.length() > 0;
-                    if (cluster.startsWith(commandSpec.separator())) {// attached with separator, like -f=FILE or -v=true
-                        cluster = cluster.substring(commandSpec.separator().length());
-                        arity = arity.min(Math.max(1, arity.min)); // if key=value, minimum arity is at least 1
+                    state.required.remove(argSpec);
+                    state.matched(argSpec);
+                    optionMatched(state, argSpec, prefix + c);
+                    pos++;
+                    paramAttachedToOption = pos < rest.length();
+                    if (rest.startsWith(separator, pos)) {// attached with separator, like -f=FILE or -v=true
+                        pos += separator.length();
+                        arity = binding.attachedArity; // if key=value, minimum arity is at least 1
+                    }
+                    if (isBlank(rest, pos)) { // nothing left to consume
+                        applyOption(binding, arity, args, state, argDescription);
+                        return;
+                    }
+                    if (isFlag(binding, arity) && rest.charAt(pos) != '"') { // cannot consume the remainder: keep walking the cluster
+                        if (tracer.isDebug()) {tracer.debug("Trying to process '%s' as option parameter%n", rest.substring(pos));}
+                        applyOption(binding, arity, args, state, argDescription);
+                        continue;
                     }
-                    if (arity.min > 0 && !empty(cluster)) {
+                    String cluster = rest.substring(pos);
+                    if (arity.min > 0) {
                         if (tracer.isDebug()) {tracer.debug("Trying to process '%s' as option parameter%n", cluster);}
                     }
                     // arity may be >= 1, or
                     // arity <= 0 && !cluster.startsWith(separator)
                     // e.g., boolean @Option("-v", arity=0, varargs=true); arg "-rvTRUE", remainder cluster="TRUE"
-                    if (!empty(cluster)) {
-                        args.push(cluster); // interpret remainder as option parameter (CAUTION: may be empty string!)
-                    }
-                    int argCount = args.size();
-                    int consumed = applyOption(argSpec, arity, args, initialized, argDescription);
+                    args.push(cluster); // interpret remainder as option parameter (CAUTION: may be empty string!)
+                    int argCount = args.consumed();
+                    applyOption(binding, arity, args, state, argDescription);
                     // if cluster was consumed as a parameter or if this field was the last in the cluster we're done; otherwise continue do-while loop
-                    if (empty(cluster) || args.isEmpty() || args.size() < argCount) {
+                    if (args.isEmpty() || args.consumed() > argCount || stopAtHelp(state, args)) {
                         return;
                     }
-                    cluster = args.pop();
+                    rest = args.pop();
+                    pos = 0;
                 } else { // cluster is empty || cluster.charAt(0) is not a short option key
-                    if (cluster.length() == 0) { // we finished parsing a group of short options like -rxv
+                    if (pos >= rest.length()) { // we finished parsing a group of short options like -rxv
                         return; // return normally and parse the next arg
                     }
+                    String cluster = rest.substring(pos);
                     // We get here when the remainder of the cluster group is neither an option,
                     // nor a parameter that the last option could consume.
                     if (arg.endsWith(cluster)) {
                         args.push(paramAttachedToOption ? prefix + cluster : cluster);
                         if (args.peek().equals(arg)) { // #149 be consistent between unmatched short and long options
                             if (tracer.isDebug()) {tracer.debug("Could not match any short options in %s, deciding whether to treat as unmatched option or positional parameter...%n", arg);}
-                            if (resemblesOption(arg)) { handleUnmatchedArguments(args.pop()); return; } // #149
-                            processPositionalParameter(required, initialized, args);
+                            if (resemblesOption(arg)) { handleUnmatchedArguments(state, args.pop()); return; } // #149
+                            processPositionalParameter(state, args);
                             return;
                         }
                         // remainder was part of a clustered group that could not be completely parsed
                         if (tracer.isDebug()) {tracer.debug("No option found for %s in %s%n", cluster, arg);}
-                        handleUnmatchedArguments(args.pop());
+                        handleUnmatchedArguments(state, args.pop());
                     } else {
                         args.push(cluster);
                         if (tracer.isDebug()) {tracer.debug("%s is not an option parameter for %s%n", cluster, arg);}
-                        processPositionalParameter(required, initialized, args);
+                        processPositionalParameter(state, args);
                     }
                     return;
                 }
             } while (true);
         }
 
-        private int applyOption(ArgSpec argSpec,
+        /** Returns whether the specified option never consumes the next argument, like a boolean flag or a boolean array with arity 0. */
+        private boolean isFlag(ParsePlan.Binding binding, Range arity) {
+            if (arity.max != 0) { return false; }
+            return binding.kind == ParsePlan.Kind.ARRAY || binding.kind == ParsePlan.Kind.COLLECTION
+                    || (binding.kind == ParsePlan.Kind.SINGLE && isBoolean(binding.types[0]));
+        }
+        /** Returns whether {@code str.substring(from)} is empty or only contains whitespace, without creating the substring. */
+        private boolean isBlank(String str, int from) {
+            for (int i = from; i < str.length(); i++) {
+                if (str.charAt(i) > ' ') { return false; } // same as String.trim()
+            }
+            return true;
+        }
+
+        private int applyOption(ParsePlan.Binding binding,
                                 Range arity,
-                                Stack<String> args,
-                                Set<ArgSpec> initialized,
+                                ArgCursor args,
+                                ParseState state,
                                 String argDescription) throws Exception {
-            updateHelpRequested(argSpec);
+            ArgSpec argSpec = binding.argSpec;
+            updateHelpRequested(state, argSpec);
             assertNoMissingParameters(argSpec, arity.min, args);
 
-            Class<?> cls = argSpec.type();
-            if (cls.isArray()) {
-                return applyValuesToArrayField(argSpec, arity, args, cls, argDescription);
-            }
-            if (Collection.class.isAssignableFrom(cls)) {
-                return applyValuesToCollectionField(argSpec, arity, args, cls, argDescription);
-            }
-            if (Map.class.isAssignableFrom(cls)) {
-                return applyValuesToMapField(argSpec, arity, args, cls, argDescription);
+            switch (binding.kind) {
+                case ARRAY:      return applyValuesToArrayField(binding, arity, args, state, argDescription);
+                case COLLECTION: return applyValuesToCollectionField(binding, arity, args, state, argDescription);
+                case MAP:        return applyValuesToMapField(binding, arity, args, state, argDescription);
+                default:         return applyValueToSingleValuedField(binding, arity, args, state, argDescription);
             }
-            cls = argSpec.auxiliaryTypes()[0]; // field may be interface/abstract type, use annotation to get concrete type
-            return applyValueToSingleValuedField(argSpec, arity, args, cls, initialized, argDescription);
         }
 
-        private int applyValueToSingleValuedField(ArgSpec argSpec,
+        private int applyValueToSingleValuedField(ParsePlan.Binding binding,
                                                   Range arity,
-                                                  Stack<String> args,
-                                                  Class<?> cls,
-                                                  Set<ArgSpec> initialized,
+                                                  ArgCursor args,
+                                                  ParseState state,
                                                   String argDescription) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
+            Class<?> cls = binding.types[0]; // field may be interface/abstract type, use annotation to get concrete type
             boolean noMoreValues = args.isEmpty();
             String value = args.isEmpty() ? null : trim(args.pop()); // unquote the value
             int result = arity.min; // the number or args we need to consume
+            boolean toggle = false;
 
             // special logic for booleans: BooleanConverter accepts only "true" or "false".
             if ((cls == Boolean.class || cls == Boolean.TYPE) && arity.min <= 0) {
@@ -3582,63 +4974,142 @@ public class CommandLine {
                     if (value != null) {
                         args.push(value); // we don't consume the value
                     }
-                    Boolean currentValue = (Boolean) argSpec.getValue();
+                    Boolean currentValue = (Boolean) state.getValue(argSpec);
                     value = String.valueOf(currentValue == null ? true : !currentValue); // #147 toggle existing boolean value
+                    toggle = true;
                 }
             }
             if (noMoreValues && value == null) {
                 return 0;
             }
-            ITypeConverter<?> converter = getTypeConverter(cls, argSpec, 0);
+            ITypeConverter<?> converter = converter(binding, 0);
+            if (binding.primitive != 0 && !state.isDetached() && setPrimitive(binding, converter, value, state, argDescription)) {
+                if (state.replay != null) { state.replay.record(binding, null, state.getValue(argSpec), toggle); }
+                return result;
+            }
             Object newValue = tryConvert(argSpec, -1, converter, value, cls);
-            Object oldValue = argSpec.getValue();
-            TraceLevel level = TraceLevel.INFO;
-            String traceMessage = "Setting %s to '%3$s' (was '%2$s') for %4$s%n";
-            if (initialized != null) {
-                if (initialized.contains(argSpec)) {
-                    if (!isOverwrittenOptionsAllowed()) {
-                        throw new OverwrittenOptionException(CommandLine.this, optionDescription("", argSpec, 0) +  " should be specified only once");
-                    }
-                    level = TraceLevel.WARN;
-                    traceMessage = "Overwriting %s value '%s' with '%s' for %s%n";
+            boolean overwrite = initialize(argSpec, state);
+            if (isTraced(overwrite)) { traceSetValue(overwrite, argSpec, state, newValue, argDescription); }
+            state.setValue(argSpec, newValue);
+            if (state.replay != null) { state.replay.record(binding, null, newValue, toggle); }
+            return result;
+        }
+        /** Converts the value and sets it on the field without boxing it, if the setter of the field supports this.
+         * @return {@code false} if the setter cannot set primitive values */
+        private boolean setPrimitive(ParsePlan.Binding binding,
+                                 ITypeConverter<?> converter,
+                                 String value,
+                                 ParseState state,
+                                 String argDescription) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
+            ArgSpec.ISetter setter = argSpec.setter();
+            Class<?> cls = binding.types[0];
+            Object event = Profiler.INSTANCE.begin(Profiler.CONVERT);
+            long start = isObserved() ? System.nanoTime() : 0;
+            switch (binding.primitive) {
+                case 'I': {
+                    if (!(setter instanceof ArgSpec.IIntSetter)) { return false; }
+                    int newValue;
+                    try { newValue = ((IIntConverter) converter).convertInt(value); } catch (Exception ex) { throw conversionException(argSpec, -1, value, cls, ex); }
+                    if (event != null || isObserved()) { converted(argSpec, converter, value, newValue, start, event); }
+                    boolean overwrite = initialize(argSpec, state);
+                    if (isTraced(overwrite)) { traceSetValue(overwrite, argSpec, state, newValue, argDescription); }
+                    ((ArgSpec.IIntSetter) setter).setInt(newValue);
+                    return true;
+                }
+                case 'J': {
+                    if (!(setter instanceof ArgSpec.ILongSetter)) { return false; }
+                    long newValue;
+                    try { newValue = ((ILongConverter) converter).convertLong(value); } catch (Exception ex) { throw conversionException(argSpec, -1, value, cls, ex); }
+                    if (event != null || isObserved()) { converted(argSpec, converter, value, newValue, start, event); }
+                    boolean overwrite = initialize(argSpec, state);
+                    if (isTraced(overwrite)) { traceSetValue(overwrite, argSpec, state, newValue, argDescription); }
+                    ((ArgSpec.ILongSetter) setter).setLong(newValue);
+                    return true;
+                }
+                case 'D': {
+                    if (!(setter instanceof ArgSpec.IDoubleSetter)) { return false; }
+                    double newValue;
+                    try { newValue = ((IDoubleConverter) converter).convertDouble(value); } catch (Exception ex) { throw conversionException(argSpec, -1, value, cls, ex); }
+                    if (event != null || isObserved()) { converted(argSpec, converter, value, newValue, start, event); }
+                    boolean overwrite = initialize(argSpec, state);
+                    if (isTraced(overwrite)) { traceSetValue(overwrite, argSpec, state, newValue, argDescription); }
+                    ((ArgSpec.IDoubleSetter) setter).setDouble(newValue);
+                    return true;
+                }
+                case 'Z': {
+                    if (!(setter instanceof ArgSpec.IBooleanSetter)) { return false; }
+                    boolean newValue;
+                    try { newValue = ((IBooleanConverter) converter).convertBoolean(value); } catch (Exception ex) { throw conversionException(argSpec, -1, value, cls, ex); }
+                    if (event != null || isObserved()) { converted(argSpec, converter, value, newValue, start, event); }
+                    boolean overwrite = initialize(argSpec, state);
+                    if (isTraced(overwrite)) { traceSetValue(overwrite, argSpec, state, newValue, argDescription); }
+                    ((ArgSpec.IBooleanSetter) setter).setBoolean(newValue);
+                    return true;
                 }
-                initialized.add(argSpec);
+                default: return false;
             }
-            if (tracer.level.isEnabled(level)) { level.print(tracer, traceMessage, argSpec.toString(),
-                    String.valueOf(oldValue), String.valueOf(newValue), argDescription); }
-            argSpec.setValue(newValue);
-            return result;
         }
-        private int applyValuesToMapField(ArgSpec argSpec,
+        /** Records that the specified option or positional parameter has been given a value.
+         * @return whether it already had a value from an earlier argument
+         * @throws OverwrittenOptionException if it already had a value and overwriting options is not allowed */
+        private boolean initialize(ArgSpec argSpec, ParseState state) {
+            if (!state.initialized.add(argSpec)) {
+                if (!isOverwrittenOptionsAllowed()) {
+                    throw new OverwrittenOptionException(CommandLine.this, optionDescription("", argSpec, 0) +  " should be specified only once");
+                }
+                return true;
+            }
+            return false;
+        }
+        private boolean isTraced(boolean overwrite) { return overwrite ? tracer.isWarn() : tracer.isInfo(); }
+        private void traceSetValue(boolean overwrite, ArgSpec argSpec, ParseState state, Object newValue, String argDescription) throws Exception {
+            TraceLevel level = overwrite ? TraceLevel.WARN : TraceLevel.INFO;
+            String traceMessage = overwrite ? "Overwriting %s value '%s' with '%s' for %s%n" : "Setting %s to '%3$s' (was '%2$s') for %4$s%n";
+            level.print(tracer, traceMessage, argSpec.toString(), String.valueOf(state.getValue(argSpec)), String.valueOf(newValue), argDescription);
+        }
+        private int applyValuesToMapField(ParsePlan.Binding binding,
                                           Range arity,
-                                          Stack<String> args,
-                                          Class<?> mapClass,
+                                          ArgCursor args,
+                                          ParseState state,
                                           String argDescription) throws Exception {
-            Class<?>[] classes = argSpec.auxiliaryTypes();
+            ArgSpec argSpec = binding.argSpec;
+            Class<?>[] classes = binding.types;
             if (classes.length < 2) { throw new ParameterException(CommandLine.this, argSpec.toString() + " needs two types (one for the map key, one for the value) but only has " + classes.length + " types configured."); }
-            ITypeConverter<?> keyConverter   = getTypeConverter(classes[0], argSpec, 0);
-            ITypeConverter<?> valueConverter = getTypeConverter(classes[1], argSpec, 1);
-            Map<Object, Object> result = (Map<Object, Object>) argSpec.getValue();
-            if (result == null) {
-                result = createMap(mapClass);
-                argSpec.setValue(result);
-            }
+            ITypeConverter<?> keyConverter   = converter(binding, 0);
+            ITypeConverter<?> valueConverter = converter(binding, 1);
+            Map<Object, Object> result = map(argSpec, state);
             int originalSize = result.size();
-            consumeMapArguments(argSpec, arity, args, classes, keyConverter, valueConverter, result, argDescription);
+            consumeMapArguments(binding, arity, args, classes, keyConverter, valueConverter, result, argDescription, state.replay);
             return result.size() - originalSize;
         }
 
-        private void consumeMapArguments(ArgSpec argSpec,
+        /** Returns the map to put entries in, creating it if the option or positional parameter does not have one yet. */
+        @SuppressWarnings("unchecked")
+        private Map<Object, Object> map(ArgSpec argSpec, ParseState state) throws Exception {
+            Map<Object, Object> result = (Map<Object, Object>) state.getValue(argSpec);
+            if (result == null || !state.owns(argSpec)) {
+                Map<Object, Object> initial = result;
+                result = createMap(argSpec.type());
+                if (initial != null) { result.putAll(initial); } // detached: add to a copy of the initial value
+                state.setValue(argSpec, result);
+            }
+            return result;
+        }
+
+        private void consumeMapArguments(ParsePlan.Binding binding,
                                          Range arity,
-                                         Stack<String> args,
+                                         ArgCursor args,
                                          Class<?>[] classes,
                                          ITypeConverter<?> keyConverter,
                                          ITypeConverter<?> valueConverter,
                                          Map<Object, Object> result,
-                                         String argDescription) throws Exception {
+                                         String argDescription,
+                                         ParseReplay replay) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
             // first do the arity.min mandatory parameters
             for (int i = 0; i < arity.min; i++) {
-                consumeOneMapArgument(argSpec, args, classes, keyConverter, valueConverter, result, i, argDescription);
+                consumeOneMapArgument(binding, args, classes, keyConverter, valueConverter, result, i, argDescription, replay);
             }
             // now process the varargs if any
             for (int i = arity.min; i < arity.max && !args.isEmpty(); i++) {
@@ -3647,21 +5118,25 @@ public class CommandLine {
                         return;
                     }
                 }
-                consumeOneMapArgument(argSpec, args, classes, keyConverter, valueConverter, result, i, argDescription);
+                consumeOneMapArgument(binding, args, classes, keyConverter, valueConverter, result, i, argDescription, replay);
             }
         }
 
-        private void consumeOneMapArgument(ArgSpec argSpec,
-                                           Stack<String> args,
+        private void consumeOneMapArgument(ParsePlan.Binding binding,
+                                           ArgCursor args,
                                            Class<?>[] classes,
                                            ITypeConverter<?> keyConverter, ITypeConverter<?> valueConverter,
                                            Map<Object, Object> result,
                                            int index,
-                                           String argDescription) throws Exception {
-            String[] values = argSpec.splitValue(trim(args.pop()));
+                                           String argDescription,
+                                           ParseReplay replay) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
+            String[] values = binding.splitter.split(trim(args.pop()));
             for (String value : values) {
-                String[] keyValue = value.split("=");
-                if (keyValue.length < 2) {
+                // the key and value are the first two parts of value.split("=")
+                int separator = value.indexOf('=');
+                int limit = Splitter.EQUALS.trimmedLength(value);
+                if (separator < 0 || limit <= separator + 1) {
                     String splitRegex = argSpec.splitRegex();
                     if (splitRegex.length() == 0) {
                         throw new ParameterException(CommandLine.this, "Value for option " + optionDescription("",
@@ -3673,9 +5148,13 @@ public class CommandLine {
                                 0) + " should be in KEY=VALUE[" + splitRegex + "KEY=VALUE]... format but was " + value);
                     }
                 }
-                Object mapKey =   tryConvert(argSpec, index, keyConverter,   keyValue[0], classes[0]);
-                Object mapValue = tryConvert(argSpec, index, valueConverter, keyValue[1], classes[1]);
+                int end = value.indexOf('=', separator + 1);
+                String key = value.substring(0, separator);
+                String val = value.substring(separator + 1, end < 0 || end > limit ? limit : end);
+                Object mapKey =   tryConvert(argSpec, index, keyConverter,   key, classes[0]);
+                Object mapValue = tryConvert(argSpec, index, valueConverter, val, classes[1]);
                 result.put(mapKey, mapValue);
+                if (replay != null) { replay.record(binding, mapKey, mapValue, false); }
                 if (tracer.isInfo()) {tracer.info("Putting [%s : %s] in %s<%s, %s> %s for %s%n", String.valueOf(mapKey), String.valueOf(mapValue),
                         result.getClass().getSimpleName(), classes[0].getSimpleName(), classes[1].getSimpleName(), argSpec
                                 .toString(), argDescription);}
@@ -3690,67 +5169,51 @@ public class CommandLine {
                     values.length + " values were specified: " + Arrays.toString(values));
         }
 
-        private int applyValuesToArrayField(ArgSpec argSpec,
+        private int applyValuesToArrayField(ParsePlan.Binding binding,
                                             Range arity,
-                                            Stack<String> args,
-                                            Class<?> cls,
+                                            ArgCursor args,
+                                            ParseState state,
                                             String argDescription) throws Exception {
-            Object existing = argSpec.getValue();
-            int length = existing == null ? 0 : Array.getLength(existing);
-            Class<?> type = argSpec.auxiliaryTypes()[0];
-            List<Object> converted = consumeArguments(argSpec, arity, args, type, argDescription);
-            List<Object> newValues = new ArrayList<Object>();
-            for (int i = 0; i < length; i++) {
-                newValues.add(Array.get(existing, i));
-            }
-            for (Object obj : converted) {
-                if (obj instanceof Collection<?>) {
-                    newValues.addAll((Collection<?>) obj);
-                } else {
-                    newValues.add(obj);
-                }
-            }
-            Object array = Array.newInstance(type, newValues.size());
-            argSpec.setValue(array);
-            for (int i = 0; i < newValues.size(); i++) {
-                Array.set(array, i, newValues.get(i));
-            }
-            return converted.size(); // return how many args were consumed
+            ArrayBuffer buffer = state.arrayBuffer(binding.argSpec, binding.types[0]);
+            return consumeArguments(binding, arity, args, buffer, argDescription, state.replay); // return how many args were consumed
         }
 
-        @SuppressWarnings("unchecked")
-        private int applyValuesToCollectionField(ArgSpec argSpec,
+        private int applyValuesToCollectionField(ParsePlan.Binding binding,
                                                  Range arity,
-                                                 Stack<String> args,
-                                                 Class<?> collectionType,
+                                                 ArgCursor args,
+                                                 ParseState state,
                                                  String argDescription) throws Exception {
-            Collection<Object> collection = (Collection<Object>) argSpec.getValue();
-            Class<?> type = argSpec.auxiliaryTypes()[0];
-            List<Object> converted = consumeArguments(argSpec, arity, args, type, argDescription);
-            if (collection == null) {
-                collection = createCollection(collectionType);
-                argSpec.setValue(collection);
-            }
-            for (Object element : converted) {
-                if (element instanceof Collection<?>) {
-                    collection.addAll((Collection<?>) element);
-                } else {
-                    collection.add(element);
-                }
-            }
-            return converted.size();
+            Collection<Object> collection = collection(binding.argSpec, state);
+            return consumeArguments(binding, arity, args, collection, argDescription, state.replay); // values are added as they are converted
         }
-
-        private List<Object> consumeArguments(ArgSpec argSpec,
-                                              Range arity,
-                                              Stack<String> args,
-                                              Class<?> type,
-                                              String argDescription) throws Exception {
-            List<Object> result = new ArrayList<Object>();
+        /** Returns the collection to add values to, creating it if the option or positional parameter does not have one yet. */
+        @SuppressWarnings("unchecked")
+        private Collection<Object> collection(ArgSpec argSpec, ParseState state) throws Exception {
+            Collection<Object> collection = (Collection<Object>) state.getValue(argSpec);
+            if (collection == null || !state.owns(argSpec)) {
+                Collection<Object> initial = collection;
+                collection = createCollection(argSpec.type());
+                if (initial != null) { collection.addAll(initial); } // detached: add to a copy of the initial value
+                state.setValue(argSpec, collection);
+            }
+            return collection;
+        }
+
+        /** Converts the values for a multi-value option or positional parameter and adds them to the specified collection.
+         * @return the number of values converted */
+        private int consumeArguments(ParsePlan.Binding binding,
+                                     Range arity,
+                                     ArgCursor args,
+                                     Collection<Object> result,
+                                     String argDescription,
+                                     ParseReplay replay) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
+            Class<?> type = binding.types[0];
+            int count = 0;
 
             // first do the arity.min mandatory parameters
             for (int i = 0; i < arity.min; i++) {
-                consumeOneArgument(argSpec, arity, args, type, result, i, argDescription);
+                count += consumeOneArgument(binding, args, result, i, argDescription, replay);
             }
             // now process the varargs if any
             for (int i = arity.min; i < arity.max && !args.isEmpty(); i++) {
@@ -3759,32 +5222,84 @@ public class CommandLine {
                         break;
                     }
                 }
-                consumeOneArgument(argSpec, arity, args, type, result, i, argDescription);
+                count += consumeOneArgument(binding, args, result, i, argDescription, replay);
             }
-            if (result.isEmpty() && arity.min == 0 && arity.max <= 1 && isBoolean(type)) {
-                return Arrays.asList((Object) Boolean.TRUE);
+            if (count == 0 && arity.min == 0 && arity.max <= 1 && isBoolean(type)) {
+                result.add(Boolean.TRUE);
+                if (replay != null) { replay.record(binding, null, Boolean.TRUE, false); }
+                count = 1;
             }
-            return result;
+            return count;
         }
 
-        private int consumeOneArgument(ArgSpec argSpec,
-                                       Range arity,
-                                       Stack<String> args,
-                                       Class<?> type,
-                                       List<Object> result,
+        /** @return the number of values converted */
+        private int consumeOneArgument(ParsePlan.Binding binding,
+                                       ArgCursor args,
+                                       Collection<Object> result,
                                        int index,
-                                       String argDescription) throws Exception {
-            String[] values = argSpec.splitValue(trim(args.pop()));
-            ITypeConverter<?> converter = getTypeConverter(type, argSpec, 0);
-
-            for (int j = 0; j < values.length; j++) {
-                result.add(tryConvert(argSpec, index, converter, values[j], type));
-                if (tracer.isInfo()) {
-                    tracer.info("Adding [%s] to %s for %s%n", String.valueOf(result.get(result.size() - 1)), argSpec.toString(), argDescription);
+                                       String argDescription,
+                                       ParseReplay replay) throws Exception {
+            String value = trim(args.pop());
+            ITypeConverter<?> converter = converter(binding, 0);
+            Splitter splitter = binding.splitter;
+            if (!splitter.isLiteral()) { // split with the regular expression
+                String[] values = splitter.split(value);
+                for (int j = 0; j < values.length; j++) {
+                    addValue(binding, converter, values[j], result, index, argDescription, replay);
                 }
+                return values.length;
+            }
+            int end = splitter.indexOf(value, 0);
+            if (end < 0) { // nothing to split
+                addValue(binding, converter, value, result, index, argDescription, replay);
+                return 1;
+            }
+            int count = 0;
+            for (int start = 0, limit = splitter.trimmedLength(value); start < limit; start = end + 1) {
+                end = splitter.indexOf(value, start);
+                if (end < 0 || end > limit) { end = limit; }
+                addValue(binding, converter, value.substring(start, end), result, index, argDescription, replay);
+                count++;
             }
             //checkMaxArityExceeded(arity, max, field, values);
-            return ++index;
+            return count;
+        }
+        private void addConverted(Collection<Object> result, Object value) {
+            if (value instanceof Collection<?>) {
+                result.addAll((Collection<?>) value);
+            } else {
+                result.add(value);
+            }
+        }
+        private void addValue(ParsePlan.Binding binding,
+                              ITypeConverter<?> converter,
+                              String text,
+                              Collection<Object> result,
+                              int index,
+                              String argDescription,
+                              ParseReplay replay) throws Exception {
+            ArgSpec argSpec = binding.argSpec;
+            Object value;
+            if (binding.primitive != 0 && result instanceof ArrayBuffer) { // convert to a primitive array element without boxing
+                ArrayBuffer buffer = (ArrayBuffer) result;
+                Object event = Profiler.INSTANCE.begin(Profiler.CONVERT);
+                long start = isObserved() ? System.nanoTime() : 0;
+                try {
+                    buffer.addConverted(converter, text);
+                } catch (Exception ex) {
+                    throw conversionException(argSpec, index, text, binding.types[0], ex);
+                }
+                if (event != null || isObserved()) { converted(argSpec, converter, text, buffer.last(), start, event); }
+                if (!tracer.isInfo() && replay == null) { return; }
+                value = buffer.last();
+            } else {
+                value = tryConvert(argSpec, index, converter, text, binding.types[0]);
+                addConverted(result, value);
+            }
+            if (replay != null) { replay.record(binding, null, value, false); }
+            if (tracer.isInfo()) {
+                tracer.info("Adding [%s] to %s for %s%n", String.valueOf(value), argSpec.toString(), argDescription);
+            }
         }
 
         /**
@@ -3798,27 +5313,47 @@ public class CommandLine {
                 return true;
             }
             // not just arg prefix: we may be in the middle of parsing -xrvfFILE
-            if (commandSpec.optionsMap().containsKey(arg)) { // -v or -f or --file (not attached to param or other option)
+            OptionNameIndex index = commandSpec.optionNameIndex();
+            if (index.get(arg) != null) { // -v or -f or --file (not attached to param or other option)
                 return true;
             }
             int separatorIndex = arg.indexOf(commandSpec.separator());
             if (separatorIndex > 0) { // -f=FILE or --file==FILE (attached to param via separator)
-                if (commandSpec.optionsMap().containsKey(arg.substring(0, separatorIndex))) {
+                if (index.name(arg, separatorIndex) != null) {
                     return true;
                 }
             }
-            return (arg.length() > 2 && arg.startsWith("-") && commandSpec.posixOptionsMap().containsKey(arg.charAt(1)));
+            return (arg.length() > 2 && arg.charAt(0) == '-' && index.posix(arg.charAt(1)) != null);
         }
         private Object tryConvert(ArgSpec argSpec, int index, ITypeConverter<?> converter, String value, Class<?> type)
                 throws Exception {
+            Object event = Profiler.INSTANCE.begin(Profiler.CONVERT);
+            long start = isObserved() ? System.nanoTime() : 0;
+            Object result;
             try {
-                return converter.convert(value);
-            } catch (TypeConversionException ex) {
-                throw new ParameterException(CommandLine.this, ex.getMessage() + optionDescription(" for ", argSpec, index));
-            } catch (Exception other) {
-                String desc = optionDescription(" for ", argSpec, index) + ": " + other;
-                throw new ParameterException(CommandLine.this, "Could not convert '" + value + "' to " + type.getSimpleName() + desc, other);
+                result = converter.convert(value);
+            } catch (Exception ex) {
+                throw conversionException(argSpec, index, value, type, ex);
             }
+            if (event != null || isObserved()) { converted(argSpec, converter, value, result, start, event); }
+            return result;
+        }
+        /** Returns whether conversions are measured for a parse listener or metrics. */
+        private boolean isObserved() { return parseListener != null || metricsEnabled; }
+        private void converted(ArgSpec argSpec, ITypeConverter<?> converter, String text, Object value, long start, Object event) {
+            if (event != null) { Profiler.INSTANCE.end(event, commandSpec.name(), 0, converter.getClass().getName()); }
+            if (!isObserved()) { return; }
+            long elapsed = System.nanoTime() - start;
+            if (parseListener != null) { parseListener.valueConverted(CommandLine.this, argSpec, text, value, elapsed); }
+            CommandMetrics metrics = getMetrics();
+            if (metrics != null) { metrics.converted(converter, elapsed); }
+        }
+        private ParameterException conversionException(ArgSpec argSpec, int index, String value, Class<?> type, Exception ex) {
+            if (ex instanceof TypeConversionException) {
+                return new ParameterException(CommandLine.this, ex.getMessage() + optionDescription(" for ", argSpec, index));
+            }
+            String desc = optionDescription(" for ", argSpec, index) + ": " + ex;
+            return new ParameterException(CommandLine.this, "Could not convert '" + value + "' to " + type.getSimpleName() + desc, ex);
         }
 
         private String optionDescription(String prefix, ArgSpec argSpec, int index) {
@@ -3837,14 +5372,16 @@ public class CommandLine {
             return desc;
         }
 
-        private boolean isAnyHelpRequested() { return isHelpRequested || versionHelpRequested || usageHelpRequested; }
-
-        private void updateHelpRequested(ArgSpec argSpec) {
+        private void updateHelpRequested(ParseState state, ArgSpec argSpec) {
             if (argSpec.isOption()) {
                 OptionSpec option = (OptionSpec) argSpec;
-                isHelpRequested                       |= is(argSpec, "help", option.help());
-                CommandLine.this.versionHelpRequested |= is(argSpec, "versionHelp", option.versionHelp());
-                CommandLine.this.usageHelpRequested   |= is(argSpec, "usageHelp", option.usageHelp());
+                state.isHelpRequested      |= is(argSpec, "help", option.help());
+                state.versionHelpRequested |= is(argSpec, "versionHelp", option.versionHelp());
+                state.usageHelpRequested   |= is(argSpec, "usageHelp", option.usageHelp());
+                if (!state.isDetached()) {
+                    CommandLine.this.versionHelpRequested = state.versionHelpRequested;
+                    CommandLine.this.usageHelpRequested   = state.usageHelpRequested;
+                }
             }
         }
         private boolean is(ArgSpec p, String attribute, boolean value) {
@@ -3874,22 +5411,16 @@ public class CommandLine {
             } catch (Exception ignored) {}
             return new LinkedHashMap<Object, Object>();
         }
-        private ITypeConverter<?> getTypeConverter(final Class<?> type, ArgSpec argSpec, int index) {
-            if (argSpec.converters().length > index) { return argSpec.converters()[index]; }
-            if (converterRegistry.containsKey(type)) { return converterRegistry.get(type); }
-            if (type.isEnum()) {
-                return new ITypeConverter<Object>() {
-                    @SuppressWarnings("unchecked")
-                    public Object convert(String value) throws Exception {
-                        return Enum.valueOf((Class<Enum>) type, value);
-                    }
-                };
+        private ITypeConverter<?> converter(ParsePlan.Binding binding, int index) {
+            ITypeConverter<?> result = binding.converters[index];
+            if (result == null) {
+                throw new MissingTypeConverterException(CommandLine.this, "No TypeConverter registered for " + binding.types[index].getName() + " of " + binding.argSpec);
             }
-            throw new MissingTypeConverterException(CommandLine.this, "No TypeConverter registered for " + type.getName() + " of " + argSpec);
+            return result;
         }
 
-        private void assertNoMissingParameters(ArgSpec argSpec, int arity, Stack<String> args) {
-            if (arity > args.size()) {
+        private void assertNoMissingParameters(ArgSpec argSpec, int arity, ArgCursor args) {
+            if (!args.hasAtLeast(arity)) {
                 if (arity == 1) {
                     if (argSpec.isOption()) {
                         throw new MissingParameterException(CommandLine.this, "Missing required parameter for " +
@@ -3921,7 +5452,7 @@ public class CommandLine {
                             " requires at least " + arity + " values, but none were specified.");
                 }
                 throw new MissingParameterException(CommandLine.this, optionDescription("", argSpec, 0) +
-                        " requires at least " + arity + " values, but only " + args.size() + " were specified: " + reverse(args));
+                        " requires at least " + arity + " values, but only " + args.size() + " were specified: " + args.remainder());
             }
         }
         private String trim(String value) {
@@ -3936,6 +5467,977 @@ public class CommandLine {
                         : value;
         }
     }
+    /** The state of parsing the arguments of one command. Unless detached, values are set on the model when they are matched;
+     * a detached parse collects the values in this object instead, leaving the model unmodified. */
+    private static final class ParseState {
+        final ParsePlan plan;
+        final List<ArgSpec> required;
+        final Set<ArgSpec> initialized = new HashSet<ArgSpec>();
+        final List<ArgSpec> matched = new ArrayList<ArgSpec>();
+        final List<String> unmatched;
+        private final Map<ArgSpec, Object> values; // null unless detached
+        private Map<ArgSpec, ArrayBuffer> arrays;   // values for array fields, set when parsing this command is done
+        int position;
+        boolean isHelpRequested;
+        boolean usageHelpRequested;
+        boolean versionHelpRequested;
+        ParseResult subcommand;
+        final ParseReplay replay; // records the converted values if the result may be cached, null otherwise
+
+        ParseState(ParsePlan plan, List<ArgSpec> required, List<String> unmatched, boolean detached, ParseReplay replay) {
+            this.plan = plan;
+            this.required = required;
+            this.unmatched = unmatched;
+            this.values = detached ? new IdentityHashMap<ArgSpec, Object>() : null;
+            this.replay = replay;
+        }
+        boolean isDetached() { return values != null; }
+        boolean isAnyHelpRequested() { return isHelpRequested || versionHelpRequested || usageHelpRequested; }
+
+        /** Records that the specified option or positional parameter was matched. */
+        void matched(ArgSpec argSpec) {
+            for (ArgSpec existing : matched) { if (existing == argSpec) { return; } }
+            matched.add(argSpec);
+        }
+        /** Returns the value set during this parse, or the initial value of the option or positional parameter. */
+        Object getValue(ArgSpec argSpec) throws Exception {
+            return values != null && values.containsKey(argSpec) ? values.get(argSpec) : argSpec.getValue();
+        }
+        void setValue(ArgSpec argSpec, Object value) throws Exception {
+            if (values == null) { argSpec.setValue(value); } else { values.put(argSpec, value); }
+        }
+        /** Returns whether the current value of the specified option or positional parameter may be modified in place. */
+        boolean owns(ArgSpec argSpec) { return values == null || values.containsKey(argSpec); }
+
+        /** Returns the buffer that collects the values for the specified array option or positional parameter,
+         * starting with the elements of its current value. */
+        ArrayBuffer arrayBuffer(ArgSpec argSpec, Class<?> componentType) throws Exception {
+            if (arrays == null) { arrays = new IdentityHashMap<ArgSpec, ArrayBuffer>(); }
+            ArrayBuffer result = arrays.get(argSpec);
+            if (result == null) {
+                result = new ArrayBuffer(componentType, getValue(argSpec));
+                arrays.put(argSpec, result);
+            }
+            return result;
+        }
+        /** Sets the array options and positional parameters that were matched to an array with the collected values. */
+        void applyArrayValues() throws Exception {
+            if (arrays == null) { return; }
+            for (Map.Entry<ArgSpec, ArrayBuffer> entry : arrays.entrySet()) {
+                setValue(entry.getKey(), entry.getValue().array());
+            }
+            arrays = null;
+        }
+
+        ParseResult result(CommandSpec commandSpec) {
+            List<OptionSpec> options = new ArrayList<OptionSpec>();
+            List<PositionalParamSpec> positionals = new ArrayList<PositionalParamSpec>();
+            for (ArgSpec argSpec : matched) {
+                if (argSpec.isOption()) { options.add((OptionSpec) argSpec); } else { positionals.add((PositionalParamSpec) argSpec); }
+            }
+            return new ParseResult(commandSpec, options, positionals, values, unmatched,
+                    usageHelpRequested, versionHelpRequested, subcommand);
+        }
+    }
+    /** Growable buffer for the values of an array option or positional parameter. Values of a primitive component type
+     * are stored unboxed (and converted without boxing if the converter supports this), and the array is only created when all values are known, so that an option that is specified
+     * many times does not cause the array to be copied for every occurrence. */
+    static final class ArrayBuffer extends AbstractCollection<Object> {
+        private final Class<?> componentType;
+        private final char kind; // 'I'nt, 'J' long, 'D'ouble, 'F'loat, 'S'hort, 'B'yte, 'C'har, 'Z' boolean, 'L' reference
+        private Object elements; // an array of the component type
+        private int size;
+
+        ArrayBuffer(Class<?> componentType, Object initial) {
+            this.componentType = componentType;
+            this.kind = kind(componentType);
+            int length = initial == null ? 0 : Array.getLength(initial);
+            this.elements = Array.newInstance(componentType, Math.max(8, length));
+            if (length > 0) { System.arraycopy(initial, 0, elements, 0, length); }
+            this.size = length;
+        }
+        private static char kind(Class<?> type) {
+            if (type == int.class)     { return 'I'; }
+            if (type == long.class)    { return 'J'; }
+            if (type == double.class)  { return 'D'; }
+            if (type == float.class)   { return 'F'; }
+            if (type == short.class)   { return 'S'; }
+            if (type == byte.class)    { return 'B'; }
+            if (type == char.class)    { return 'C'; }
+            if (type == boolean.class) { return 'Z'; }
+            return 'L';
+        }
+        private void ensureCapacity() {
+            if (size == Array.getLength(elements)) {
+                Object larger = Array.newInstance(componentType, size * 2);
+                System.arraycopy(elements, 0, larger, 0, size);
+                elements = larger;
+            }
+        }
+        /** Converts the specified value with the primitive converter for the component type and adds it without boxing. */
+        void addConverted(ITypeConverter<?> converter, String value) throws Exception {
+            ensureCapacity();
+            switch (kind) {
+                case 'I': ((int[])     elements)[size] = ((IIntConverter) converter).convertInt(value);         break;
+                case 'J': ((long[])    elements)[size] = ((ILongConverter) converter).convertLong(value);       break;
+                case 'D': ((double[])  elements)[size] = ((IDoubleConverter) converter).convertDouble(value);   break;
+                case 'Z': ((boolean[]) elements)[size] = ((IBooleanConverter) converter).convertBoolean(value); break;
+                default: throw new IllegalStateException("No primitive converter for " + componentType);
+            }
+            size++;
+        }
+        /** Returns the value that was added last. */
+        Object last() { return Array.get(elements, size - 1); }
+        public boolean add(Object value) {
+            ensureCapacity();
+            switch (kind) {
+                case 'I': ((int[])     elements)[size] = (Integer) value;   break;
+                case 'J': ((long[])    elements)[size] = (Long) value;      break;
+                case 'D': ((double[])  elements)[size] = (Double) value;    break;
+                case 'F': ((float[])   elements)[size] = (Float) value;     break;
+                case 'S': ((short[])   elements)[size] = (Short) value;     break;
+                case 'B': ((byte[])    elements)[size] = (Byte) value;      break;
+                case 'C': ((char[])    elements)[size] = (Character) value; break;
+                case 'Z': ((boolean[]) elements)[size] = (Boolean) value;   break;
+                default:  ((Object[])  elements)[size] = value;
+            }
+            size++;
+            return true;
+        }
+        public int size() { return size; }
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                int index;
+                public boolean hasNext() { return index < size; }
+                public Object next() {
+                    if (!hasNext()) { throw new NoSuchElementException(); }
+                    return Array.get(elements, index++);
+                }
+                public void remove() { throw new UnsupportedOperationException("remove"); }
+            };
+        }
+        /** Returns an array of the component type with exactly the values that were added. */
+        Object array() {
+            if (size == Array.getLength(elements)) { return elements; }
+            Object result = Array.newInstance(componentType, size);
+            System.arraycopy(elements, 0, result, 0, size);
+            return result;
+        }
+    }
+    /**
+     * The result of {@linkplain #parseArgs(String...) parsing} command line arguments for a command: the options and
+     * positional parameters that were matched and their values, the arguments that were not matched, whether help was
+     * requested, and the result for the subcommand, if one was matched.
+     * Obtaining a {@code ParseResult} does not modify the annotated fields or the model of the command.
+     * @since 3.0
+     */
+    public static class ParseResult {
+        private final CommandSpec commandSpec;
+        private final List<OptionSpec> matchedOptions;
+        private final List<PositionalParamSpec> matchedPositionals;
+        private final Map<ArgSpec, Object> values;
+        private final List<String> unmatched;
+        private final boolean usageHelpRequested;
+        private final boolean versionHelpRequested;
+        private final ParseResult subcommand;
+
+        private ParseResult(CommandSpec commandSpec, List<OptionSpec> matchedOptions, List<PositionalParamSpec> matchedPositionals,
+                            Map<ArgSpec, Object> values, List<String> unmatched,
+                            boolean usageHelpRequested, boolean versionHelpRequested, ParseResult subcommand) {
+            this.commandSpec = commandSpec;
+            this.matchedOptions = Collections.unmodifiableList(matchedOptions);
+            this.matchedPositionals = Collections.unmodifiableList(matchedPositionals);
+            this.values = values;
+            this.unmatched = Collections.unmodifiableList(unmatched);
+            this.usageHelpRequested = usageHelpRequested;
+            this.versionHelpRequested = versionHelpRequested;
+            this.subcommand = subcommand;
+        }
+        /** Returns the model of the command these results are for. */
+        public CommandSpec commandSpec() { return commandSpec; }
+
+        /** Returns the options that were matched, in the order they were first matched. */
+        public List<OptionSpec> matchedOptions() { return matchedOptions; }
+
+        /** Returns the positional parameters that were matched, in the order they were first matched. */
+        public List<PositionalParamSpec> matchedPositionals() { return matchedPositionals; }
+
+        /** Returns whether an option with the specified name was matched. */
+        public boolean hasMatchedOption(String name) { return matchedOption(name) != null; }
+
+        /** Returns the option with the specified name if it was matched, or {@code null}. */
+        public OptionSpec matchedOption(String name) {
+            OptionSpec option = commandSpec.optionsMap().get(name);
+            for (OptionSpec matched : matchedOptions) { if (matched == option) { return option; } }
+            return null;
+        }
+        /** Returns the value of the option with the specified name if it was matched, or the specified default value otherwise. */
+        public <T> T matchedOptionValue(String name, T defaultValue) {
+            OptionSpec option = matchedOption(name);
+            return option == null ? defaultValue : this.<T>matchedValue(option, defaultValue);
+        }
+        /** Returns the value of the specified option or positional parameter if it was matched, or the specified default value otherwise. */
+        @SuppressWarnings("unchecked")
+        public <T> T matchedValue(ArgSpec argSpec, T defaultValue) {
+            return values.containsKey(argSpec) ? (T) values.get(argSpec) : defaultValue;
+        }
+        /** Returns the arguments that were not matched; these are only returned if {@linkplain CommandLine#isUnmatchedArgumentsAllowed() allowed}. */
+        public List<String> unmatched() { return unmatched; }
+
+        /** Returns whether an option with {@link Option#usageHelp() usageHelp} was matched. */
+        public boolean isUsageHelpRequested() { return usageHelpRequested; }
+
+        /** Returns whether an option with {@link Option#versionHelp() versionHelp} was matched. */
+        public boolean isVersionHelpRequested() { return versionHelpRequested; }
+
+        /** Returns whether a subcommand was matched. */
+        public boolean hasSubcommand() { return subcommand != null; }
+
+        /** Returns the result for the subcommand that was matched, or {@code null}. */
+        public ParseResult subcommand() { return subcommand; }
+    }
+    /** Reads arguments from a character stream, one at a time, with the same syntax as argument files:
+     * arguments are separated by whitespace, may be quoted, and {@code #} starts a comment. */
+    private static final class ArgumentTokenizer implements Iterator<String> {
+        private final StreamTokenizer tokenizer;
+        private final String description;
+        private String next;
+        private boolean done;
+
+        ArgumentTokenizer(Reader reader, String description) {
+            this.tokenizer = create(reader);
+            this.description = description;
+        }
+        static StreamTokenizer create(Reader reader) {
+            StreamTokenizer tok = new StreamTokenizer(reader);
+            tok.resetSyntax();
+            tok.wordChars(' ', 255);
+            tok.whitespaceChars(0, ' ');
+            tok.commentChar('#');
+            tok.quoteChar('"');
+            tok.quoteChar('\'');
+            return tok;
+        }
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    if (tokenizer.nextToken() == StreamTokenizer.TT_EOF) { done = true; } else { next = tokenizer.sval; }
+                } catch (IOException ex) {
+                    throw new InitializationException("Could not read arguments from " + description, ex);
+                }
+            }
+            return next != null;
+        }
+        public String next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            String result = next;
+            next = null;
+            return result;
+        }
+        public void remove() { throw new UnsupportedOperationException("remove"); }
+        public String toString() { return description; }
+    }
+    /** Cursor over the command line arguments that are yet to be processed. Arguments can be pushed back in front of
+     * the cursor, and the cursor can be rewound to a mark, undoing all pops and pushes since the mark.
+     * Arguments may be supplied by an iterator: these are only buffered until they are processed. Not thread-safe. */
+    private static final class ArgCursor {
+        private static final int MAX_TRACED = 20;
+        private String[] args; // args[pos..end) are the buffered arguments
+        private int pos;
+        private int end;
+        private final Iterator<String> source; // supplies the arguments after the buffered ones, or null
+        private int consumed; // the number of arguments popped or skipped minus the number pushed
+        private String lastPopped; // the argument popped last, for error messages
+        private int lastPoppedIndex = -1; // its ordinal in the argument sequence
+        private int mark = -1;
+        private int markConsumed;
+        private int[] journalIndex = new int[0]; // slots overwritten by push since the mark...
+        private String[] journalValue = new String[0]; // ...and their original values
+        private int journalSize;
+
+        ArgCursor(String[] args) { this(args, null); }
+        ArgCursor(String[] args, Iterator<String> source) { this.args = args; this.end = args.length; this.source = source; }
+
+        boolean isEmpty() { return !hasAtLeast(1); }
+        /** Returns the number of remaining arguments; this reads all remaining arguments from the source. */
+        int size()        { while (hasAtLeast(end - pos + 1)) { } return end - pos; }
+        /** Returns the number of arguments consumed so far; pushing an argument back reduces this number. */
+        int consumed()    { return consumed; }
+        String peek()     { if (isEmpty()) { throw new EmptyStackException(); } return args[pos]; }
+        String pop() {
+            if (isEmpty()) { throw new EmptyStackException(); }
+            lastPoppedIndex = consumed++;
+            return lastPopped = args[pos++];
+        }
+        /** Returns the argument that was popped last, or {@code null} if no argument was popped. */
+        String lastPopped() { return lastPopped; }
+        /** Returns the ordinal of the argument that was popped last in the argument sequence, or {@code -1} if no argument was popped. */
+        int lastPoppedIndex() { return lastPoppedIndex; }
+        void skip(int count) {
+            hasAtLeast(count);
+            int skipped = Math.min(end - pos, count);
+            pos += skipped;
+            consumed += skipped;
+        }
+        void push(String arg) {
+            if (pos == 0) { grow(); }
+            pos--;
+            consumed--;
+            if (mark >= 0) {
+                if (journalSize == journalIndex.length) {
+                    int length = Math.max(4, journalSize * 2);
+                    journalIndex = copyOf(journalIndex, length);
+                    journalValue = copy(journalValue, length);
+                }
+                journalIndex[journalSize] = pos;
+                journalValue[journalSize++] = args[pos];
+            }
+            args[pos] = arg;
+        }
+        /** Remembers the current position; a subsequent {@link #rewind()} restores it. */
+        void mark() { mark = pos; markConsumed = consumed; journalSize = 0; }
+        /** Restores the state at the last {@link #mark()}, undoing all pops and pushes since. */
+        void rewind() {
+            while (journalSize > 0) {
+                journalSize--;
+                args[journalIndex[journalSize]] = journalValue[journalSize];
+            }
+            pos = mark;
+            consumed = markConsumed;
+            mark = -1;
+        }
+        /** Returns whether at least the specified number of arguments remain, reading from the source if necessary. */
+        boolean hasAtLeast(int count) {
+            while (end - pos < count) {
+                if (source == null || !source.hasNext()) { return false; }
+                if (end == args.length) { compact(); }
+                args[end++] = source.next();
+            }
+            return true;
+        }
+        private void compact() { // discard arguments that can no longer be rewound to, and make room at the end
+            int keep = pos;
+            if (mark >= 0) {
+                keep = Math.min(keep, mark);
+                for (int i = 0; i < journalSize; i++) { keep = Math.min(keep, journalIndex[i]); }
+            }
+            int live = end - keep;
+            String[] target = args.length > 0 && live * 2 <= args.length ? args : new String[Math.max(16, live * 2)];
+            System.arraycopy(args, keep, target, 0, live);
+            if (target == args) { Arrays.fill(args, live, end, null); }
+            args = target;
+            shift(-keep);
+        }
+        private void grow() { // make room in front for pushed arguments
+            int extra = Math.max(4, end / 2);
+            String[] grown = new String[Math.max(args.length, end) + extra];
+            System.arraycopy(args, 0, grown, extra, end);
+            args = grown;
+            shift(extra);
+        }
+        private void shift(int offset) {
+            pos += offset;
+            end += offset;
+            if (mark >= 0) { mark += offset; }
+            for (int i = 0; i < journalSize; i++) { journalIndex[i] += offset; }
+        }
+        /** Returns all remaining arguments; this reads all remaining arguments from the source. */
+        List<String> remainder() { size(); return Arrays.asList(args).subList(pos, end); }
+
+        /** Returns the remaining arguments, abbreviated if there are many, for tracing. Does not read from the source. */
+        public String toString() {
+            int buffered = end - pos;
+            if (source == null && buffered <= MAX_TRACED) { return Arrays.asList(args).subList(pos, end).toString(); }
+            String head = Arrays.asList(args).subList(pos, pos + Math.min(buffered, MAX_TRACED)).toString();
+            String more = source == null ? (buffered - MAX_TRACED) + " more" : "not yet read";
+            return head.substring(0, head.length() - 1) + (buffered == 0 ? "" : ", ") + "... (" + more + ")]";
+        }
+        private static int[] copyOf(int[] original, int length) {
+            int[] result = new int[length];
+            System.arraycopy(original, 0, result, 0, Math.min(original.length, length));
+            return result;
+        }
+        private static String[] copy(String[] original, int length) {
+            String[] result = new String[length];
+            System.arraycopy(original, 0, result, 0, Math.min(original.length, length));
+            return result;
+        }
+    }
+    /** Immutable hash table from option names to option specs, built once per command. Names can be looked up by a
+     * prefix of an argument, like the {@code --name} in {@code --name=value}, without creating a substring. */
+    static final class OptionNameIndex {
+        private final String[] names;
+        private final OptionSpec[] options;
+        private final int mask;
+        private final int size;
+        private final PrefixNode prefixes;
+        private final OptionSpec[] asciiPosixOptions = new OptionSpec[128];
+        private final Map<Character, OptionSpec> otherPosixOptions = new HashMap<Character, OptionSpec>();
+        private volatile SuggestionNode suggestions; // built on first use: only needed for error reporting
+
+        OptionNameIndex(Map<String, OptionSpec> optionsByName) {
+            size = optionsByName.size();
+            String[] sorted = optionsByName.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            prefixes = new PrefixNode(sorted, 0, sorted.length, 0);
+            int capacity = 4;
+            while (capacity < optionsByName.size() * 2) { capacity <<= 1; }
+            names = new String[capacity];
+            options = new OptionSpec[capacity];
+            mask = capacity - 1;
+            for (Map.Entry<String, OptionSpec> entry : optionsByName.entrySet()) {
+                int i = entry.getKey().hashCode() & mask;
+                while (names[i] != null) { i = (i + 1) & mask; }
+                names[i] = entry.getKey();
+                options[i] = entry.getValue();
+                String name = entry.getKey();
+                if (name.length() == 2 && name.charAt(0) == '-') {
+                    char c = name.charAt(1);
+                    if (c < asciiPosixOptions.length) { asciiPosixOptions[c] = entry.getValue(); } else { otherPosixOptions.put(c, entry.getValue()); }
+                }
+            }
+        }
+        /** Returns the option with the specified single-character name (the name without the leading '-'), or {@code null}. */
+        OptionSpec posix(char c) {
+            return c < asciiPosixOptions.length ? asciiPosixOptions[c] : otherPosixOptions.get(c);
+        }
+        /** Returns the option with the specified name, or {@code null}. */
+        OptionSpec get(String name) {
+            int slot = slot(name, name.hashCode(), name.length());
+            return slot < 0 ? null : options[slot];
+        }
+        /** Returns the name of the option whose name equals the first {@code length} characters of {@code arg},
+         * or {@code null} if there is no such option. */
+        String name(String arg, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) { hash = 31 * hash + arg.charAt(i); } // same as String.hashCode()
+            int slot = slot(arg, hash, length);
+            return slot < 0 ? null : names[slot];
+        }
+        private int slot(String arg, int hash, int length) {
+            for (int i = hash & mask; names[i] != null; i = (i + 1) & mask) {
+                String name = names[i];
+                if (name.length() == length && arg.regionMatches(0, name, 0, length)) { return i; }
+            }
+            return -1;
+        }
+        /** Returns the number of option names. */
+        int size() { return size; }
+
+        /** Returns the sum of the lengths of the common prefixes of the specified argument and each option name. */
+        int prefixMatches(String arg) {
+            int result = 0;
+            PrefixNode node = prefixes;
+            for (int i = 0; i < arg.length(); i++) {
+                int child = Arrays.binarySearch(node.keys, arg.charAt(i));
+                if (child < 0) { break; }
+                node = node.children[child];
+                result += node.count;
+            }
+            return result;
+        }
+        /** Returns the option names within the specified edit distance of the specified text, closest first. */
+        List<String> suggest(String text, int maxDistance) {
+            SuggestionNode root = suggestions;
+            if (root == null) { suggestions = root = SuggestionNode.build(names); }
+            List<String> result = new ArrayList<String>();
+            if (root == null) { return result; }
+            final Map<String, Integer> distances = new HashMap<String, Integer>();
+            root.collect(text, maxDistance, distances);
+            result.addAll(distances.keySet());
+            Collections.sort(result, new Comparator<String>() {
+                public int compare(String o1, String o2) {
+                    int result = distances.get(o1).compareTo(distances.get(o2));
+                    return result == 0 ? o1.compareTo(o2) : result;
+                }
+            });
+            return result;
+        }
+
+        /** Node of a trie over the option names; {@code count} is the number of names starting with the path to the node. */
+        private static final class PrefixNode {
+            final int count;
+            final char[] keys;
+            final PrefixNode[] children;
+
+            PrefixNode(String[] sorted, int from, int to, int depth) {
+                count = to - from;
+                while (from < to && sorted[from].length() == depth) { from++; } // sorted: names ending here come first
+                int distinct = 0;
+                for (int i = from; i < to; i++) {
+                    if (i == from || sorted[i].charAt(depth) != sorted[i - 1].charAt(depth)) { distinct++; }
+                }
+                keys = new char[distinct];
+                children = new PrefixNode[distinct];
+                for (int i = from, k = 0; i < to; k++) {
+                    char c = sorted[i].charAt(depth);
+                    int end = i + 1;
+                    while (end < to && sorted[end].charAt(depth) == c) { end++; }
+                    keys[k] = c;
+                    children[k] = new PrefixNode(sorted, i, end, depth + 1);
+                    i = end;
+                }
+            }
+        }
+        /** Node of a BK-tree over the option names, keyed by Levenshtein distance to the parent. */
+        private static final class SuggestionNode {
+            final String name;
+            final Map<Integer, SuggestionNode> children = new TreeMap<Integer, SuggestionNode>();
+
+            SuggestionNode(String name) { this.name = name; }
+
+            static SuggestionNode build(String[] names) {
+                SuggestionNode root = null;
+                for (String name : names) {
+                    if (name == null) { continue; }
+                    if (root == null) { root = new SuggestionNode(name); } else { root.add(name); }
+                }
+                return root;
+            }
+            void add(String word) {
+                SuggestionNode node = this;
+                while (true) {
+                    Integer distance = distance(word, node.name);
+                    SuggestionNode child = node.children.get(distance);
+                    if (child == null) { node.children.put(distance, new SuggestionNode(word)); return; }
+                    node = child;
+                }
+            }
+            void collect(String text, int maxDistance, Map<String, Integer> result) {
+                int distance = distance(text, name);
+                if (distance <= maxDistance) { result.put(name, distance); }
+                for (Map.Entry<Integer, SuggestionNode> entry : children.entrySet()) {
+                    int key = entry.getKey();
+                    if (key > distance + maxDistance) { break; }
+                    if (key >= distance - maxDistance) { entry.getValue().collect(text, maxDistance, result); }
+                }
+            }
+            static int distance(String a, String b) {
+                int[] previous = new int[b.length() + 1];
+                int[] current = new int[b.length() + 1];
+                for (int j = 0; j <= b.length(); j++) { previous[j] = j; }
+                for (int i = 1; i <= a.length(); i++) {
+                    current[0] = i;
+                    for (int j = 1; j <= b.length(); j++) {
+                        int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                        current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                    }
+                    int[] swap = previous; previous = current; current = swap;
+                }
+                return previous[b.length()];
+            }
+        }
+    }
+    /** Splits option and positional parameter values the way {@link String#split(String)} does, with a regular expression
+     * that is compiled only once. Literal single-character separators are found with {@code indexOf} instead, so that
+     * the parts can be passed to a converter without splitting the value into an array first. */
+    static final class Splitter {
+        static final Splitter NONE = new Splitter(null, (char) 0);
+        static final Splitter EQUALS = new Splitter(null, '=');
+        private final Pattern pattern;  // null if the separator is a single literal character or if values are not split
+        private final char separator;   // the literal separator, or 0 if values are not split or split with the pattern
+
+        private Splitter(Pattern pattern, char separator) {
+            this.pattern = pattern;
+            this.separator = separator;
+        }
+        static Splitter compile(String regex) {
+            if (regex == null || regex.length() == 0) { return NONE; }
+            if (regex.length() == 1 && ".$|()[{^?*+\\".indexOf(regex.charAt(0)) < 0) {
+                return new Splitter(null, regex.charAt(0));
+            }
+            if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1))) {
+                return new Splitter(null, regex.charAt(1)); // escaped metacharacter like "\\|"
+            }
+            return new Splitter(Pattern.compile(regex), (char) 0);
+        }
+        /** Returns whether the separator is a literal character (or values are not split), so that values can be scanned
+         * with {@link #indexOf(String, int)} and {@link #trimmedLength(String)}. */
+        boolean isLiteral() { return pattern == null; }
+
+        /** Returns the index of the next separator in the specified value at or after the specified index, or -1. */
+        int indexOf(String value, int from) { return this == NONE ? -1 : value.indexOf(separator, from); }
+
+        /** Returns the length of the specified value without trailing separators; {@code String.split} drops the empty
+         * strings these would produce. */
+        int trimmedLength(String value) {
+            int result = value.length();
+            while (this != NONE && result > 0 && value.charAt(result - 1) == separator) { result--; }
+            return result;
+        }
+        /** Returns the same result as {@code value.split(regex)}. */
+        String[] split(String value) {
+            if (pattern != null) { return pattern.split(value); }
+            int end = indexOf(value, 0);
+            if (end < 0) { return new String[] {value}; }
+            int limit = trimmedLength(value);
+            int count = 0;
+            for (int i = 0; i < limit; i++) { if (value.charAt(i) == separator) { count++; } }
+            String[] result = new String[limit == 0 ? 0 : count + 1];
+            for (int i = 0, start = 0; i < result.length; i++, start = end + 1, end = indexOf(value, start)) {
+                result[i] = value.substring(start, end < 0 || end > limit ? limit : end);
+            }
+            return result;
+        }
+    }
+    /** What the parser needs to know about a command that can be derived once from its model: how to bind values to each
+     * option and positional parameter, the converters to use, and which positional parameters apply at each position.
+     * Immutable, so it can be shared by threads; a new plan is compiled when the model or the registered converters change. */
+    static final class ParsePlan {
+        private static final int MAX_POSITION_TABLE_SIZE = 256;
+        private static final Binding[] NO_BINDINGS = new Binding[0];
+        static final int ENUM_CASE_INSENSITIVE = 1, ENUM_ABBREVIATED = 2;
+        enum Kind { SINGLE, ARRAY, COLLECTION, MAP }
+
+        /** How values are bound to one option or positional parameter. */
+        static final class Binding {
+            final ArgSpec argSpec;
+            final Kind kind;
+            final Class<?>[] types; // the element type(s) to convert values to
+            final ITypeConverter<?>[] converters; // for each element type, null if there is no converter for that type
+            final Range attachedArity; // the arity when the option parameter is attached like --option=value
+            final char primitive; // 'I', 'J', 'D' or 'Z' if values can be converted to the primitive element type without boxing, 0 otherwise
+            final Splitter splitter; // the compiled split regex
+            final boolean pure; // whether all converters are pure, so that values may be cached
+            private final Class<?> type;
+            private final Range arity;
+            private final ITypeConverter<?>[] customConverters;
+            private final String splitRegex;
+
+            Binding(ArgSpec argSpec, ConverterResolver resolver, int enumMatching) {
+                this.argSpec = argSpec;
+                type = argSpec.type();
+                arity = argSpec.arity();
+                types = argSpec.auxiliaryTypes();
+                customConverters = argSpec.converters();
+                splitRegex = argSpec.splitRegex();
+                splitter = Splitter.compile(splitRegex);
+                kind = type.isArray() ? Kind.ARRAY
+                        : Collection.class.isAssignableFrom(type) ? Kind.COLLECTION
+                        : Map.class.isAssignableFrom(type) ? Kind.MAP
+                        : Kind.SINGLE;
+                converters = new ITypeConverter<?>[types.length];
+                for (int i = 0; i < types.length; i++) { converters[i] = converter(types[i], i, resolver, enumMatching); }
+                if (kind == Kind.SINGLE && isLazy(type) && types.length > 0 && converters[0] != null) {
+                    converters[0] = new LazyConverter(types[0], converters[0], argSpec);
+                }
+                attachedArity = arity.min(Math.max(1, arity.min));
+                Class<?> elementType = kind == Kind.ARRAY ? type.getComponentType() : kind == Kind.SINGLE ? type : null;
+                primitive = types.length > 0 && types[0] == elementType ? primitive(elementType, converters[0]) : 0;
+                boolean allPure = true;
+                for (ITypeConverter<?> converter : converters) { allPure &= converter instanceof IPureConverter; }
+                pure = allPure;
+            }
+            private static char primitive(Class<?> cls, ITypeConverter<?> converter) {
+                if (cls == int.class     && converter instanceof IIntConverter)     { return 'I'; }
+                if (cls == long.class    && converter instanceof ILongConverter)    { return 'J'; }
+                if (cls == double.class  && converter instanceof IDoubleConverter)  { return 'D'; }
+                if (cls == boolean.class && converter instanceof IBooleanConverter) { return 'Z'; }
+                return 0;
+            }
+            private ITypeConverter<?> converter(Class<?> cls, int index, ConverterResolver resolver, int enumMatching) {
+                if (customConverters.length > index) { return customConverters[index]; }
+                ITypeConverter<?> result = resolver.resolve(cls);
+                if (result == null && cls.isEnum()) { return new EnumConverter(EnumTable.of(cls), enumMatching); }
+                return result;
+            }
+            /** Returns whether the attributes this binding was derived from are unchanged. */
+            boolean isCurrent() {
+                return argSpec.type() == type && argSpec.arity() == arity && argSpec.auxiliaryTypes() == types
+                        && argSpec.converters() == customConverters && argSpec.splitRegex() == splitRegex;
+            }
+        }
+
+        /** Finds the converter for a type in the registered and built-in converters. Registered converters also apply to
+         * the subtypes of the type they are registered for, so the supertypes of a type without a converter of its own are
+         * searched nearest first: the superclass and the directly implemented interfaces, then their supertypes, and so on.
+         * {@code Object} is not searched. Resolved converters are cached, and a new resolver is created when a converter is registered. */
+        static final class ConverterResolver {
+            private static final Object NONE = new Object(); // caches a miss
+            final Map<Class<?>, ITypeConverter<?>> registry;
+            private final ConcurrentMap<Class<?>, Object> resolved = new ConcurrentHashMap<Class<?>, Object>();
+
+            ConverterResolver(Map<Class<?>, ITypeConverter<?>> registry) { this.registry = registry; }
+
+            /** Returns the converter for the specified type, or {@code null} if there is none (enums are handled by the caller). */
+            ITypeConverter<?> resolve(Class<?> cls) {
+                Object result = resolved.get(cls);
+                if (result == null) {
+                    ITypeConverter<?> converter = registry.get(cls);
+                    if (converter == null) { converter = BuiltIn.converters().get(cls); }
+                    if (converter == null) { converter = supertypeConverter(cls); }
+                    result = converter == null ? NONE : converter;
+                    resolved.put(cls, result);
+                }
+                return result == NONE ? null : (ITypeConverter<?>) result;
+            }
+            private ITypeConverter<?> supertypeConverter(Class<?> cls) {
+                if (registry.isEmpty()) { return null; }
+                List<Class<?>> supertypes = new ArrayList<Class<?>>();
+                addSupertypes(cls, supertypes);
+                for (int i = 0; i < supertypes.size(); i++) { // breadth-first: nearest supertypes first
+                    ITypeConverter<?> result = registry.get(supertypes.get(i));
+                    if (result != null) { return result; }
+                    addSupertypes(supertypes.get(i), supertypes);
+                }
+                return null;
+            }
+            private static void addSupertypes(Class<?> cls, List<Class<?>> supertypes) {
+                Class<?> superclass = cls.getSuperclass();
+                if (superclass != null && superclass != Object.class && !supertypes.contains(superclass)) { supertypes.add(superclass); }
+                for (Class<?> type : cls.getInterfaces()) {
+                    if (!supertypes.contains(type)) { supertypes.add(type); }
+                }
+            }
+        }
+
+        /** Defers the conversion of a value to the first time the resulting {@link Lazy} is used. */
+        private static final class LazyConverter implements ITypeConverter<Lazy<Object>> {
+            private final Class<?> type;
+            private final ITypeConverter<Object> converter;
+            private final String description;
+            @SuppressWarnings("unchecked")
+            LazyConverter(Class<?> type, ITypeConverter<?> converter, ArgSpec argSpec) {
+                this.type = type;
+                this.converter = (ITypeConverter<Object>) converter;
+                description = argSpec.isOption()
+                        ? "option '" + ((OptionSpec) argSpec).names()[0] + "'"
+                        : "positional parameter at index " + ((PositionalParamSpec) argSpec).index() + " (" + argSpec.paramLabel() + ")";
+            }
+            public Lazy<Object> convert(String value) { return new Lazy<Object>(value, type, converter, description); }
+        }
+
+        /** Converts values to the constants of an enum class, optionally ignoring case and accepting unique prefixes. */
+        private static final class EnumConverter implements ITypeConverter<Object>, IPureConverter {
+            private final EnumTable table;
+            private final int matching;
+            EnumConverter(EnumTable table, int matching) { this.table = table; this.matching = matching; }
+            public Object convert(String value) throws Exception {
+                Object result = table.byName.get(value);
+                if (result != null) { return result; }
+                boolean ignoreCase = (matching & ENUM_CASE_INSENSITIVE) != 0;
+                String key = ignoreCase ? value.toUpperCase(ENGLISH) : value;
+                if (ignoreCase) {
+                    result = table.byUpperCaseName.get(key);
+                    if (result == EnumTable.AMBIGUOUS) { throw ambiguous(value, table.matches(key, true, false)); }
+                    if (result != null) { return result; }
+                }
+                if ((matching & ENUM_ABBREVIATED) != 0 && value.length() > 0) {
+                    List<Object> matches = table.matches(key, ignoreCase, true);
+                    if (matches.size() == 1) { return matches.get(0); }
+                    if (matches.size() > 1) { throw ambiguous(value, matches); }
+                }
+                throw new TypeConversionException("'" + value + "' is not a valid " + table.cls.getSimpleName() + ", expected one of " + table.constantNames);
+            }
+            private TypeConversionException ambiguous(String value, List<Object> matches) {
+                StringBuilder names = new StringBuilder();
+                for (int i = 0; i < matches.size(); i++) {
+                    names.append(i == 0 ? "" : i == matches.size() - 1 ? " or " : ", ").append(((Enum<?>) matches.get(i)).name());
+                }
+                return new TypeConversionException("'" + value + "' is ambiguous: it could be " + names);
+            }
+        }
+
+        /** Lookup tables for the constants of an enum class, shared by all converters for that class. */
+        static final class EnumTable {
+            private static final Map<Class<?>, SoftReference<EnumTable>> TABLES =
+                    Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<EnumTable>>());
+            static final Object AMBIGUOUS = new Object(); // several constants have the same name when case is ignored
+
+            private final Class<?> cls;
+            private final String constantNames;          // constant names in declaration order, for error messages
+            final Map<String, Object> byName = new HashMap<String, Object>();
+            final Map<String, Object> byUpperCaseName = new HashMap<String, Object>();
+            private final String[] sortedNames;          // constant names in natural order
+            private final Object[] constantsBySortedName;
+            private final String[] sortedUpperCaseNames; // upper case constant names in natural order
+            private final Object[] constantsBySortedUpperCaseName;
+
+            /** Returns the table for the specified enum class, creating it if it is not cached. */
+            static EnumTable of(Class<?> cls) {
+                SoftReference<EnumTable> ref = TABLES.get(cls);
+                EnumTable result = ref == null ? null : ref.get();
+                if (result == null) {
+                    result = new EnumTable(cls);
+                    TABLES.put(cls, new SoftReference<EnumTable>(result));
+                }
+                return result;
+            }
+            private EnumTable(Class<?> cls) {
+                this.cls = cls;
+                Object[] constants = cls.getEnumConstants();
+                for (Object constant : constants) {
+                    String name = name(constant, false);
+                    String upperCase = name(constant, true);
+                    byName.put(name, constant);
+                    byUpperCaseName.put(upperCase, byUpperCaseName.containsKey(upperCase) ? AMBIGUOUS : constant);
+                }
+                constantNames = Arrays.toString(names(constants, false));
+                constantsBySortedName = sort(constants, false);
+                sortedNames = names(constantsBySortedName, false);
+                constantsBySortedUpperCaseName = sort(constants, true);
+                sortedUpperCaseNames = names(constantsBySortedUpperCaseName, true);
+            }
+            private static String name(Object constant, boolean upperCase) {
+                String name = ((Enum<?>) constant).name();
+                return upperCase ? name.toUpperCase(ENGLISH) : name;
+            }
+            private static Object[] sort(Object[] constants, final boolean upperCase) {
+                Object[] result = constants.clone();
+                Arrays.sort(result, new Comparator<Object>() { // stable: constants with the same upper case name stay in declaration order
+                    public int compare(Object o1, Object o2) { return name(o1, upperCase).compareTo(name(o2, upperCase)); }
+                });
+                return result;
+            }
+            private static String[] names(Object[] constants, boolean upperCase) {
+                String[] result = new String[constants.length];
+                for (int i = 0; i < result.length; i++) { result[i] = name(constants[i], upperCase); }
+                return result;
+            }
+            /** Returns the constants whose (upper case) name equals the specified key, or starts with it if {@code prefix} is {@code true}. */
+            List<Object> matches(String key, boolean upperCase, boolean prefix) {
+                String[] names = upperCase ? sortedUpperCaseNames : sortedNames;
+                Object[] constants = upperCase ? constantsBySortedUpperCaseName : constantsBySortedName;
+                int i = Arrays.binarySearch(names, key);
+                if (i < 0) { i = -i - 1; }
+                while (i > 0 && names[i - 1].equals(key)) { i--; } // upper case names may not be unique
+                List<Object> result = new ArrayList<Object>();
+                for (; i < names.length && (prefix ? names[i].startsWith(key) : names[i].equals(key)); i++) {
+                    result.add(constants[i]);
+                }
+                return result;
+            }
+        }
+
+        private final ConverterResolver converters;
+        private final int enumMatching;
+        private final Map<ArgSpec, Binding> bindings = new IdentityHashMap<ArgSpec, Binding>();
+        private final List<OptionSpec> options;
+        private final List<PositionalParamSpec> positionals;
+        private final Range[] indexes;
+        private final Binding[][] positionalsAt; // the positional parameters at each position below positionalsAt.length
+        private final Binding[] positionalsAfter; // the positional parameters at positions from tailStart
+        private final int tailStart;
+
+        ParsePlan(CommandSpec spec, ConverterResolver converters, int enumMatching) {
+            this.converters = converters;
+            this.enumMatching = enumMatching;
+            options = new ArrayList<OptionSpec>(spec.options());
+            positionals = new ArrayList<PositionalParamSpec>(spec.positionalParameters());
+            for (OptionSpec option : options) { bindings.put(option, new Binding(option, converters, enumMatching)); }
+            indexes = new Range[positionals.size()];
+            int start = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                PositionalParamSpec positional = positionals.get(i);
+                bindings.put(positional, new Binding(positional, converters, enumMatching));
+                indexes[i] = positional.index();
+                start = Math.max(start, indexes[i].max == Integer.MAX_VALUE ? indexes[i].min : indexes[i].max + 1);
+            }
+            tailStart = start;
+            positionalsAt = new Binding[Math.min(tailStart, MAX_POSITION_TABLE_SIZE)][];
+            for (int position = 0; position < positionalsAt.length; position++) { positionalsAt[position] = scan(position); }
+            positionalsAfter = scan(tailStart);
+        }
+        private Binding[] scan(int position) {
+            List<Binding> result = new ArrayList<Binding>();
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i].contains(position)) { result.add(bindings.get(positionals.get(i))); }
+            }
+            return result.isEmpty() ? NO_BINDINGS : result.toArray(new Binding[result.size()]);
+        }
+        /** Returns the binding for the specified option or positional parameter of the command. */
+        Binding binding(ArgSpec argSpec) { return bindings.get(argSpec); }
+
+        /** Returns the bindings of the positional parameters whose index range contains the specified position, in declaration order. */
+        Binding[] positionals(int position) {
+            if (position < positionalsAt.length) { return positionalsAt[position]; }
+            return position >= tailStart ? positionalsAfter : scan(position);
+        }
+        /** Returns whether this plan still matches the specified command, converters and enum matching flags. */
+        boolean isCurrent(CommandSpec spec, ConverterResolver converters, int enumMatching) {
+            if (converters != this.converters || enumMatching != this.enumMatching || !sameElements(options, spec.options()) || !sameElements(positionals, spec.positionalParameters())) {
+                return false;
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                if (positionals.get(i).index() != indexes[i]) { return false; }
+            }
+            for (Binding binding : bindings.values()) {
+                if (!binding.isCurrent()) { return false; }
+            }
+            return true;
+        }
+        private static boolean sameElements(List<?> list1, List<?> list2) {
+            if (list1.size() != list2.size()) { return false; }
+            for (int i = 0; i < list1.size(); i++) {
+                if (list1.get(i) != list2.get(i)) { return false; }
+            }
+            return true;
+        }
+    }
+    /** The values that a successful parse of one command converted, in the order they were applied, so that a parse of
+     * the same arguments can be {@linkplain CommandLine#setParseResultCacheSize(int) replayed} without converting them again. */
+    private static final class ParseReplay {
+        /** A value that was set on, or added to, an option or positional parameter. */
+        static final class Op {
+            final ParsePlan.Binding binding;
+            final Object key;     // the map key, if the option or positional parameter is a map
+            final Object value;
+            final boolean toggle; // a boolean flag that was set to the opposite of its current value
+            Op(ParsePlan.Binding binding, Object key, Object value, boolean toggle) {
+                this.binding = binding;
+                this.key = key;
+                this.value = value;
+                this.toggle = toggle;
+            }
+        }
+        /** An option that was matched, or an unmatched argument if {@code option} is {@code null}, to notify the parse listener of. */
+        static final class Match {
+            final OptionSpec option;
+            final String arg;
+            Match(OptionSpec option, String arg) { this.option = option; this.arg = arg; }
+        }
+        final CommandLine commandLine;
+        final List<Op> ops = new ArrayList<Op>();
+        final List<Match> matches = new ArrayList<Match>();
+        ParsePlan plan;
+        boolean overwrittenOptionsAllowed;
+        boolean unmatchedArgumentsAllowed;
+        boolean stopParsingAtHelp;
+        String separator;
+        int subcommandsModCount;
+        boolean cacheable = true;
+        boolean usageHelpRequested;
+        boolean versionHelpRequested;
+        List<String> unmatched;
+        ParseReplay subcommand;
+        String subcommandName;
+
+        ParseReplay(CommandLine commandLine) { this.commandLine = commandLine; }
+
+        void record(ParsePlan.Binding binding, Object key, Object value, boolean toggle) {
+            if (!binding.pure) { cacheable = false; }
+            if (cacheable) { ops.add(new Op(binding, key, value, toggle)); }
+        }
+        void matched(OptionSpec option, String arg) { matches.add(new Match(option, arg)); }
+        ParseReplay subcommand(CommandLine subcommandLine, String name) {
+            subcommandName = name;
+            return subcommand = new ParseReplay(subcommandLine);
+        }
+
+        /** Returns whether all values in this replay and the replay of the subcommand can be cached. */
+        boolean isCacheable() { return cacheable && (subcommand == null || subcommand.isCacheable()); }
+
+        /** Returns whether the models, converters and settings of the commands are unchanged since this replay was recorded. */
+        boolean isCurrent() {
+            return commandLine.parsePlan() == plan
+                    && commandLine.overwrittenOptionsAllowed == overwrittenOptionsAllowed
+                    && commandLine.unmatchedArgumentsAllowed == unmatchedArgumentsAllowed
+                    && commandLine.stopParsingAtHelp == stopParsingAtHelp
+                    && Assert.equals(commandLine.commandSpec.separator(), separator)
+                    && commandLine.commandSpec.subcommandsModCount == subcommandsModCount
+                    && (subcommand == null || subcommand.isCurrent());
+        }
+    }
     private static class PositionalParametersSorter implements Comparator<ArgSpec> {
         private static final Range OPTION_INDEX = new Range(0, 0, false, true, "0");
         public int compare(ArgSpec p1, ArgSpec p2) {
@@ -3948,22 +6450,23 @@ public class CommandLine {
      * Inner class to group the built-in {@link ITypeConverter} implementations.
      */
     private static class BuiltIn {
-        static class StringConverter implements ITypeConverter<String> {
+        static class StringConverter implements ITypeConverter<String>, IPureConverter {
             public String convert(String value) { return value; }
         }
         static class StringBuilderConverter implements ITypeConverter<StringBuilder> {
             public StringBuilder convert(String value) { return new StringBuilder(value); }
         }
-        static class CharSequenceConverter implements ITypeConverter<CharSequence> {
+        static class CharSequenceConverter implements ITypeConverter<CharSequence>, IPureConverter {
             public String convert(String value) { return value; }
         }
         /** Converts text to a {@code Byte} by delegating to {@link Byte#valueOf(String)}.*/
-        static class ByteConverter implements ITypeConverter<Byte> {
+        static class ByteConverter implements ITypeConverter<Byte>, IPureConverter {
             public Byte convert(String value) { return Byte.valueOf(value); }
         }
         /** Converts {@code "true"} or {@code "false"} to a {@code Boolean}. Other values result in a ParameterException.*/
-        static class BooleanConverter implements ITypeConverter<Boolean> {
-            public Boolean convert(String value) {
+        static class BooleanConverter implements IBooleanConverter, IPureConverter {
+            public Boolean convert(String value) { return convertBoolean(value); }
+            public boolean convertBoolean(String value) {
                 if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
                     return Boolean.parseBoolean(value);
                 } else {
@@ -3971,7 +6474,7 @@ public class CommandLine {
                 }
             }
         }
-        static class CharacterConverter implements ITypeConverter<Character> {
+        static class CharacterConverter implements ITypeConverter<Character>, IPureConverter {
             public Character convert(String value) {
                 if (value.length() > 1) {
                     throw new TypeConversionException("'" + value + "' is not a single character");
@@ -3980,37 +6483,53 @@ public class CommandLine {
             }
         }
         /** Converts text to a {@code Short} by delegating to {@link Short#valueOf(String)}.*/
-        static class ShortConverter implements ITypeConverter<Short> {
+        static class ShortConverter implements ITypeConverter<Short>, IPureConverter {
             public Short convert(String value) { return Short.valueOf(value); }
         }
         /** Converts text to an {@code Integer} by delegating to {@link Integer#valueOf(String)}.*/
-        static class IntegerConverter implements ITypeConverter<Integer> {
+        static class IntegerConverter implements IIntConverter, IPureConverter {
             public Integer convert(String value) { return Integer.valueOf(value); }
+            public int convertInt(String value) { return Integer.parseInt(value); }
         }
         /** Converts text to a {@code Long} by delegating to {@link Long#valueOf(String)}.*/
-        static class LongConverter implements ITypeConverter<Long> {
+        static class LongConverter implements ILongConverter, IPureConverter {
             public Long convert(String value) { return Long.valueOf(value); }
+            public long convertLong(String value) { return Long.parseLong(value); }
         }
-        static class FloatConverter implements ITypeConverter<Float> {
+        static class FloatConverter implements ITypeConverter<Float>, IPureConverter {
             public Float convert(String value) { return Float.valueOf(value); }
         }
-        static class DoubleConverter implements ITypeConverter<Double> {
+        static class DoubleConverter implements IDoubleConverter, IPureConverter {
             public Double convert(String value) { return Double.valueOf(value); }
+            public double convertDouble(String value) { return Double.parseDouble(value); }
         }
-        static class FileConverter implements ITypeConverter<File> {
+        static class FileConverter implements ITypeConverter<File>, IPureConverter {
             public File convert(String value) { return new File(value); }
         }
-        static class URLConverter implements ITypeConverter<URL> {
+        static class URLConverter implements ITypeConverter<URL>, IPureConverter {
             public URL convert(String value) throws MalformedURLException { return new URL(value); }
         }
-        static class URIConverter implements ITypeConverter<URI> {
+        static class URIConverter implements ITypeConverter<URI>, IPureConverter {
             public URI convert(String value) throws URISyntaxException { return new URI(value); }
         }
+        /** A {@code SimpleDateFormat} for each thread: formats are not thread-safe, and creating one for every value
+         * is expensive. The format is set to the current default time zone before each use, like a new format would be. */
+        static final class ThreadLocalDateFormat extends ThreadLocal<SimpleDateFormat> {
+            private final String pattern;
+            ThreadLocalDateFormat(String pattern) { this.pattern = pattern; }
+            protected SimpleDateFormat initialValue() { return new SimpleDateFormat(pattern); }
+            Date parse(String value) throws ParseException {
+                SimpleDateFormat format = get();
+                format.setTimeZone(TimeZone.getDefault());
+                return format.parse(value);
+            }
+        }
         /** Converts text in {@code yyyy-mm-dd} format to a {@code java.util.Date}. ParameterException on failure. */
         static class ISO8601DateConverter implements ITypeConverter<Date> {
+            private static final ThreadLocalDateFormat DATE = new ThreadLocalDateFormat("yyyy-MM-dd");
             public Date convert(String value) {
                 try {
-                    return new SimpleDateFormat("yyyy-MM-dd").parse(value);
+                    return DATE.parse(value);
                 } catch (ParseException e) {
                     throw new TypeConversionException("'" + value + "' is not a yyyy-MM-dd date");
                 }
@@ -4019,17 +6538,24 @@ public class CommandLine {
         /** Converts text in any of the following formats to a {@code java.sql.Time}: {@code HH:mm}, {@code HH:mm:ss},
          * {@code HH:mm:ss.SSS}, {@code HH:mm:ss,SSS}. Other formats result in a ParameterException. */
         static class ISO8601TimeConverter implements ITypeConverter<Time> {
+            private static final ThreadLocalDateFormat HH_MM = new ThreadLocalDateFormat("HH:mm");
+            private static final ThreadLocalDateFormat HH_MM_SS = new ThreadLocalDateFormat("HH:mm:ss");
+            private static final ThreadLocalDateFormat HH_MM_SS_DOT_SSS = new ThreadLocalDateFormat("HH:mm:ss.SSS");
+            private static final ThreadLocalDateFormat HH_MM_SS_COMMA_SSS = new ThreadLocalDateFormat("HH:mm:ss,SSS");
             public Time convert(String value) {
                 try {
                     if (value.length() <= 5) {
-                        return new Time(new SimpleDateFormat("HH:mm").parse(value).getTime());
+                        return new Time(HH_MM.parse(value).getTime());
                     } else if (value.length() <= 8) {
-                        return new Time(new SimpleDateFormat("HH:mm:ss").parse(value).getTime());
+                        return new Time(HH_MM_SS.parse(value).getTime());
                     } else if (value.length() <= 12) {
+                        if (value.indexOf('.') < 0) { // cannot match HH:mm:ss.SSS
+                            return new Time(HH_MM_SS_COMMA_SSS.parse(value).getTime());
+                        }
                         try {
-                            return new Time(new SimpleDateFormat("HH:mm:ss.SSS").parse(value).getTime());
+                            return new Time(HH_MM_SS_DOT_SSS.parse(value).getTime());
                         } catch (ParseException e2) {
-                            return new Time(new SimpleDateFormat("HH:mm:ss,SSS").parse(value).getTime());
+                            return new Time(HH_MM_SS_COMMA_SSS.parse(value).getTime());
                         }
                     }
                 } catch (ParseException ignored) {
@@ -4038,32 +6564,32 @@ public class CommandLine {
                 throw new TypeConversionException("'" + value + "' is not a HH:mm[:ss[.SSS]] time");
             }
         }
-        static class BigDecimalConverter implements ITypeConverter<BigDecimal> {
+        static class BigDecimalConverter implements ITypeConverter<BigDecimal>, IPureConverter {
             public BigDecimal convert(String value) { return new BigDecimal(value); }
         }
-        static class BigIntegerConverter implements ITypeConverter<BigInteger> {
+        static class BigIntegerConverter implements ITypeConverter<BigInteger>, IPureConverter {
             public BigInteger convert(String value) { return new BigInteger(value); }
         }
-        static class CharsetConverter implements ITypeConverter<Charset> {
+        static class CharsetConverter implements ITypeConverter<Charset>, IPureConverter {
             public Charset convert(String s) { return Charset.forName(s); }
         }
         /** Converts text to a {@code InetAddress} by delegating to {@link InetAddress#getByName(String)}. */
         static class InetAddressConverter implements ITypeConverter<InetAddress> {
             public InetAddress convert(String s) throws Exception { return InetAddress.getByName(s); }
         }
-        static class PatternConverter implements ITypeConverter<Pattern> {
+        static class PatternConverter implements ITypeConverter<Pattern>, IPureConverter {
             public Pattern convert(String s) { return Pattern.compile(s); }
         }
-        static class UUIDConverter implements ITypeConverter<UUID> {
+        static class UUIDConverter implements ITypeConverter<UUID>, IPureConverter {
             public UUID convert(String s) throws Exception { return UUID.fromString(s); }
         }
-        static class CurrencyConverter implements ITypeConverter<Currency> {
+        static class CurrencyConverter implements ITypeConverter<Currency>, IPureConverter {
             public Currency convert(String s) throws Exception { return Currency.getInstance(s); }
         }
         static class TimeZoneConverter implements ITypeConverter<TimeZone> {
             public TimeZone convert(String s) throws Exception { return TimeZone.getTimeZone(s); }
         }
-        static class ByteOrderConverter implements ITypeConverter<ByteOrder> {
+        static class ByteOrderConverter implements ITypeConverter<ByteOrder>, IPureConverter {
             public ByteOrder convert(String s) throws Exception {
                 if (s.equalsIgnoreCase(ByteOrder.BIG_ENDIAN.toString())) { return ByteOrder.BIG_ENDIAN; }
                 if (s.equalsIgnoreCase(ByteOrder.LITTLE_ENDIAN.toString())) { return ByteOrder.LITTLE_ENDIAN; }
@@ -4095,23 +6621,97 @@ public class CommandLine {
         static class TimestampConverter implements ITypeConverter<Timestamp> {
             public Timestamp convert(String s) throws Exception { return Timestamp.valueOf(s); }
         }
-        static void registerIfAvailable(Map<Class<?>, ITypeConverter<?>> registry, Tracer tracer, String fqcn, String factoryMethodName, Class<?>... paramTypes) {
-            registerIfAvailable(registry, tracer, fqcn, fqcn, factoryMethodName, paramTypes);
-        }
-        static void registerIfAvailable(Map<Class<?>, ITypeConverter<?>> registry, Tracer tracer, String fqcn, String factoryClass, String factoryMethodName, Class<?>... paramTypes) {
+        /** Returns the converters for the built-in types. They are created when first needed and shared by all interpreters. */
+        static Map<Class<?>, ITypeConverter<?>> converters() { return Registry.CONVERTERS; }
+
+        /** Traces the built-in types that are not available in this JVM, once per type. */
+        static void traceUnavailable(Tracer tracer) {
+            for (Map.Entry<String, String> entry : Registry.UNAVAILABLE.entrySet()) {
+                if (!traced.contains(entry.getKey())) {
+                    tracer.debug("Could not register converter for %s: %s%n", entry.getKey(), entry.getValue());
+                }
+                traced.add(entry.getKey());
+            }
+        }
+        private static class Registry { // initialization-on-demand holder: thread-safe, lazy and lock-free after initialization
+            static final Map<String, String> UNAVAILABLE = new LinkedHashMap<String, String>();
+            static final Map<Class<?>, ITypeConverter<?>> CONVERTERS = Collections.unmodifiableMap(create(UNAVAILABLE));
+
+            private static Map<Class<?>, ITypeConverter<?>> create(Map<String, String> unavailable) {
+                Map<Class<?>, ITypeConverter<?>> registry = new HashMap<Class<?>, ITypeConverter<?>>();
+                registry.put(Object.class,        new StringConverter());
+                registry.put(String.class,        new StringConverter());
+                registry.put(StringBuilder.class, new StringBuilderConverter());
+                registry.put(CharSequence.class,  new CharSequenceConverter());
+                registry.put(Byte.class,          new ByteConverter());
+                registry.put(Byte.TYPE,           new ByteConverter());
+                registry.put(Boolean.class,       new BooleanConverter());
+                registry.put(Boolean.TYPE,        new BooleanConverter());
+                registry.put(Character.class,     new CharacterConverter());
+                registry.put(Character.TYPE,      new CharacterConverter());
+                registry.put(Short.class,         new ShortConverter());
+                registry.put(Short.TYPE,          new ShortConverter());
+                registry.put(Integer.class,       new IntegerConverter());
+                registry.put(Integer.TYPE,        new IntegerConverter());
+                registry.put(Long.class,          new LongConverter());
+                registry.put(Long.TYPE,           new LongConverter());
+                registry.put(Float.class,         new FloatConverter());
+                registry.put(Float.TYPE,          new FloatConverter());
+                registry.put(Double.class,        new DoubleConverter());
+                registry.put(Double.TYPE,         new DoubleConverter());
+                registry.put(File.class,          new FileConverter());
+                registry.put(URI.class,           new URIConverter());
+                registry.put(URL.class,           new URLConverter());
+                registry.put(Date.class,          new ISO8601DateConverter());
+                registry.put(Time.class,          new ISO8601TimeConverter());
+                registry.put(BigDecimal.class,    new BigDecimalConverter());
+                registry.put(BigInteger.class,    new BigIntegerConverter());
+                registry.put(Charset.class,       new CharsetConverter());
+                registry.put(InetAddress.class,   new InetAddressConverter());
+                registry.put(Pattern.class,       new PatternConverter());
+                registry.put(UUID.class,          new UUIDConverter());
+                registry.put(Currency.class,      new CurrencyConverter());
+                registry.put(TimeZone.class,      new TimeZoneConverter());
+                registry.put(ByteOrder.class,     new ByteOrderConverter());
+                registry.put(Class.class,         new ClassConverter());
+                registry.put(Connection.class,    new ConnectionConverter());
+                registry.put(Driver.class,        new DriverConverter());
+                registry.put(Timestamp.class,     new TimestampConverter());
+                registry.put(NetworkInterface.class, new NetworkInterfaceConverter());
+
+                registerIfAvailable(registry, unavailable, "java.time.Duration", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.Instant", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.LocalDate", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.LocalDateTime", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.LocalTime", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.MonthDay", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.OffsetDateTime", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.OffsetTime", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.Period", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.Year", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.YearMonth", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.ZonedDateTime", "parse", CharSequence.class);
+                registerIfAvailable(registry, unavailable, "java.time.ZoneId", "of", String.class);
+                registerIfAvailable(registry, unavailable, "java.time.ZoneOffset", "of", String.class);
+
+                registerIfAvailable(registry, unavailable, "java.nio.file.Path", "java.nio.file.Paths", "get", String.class, String[].class);
+                return registry;
+            }
+        }
+        static void registerIfAvailable(Map<Class<?>, ITypeConverter<?>> registry, Map<String, String> unavailable, String fqcn, String factoryMethodName, Class<?>... paramTypes) {
+            registerIfAvailable(registry, unavailable, fqcn, fqcn, factoryMethodName, paramTypes);
+        }
+        static void registerIfAvailable(Map<Class<?>, ITypeConverter<?>> registry, Map<String, String> unavailable, String fqcn, String factoryClass, String factoryMethodName, Class<?>... paramTypes) {
             try {
                 Class<?> cls = Class.forName(fqcn);
                 Class<?> factory = Class.forName(factoryClass);
                 Method method = factory.getDeclaredMethod(factoryMethodName, paramTypes);
                 registry.put(cls, new ReflectionConverter(method, paramTypes));
             } catch (Exception e) {
-                if (!traced.contains(fqcn)) {
-                    tracer.debug("Could not register converter for %s: %s%n", fqcn, e.toString());
-                }
-                traced.add(fqcn);
+                unavailable.put(fqcn, e.toString());
             }
         }
-        static Set<String> traced = new HashSet<String>();
+        static Set<String> traced = Collections.synchronizedSet(new HashSet<String>());
         static class ReflectionConverter implements ITypeConverter<Object> {
             private final Method method;
             private Class<?>[] paramTypes;
@@ -4250,7 +6850,7 @@ public class CommandLine {
          * @param commandLine the {@code CommandLine} object to get more information from
          * @return this Help instance (for method chaining) */
         Help addSubcommand(String commandName, CommandLine commandLine) {
-            commands.put(commandName, new Help(commandLine.commandSpec));
+            commands.put(commandName, new Help(commandLine.getCommandSpec()));
             return this;
         }
 
@@ -5861,6 +8461,94 @@ public class CommandLine {
         private String prefix(String msg) { return "[picocli " + this + "] " + msg; }
         static TraceLevel lookup(String key) { return key == null ? WARN : empty(key) || "true".equalsIgnoreCase(key) ? INFO : valueOf(key); }
     }
+    /** Makes {@link CommandMetrics} available to monitoring tools. This base class does nothing; {@code picocli.JmxMetricsExporter}
+     * (loaded reflectively, because {@code javax.management} is not available on all platforms, like Android) registers
+     * the metrics with the platform MBean server.
+     * CONSIDER THIS CLASS PRIVATE. */
+    static class MetricsExporter {
+        static final MetricsExporter INSTANCE = load();
+
+        void register(CommandMetrics metrics) throws Exception {}
+        void unregister(CommandMetrics metrics) throws Exception {}
+
+        private static MetricsExporter load() {
+            try {
+                return (MetricsExporter) Class.forName("picocli.JmxMetricsExporter").newInstance();
+            } catch (Exception ex) {
+                return new MetricsExporter();
+            } catch (LinkageError er) { // javax.management is not available
+                return new MetricsExporter();
+            }
+        }
+    }
+    /** Receives the begin and end of the operations that picocli performs, to emit profiling events. This base class does
+     * nothing. On Java 8 and later, when the {@code jdk.jfr} module is available, {@code picocli.FlightRecorderProfiler}
+     * (compiled from a separate java8 source set and loaded reflectively) emits JDK Flight Recorder events instead, unless
+     * system property {@code picocli.jfr} is set to {@code "false"}.
+     * CONSIDER THIS CLASS PRIVATE. */
+    static class Profiler {
+        static final int BUILD = 0, PARSE = 1, CONVERT = 2, EXECUTE = 3, RENDER_HELP = 4;
+        static final Profiler INSTANCE = load(System.getProperty("picocli.jfr"));
+
+        /** Returns an object to pass to {@link #end(Object, String, int, String) end} when the operation is done,
+         * or {@code null} if the specified type of operation is not profiled at the moment. */
+        Object begin(int type) { return null; }
+        /** Ends the specified operation.
+         * @param event the object returned by {@link #begin(int)}; never {@code null}
+         * @param commandName the name of the command
+         * @param argCount the number of options and positional parameters for {@code BUILD}, the number of command
+         *          line arguments for {@code PARSE}, otherwise ignored
+         * @param detail the user object class for {@code BUILD}, the converter class for {@code CONVERT}, otherwise ignored */
+        void end(Object event, String commandName, int argCount, String detail) {}
+
+        /** Returns the Flight Recorder profiler if it can be loaded and the specified property value does not disable it, otherwise a profiler that does nothing. */
+        static Profiler load(String property) {
+            if ("false".equalsIgnoreCase(property)) { return new Profiler(); }
+            try {
+                return (Profiler) Class.forName("picocli.FlightRecorderProfiler").newInstance();
+            } catch (Exception ex) {
+                return new Profiler();
+            } catch (LinkageError er) { // class files for Java 8 cannot be loaded on older Java versions, or jdk.jfr is not available
+                return new Profiler();
+            }
+        }
+    }
+    /** A fixed number of {@code long} counters that are spread over several stripes, each on its own cache lines, so that
+     * threads that update the same counter concurrently rarely contend. Reading a counter sums the value of all stripes. */
+    static final class StripedCounter {
+        private static final int STRIPES = stripes();
+        private final AtomicLongArray cells;
+        private final int counters;
+        private final int width; // cells per stripe: the number of counters rounded up to a multiple of 8 longs (64 bytes)
+
+        StripedCounter(int counters) {
+            this.counters = counters;
+            width = (counters + 7) & ~7;
+            cells = new AtomicLongArray(STRIPES * width);
+        }
+        void add(int counter, long delta) {
+            int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            cells.addAndGet(stripe * width + counter, delta);
+        }
+        long sum(int counter) {
+            long result = 0;
+            for (int i = counter; i < cells.length(); i += width) { result += cells.get(i); }
+            return result;
+        }
+        long[] sums() {
+            long[] result = new long[counters];
+            for (int i = 0; i < counters; i++) { result[i] = sum(i); }
+            return result;
+        }
+        void reset() {
+            for (int i = 0; i < cells.length(); i++) { cells.set(i, 0); }
+        }
+        private static int stripes() { // a power of two
+            int result = 1;
+            while (result < Runtime.getRuntime().availableProcessors() && result < 64) { result <<= 1; }
+            return result;
+        }
+    }
     private static class Tracer {
         TraceLevel level = TraceLevel.lookup(System.getProperty("picocli.trace"));
         PrintStream stream = System.err;
@@ -5909,10 +8597,13 @@ public class CommandLine {
         private static final long serialVersionUID = 4251973913816346114L;
         public TypeConversionException(String msg) { super(msg); }
     }
-    /** Exception indicating something went wrong while parsing command line options. */
+    /** Exception indicating something went wrong while parsing command line options.
+     * The stack trace is not filled in if the command line has {@linkplain CommandLine#setLightweightExceptions(boolean)
+     * lightweight exceptions}. */
     public static class ParameterException extends PicocliException {
         private static final long serialVersionUID = 1477112829129763139L;
         private final CommandLine commandLine;
+        private transient boolean constructed; // the stack trace is filled in by the constructor, when the command line is known
 
         /** Constructs a new ParameterException with the specified CommandLine and error message.
          * @param commandLine the command or subcommand whose input was invalid
@@ -5921,6 +8612,8 @@ public class CommandLine {
         public ParameterException(CommandLine commandLine, String msg) {
             super(msg);
             this.commandLine = Assert.notNull(commandLine, "commandLine");
+            constructed = true;
+            if (!commandLine.isLightweightExceptions()) { fillInStackTrace(); }
         }
         /** Constructs a new ParameterException with the specified CommandLine and error message.
          * @param commandLine the command or subcommand whose input was invalid
@@ -5930,6 +8623,14 @@ public class CommandLine {
         public ParameterException(CommandLine commandLine, String msg, Exception ex) {
             super(msg, ex);
             this.commandLine = Assert.notNull(commandLine, "commandLine");
+            constructed = true;
+            if (!commandLine.isLightweightExceptions()) { fillInStackTrace(); }
+        }
+        /** Fills in the stack trace, unless this exception is being constructed for a command line with
+         * {@linkplain CommandLine#setLightweightExceptions(boolean) lightweight exceptions}.
+         * @return this exception */
+        public synchronized Throwable fillInStackTrace() {
+            return constructed ? super.fillInStackTrace() : this;
         }
 
         /** Returns the {@code CommandLine} object for the (sub)command whose input could not be parsed.
@@ -5940,7 +8641,8 @@ public class CommandLine {
 
         private static ParameterException create(CommandLine cmd, Exception ex, String arg, int i, String[] args) {
             String msg = ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage()
-                    + " while processing argument at or before arg[" + i + "] '" + arg + "' in " + Arrays.toString(args) + ": " + ex.toString();
+                    + " while processing argument at or before arg[" + i + "] '" + arg + "'"
+                    + (args.length == 0 ? "" : " in " + Arrays.toString(args)) + ": " + ex.toString();
             return new ParameterException(cmd, msg, ex);
         }
     }
@@ -5993,9 +8695,35 @@ public class CommandLine {
      * {@link Option} or {@link Parameters}. */
     public static class UnmatchedArgumentException extends ParameterException {
         private static final long serialVersionUID = -8700426380701452440L;
-        public UnmatchedArgumentException(CommandLine commandLine, String msg) { super(commandLine, msg); }
+        private static final int MAX_SUGGESTION_DISTANCE = 2;
+        private final List<String> unmatched;
+        public UnmatchedArgumentException(CommandLine commandLine, String msg) { super(commandLine, msg); unmatched = Collections.emptyList(); }
         public UnmatchedArgumentException(CommandLine commandLine, Stack<String> args) { this(commandLine, new ArrayList<String>(reverse(args))); }
-        public UnmatchedArgumentException(CommandLine commandLine, List<String> args) { this(commandLine, "Unmatched argument" + (args.size() == 1 ? " " : "s ") + args); }
+        public UnmatchedArgumentException(CommandLine commandLine, List<String> args) {
+            super(commandLine, "Unmatched argument" + (args.size() == 1 ? " " : "s ") + args);
+            unmatched = Collections.unmodifiableList(new ArrayList<String>(args));
+        }
+        /** Returns the arguments that could not be matched, or an empty list if this exception was constructed with a message only.
+         * @since 3.0 */
+        public List<String> getUnmatched() { return unmatched; }
+
+        /** Returns the names of options of the command that are similar to the unmatched arguments, most similar first.
+         * Option parameters attached with the {@linkplain CommandSpec#separator() separator} are ignored.
+         * @return option names that the user may have meant, or an empty list if there are none
+         * @since 3.0 */
+        public List<String> getSuggestions() {
+            CommandSpec spec = getCommandLine().getCommandSpec();
+            List<String> result = new ArrayList<String>();
+            for (String arg : unmatched) {
+                int separatorIndex = arg.indexOf(spec.separator());
+                String name = separatorIndex > 0 ? arg.substring(0, separatorIndex) : arg;
+                int maxDistance = Math.min(MAX_SUGGESTION_DISTANCE, Math.max(1, name.length() / 3));
+                for (String suggestion : spec.optionNameIndex().suggest(name, maxDistance)) {
+                    if (!result.contains(suggestion)) { result.add(suggestion); }
+                }
+            }
+            return result;
+        }
     }
     /** Exception indicating that more values were specified for an option or parameter than its {@link Option#arity() arity} allows. */
     public static class MaxValuesforFieldExceededException extends ParameterException {
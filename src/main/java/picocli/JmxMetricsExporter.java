@@ -0,0 +1,41 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import picocli.CommandLine.CommandMetrics;
+
+/**
+ * Registers {@link CommandMetrics} with the platform MBean server, with the {@linkplain CommandMetrics#objectName() object name}
+ * of the metrics. {@code javax.management} is not available on all platforms, like Android, so picocli only uses this
+ * class when it can be loaded.
+ * CONSIDER THIS CLASS PRIVATE.
+ */
+final class JmxMetricsExporter extends CommandLine.MetricsExporter {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    void register(CommandMetrics metrics) throws Exception {
+        server.registerMBean(metrics, new ObjectName(metrics.objectName()));
+    }
+
+    void unregister(CommandMetrics metrics) throws Exception {
+        ObjectName name = new ObjectName(metrics.objectName());
+        if (server.isRegistered(name)) { server.unregisterMBean(name); }
+    }
+}
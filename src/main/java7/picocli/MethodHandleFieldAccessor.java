@@ -0,0 +1,145 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import picocli.CommandLine.ArgSpec.IBooleanSetter;
+import picocli.CommandLine.ArgSpec.IDoubleSetter;
+import picocli.CommandLine.ArgSpec.IGetter;
+import picocli.CommandLine.ArgSpec.IIntSetter;
+import picocli.CommandLine.ArgSpec.ILongSetter;
+import picocli.CommandLine.ArgSpec.ISetter;
+
+/**
+ * Field accessor that reads and writes annotated fields with {@code MethodHandle}s instead of {@code java.lang.reflect.Field}.
+ * This class is compiled for Java 7; picocli only uses it when it can be loaded, and falls back to reflection otherwise.
+ * Like the reflective setters, the setters return the previous value of the field.
+ * Setters for {@code int}, {@code long}, {@code double} and {@code boolean} fields also implement {@link IIntSetter},
+ * {@link ILongSetter}, {@link IDoubleSetter} or {@link IBooleanSetter}, respectively.
+ * CONSIDER THIS CLASS PRIVATE.
+ */
+final class MethodHandleFieldAccessor extends CommandLine.ArgSpecBuilder.FieldAccessor {
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final MethodHandle getter;          // (Object)Object
+    private final MethodHandle setter;          // (Object,Object)void
+    private final MethodHandle primitiveSetter; // (Object,int|long|double|boolean)void, or null for other field types
+    private final Class<?> type;
+
+    public MethodHandleFieldAccessor(Field field) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle get = lookup.unreflectGetter(field);
+        MethodHandle set = lookup.unreflectSetter(field);
+        if (Modifier.isStatic(field.getModifiers())) { // ignore the object argument
+            get = MethodHandles.dropArguments(get, 0, Object.class);
+            set = MethodHandles.dropArguments(set, 0, Object.class);
+        }
+        type = field.getType();
+        getter = get.asType(GETTER);
+        setter = set.asType(SETTER);
+        primitiveSetter = type == int.class || type == long.class || type == double.class || type == boolean.class
+                ? set.asType(MethodType.methodType(void.class, Object.class, type))
+                : null;
+    }
+
+    IGetter getter(final Object scope) {
+        return new IGetter() {
+            @SuppressWarnings("unchecked")
+            public <T> T get() throws Exception {
+                try {
+                    return (T) (Object) getter.invokeExact(scope);
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+            }
+        };
+    }
+
+    ISetter setter(Object scope) {
+        if (type == int.class)     { return new IntSetter(scope); }
+        if (type == long.class)    { return new LongSetter(scope); }
+        if (type == double.class)  { return new DoubleSetter(scope); }
+        if (type == boolean.class) { return new BooleanSetter(scope); }
+        return new Setter(scope);
+    }
+
+    private class Setter implements ISetter {
+        final Object scope;
+        Setter(Object scope) { this.scope = scope; }
+        @SuppressWarnings("unchecked")
+        public <T> T set(T value) throws Exception {
+            try {
+                Object previous = getter.invokeExact(scope);
+                setter.invokeExact(scope, (Object) value);
+                return (T) previous;
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+    private class IntSetter extends Setter implements IIntSetter {
+        IntSetter(Object scope) { super(scope); }
+        public void setInt(int value) throws Exception {
+            try {
+                primitiveSetter.invokeExact(scope, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+    private class LongSetter extends Setter implements ILongSetter {
+        LongSetter(Object scope) { super(scope); }
+        public void setLong(long value) throws Exception {
+            try {
+                primitiveSetter.invokeExact(scope, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+    private class DoubleSetter extends Setter implements IDoubleSetter {
+        DoubleSetter(Object scope) { super(scope); }
+        public void setDouble(double value) throws Exception {
+            try {
+                primitiveSetter.invokeExact(scope, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+    private class BooleanSetter extends Setter implements IBooleanSetter {
+        BooleanSetter(Object scope) { super(scope); }
+        public void setBoolean(boolean value) throws Exception {
+            try {
+                primitiveSetter.invokeExact(scope, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    private static Exception rethrow(Throwable t) {
+        if (t instanceof Exception) { return (Exception) t; }
+        if (t instanceof Error) { throw (Error) t; }
+        return new IllegalStateException(t);
+    }
+}
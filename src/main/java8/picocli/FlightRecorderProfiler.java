@@ -0,0 +1,122 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Profiler that emits JDK Flight Recorder events for building, parsing, converting, executing and rendering usage help.
+ * This class is compiled for Java 8 and needs the {@code jdk.jfr} module (JDK 8u262 or later); picocli uses it when it
+ * can be loaded, unless system property {@code picocli.jfr} is {@code "false"}. The event classes are only loaded once the
+ * Flight Recorder is initialized, for example by {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}, so
+ * that startup is not slowed down when no recording is made. Events are only created while a recording that enables them
+ * is running.
+ * CONSIDER THIS CLASS PRIVATE.
+ */
+final class FlightRecorderProfiler extends CommandLine.Profiler {
+    // only used to check if an event type is enabled, without creating an event; null until the Flight Recorder is initialized
+    private volatile PicocliEvent[] probes;
+
+    Object begin(int type) {
+        PicocliEvent[] enabled = probes;
+        if (enabled == null) {
+            if (!FlightRecorder.isInitialized()) { return null; }
+            probes = enabled = new PicocliEvent[] {
+                    new CommandBuildEvent(), new ParseEvent(), new ConvertEvent(), new ExecuteEvent(), new RenderHelpEvent()
+            };
+        }
+        if (!enabled[type].isEnabled()) { return null; }
+        PicocliEvent event;
+        switch (type) {
+            case BUILD:   event = new CommandBuildEvent(); break;
+            case PARSE:   event = new ParseEvent(); break;
+            case CONVERT: event = new ConvertEvent(); break;
+            case EXECUTE: event = new ExecuteEvent(); break;
+            default:      event = new RenderHelpEvent(); break;
+        }
+        event.begin();
+        return event;
+    }
+
+    void end(Object token, String commandName, int argCount, String detail) {
+        PicocliEvent event = (PicocliEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.commandName = commandName;
+            event.init(argCount, detail);
+            event.commit();
+        }
+    }
+
+    @Category("picocli")
+    abstract static class PicocliEvent extends Event {
+        @Label("Command Name")
+        String commandName;
+
+        void init(int argCount, String detail) {}
+    }
+
+    @Name("picocli.CommandBuild")
+    @Label("Command Build")
+    @Description("Building the model of a command from its annotated class")
+    static final class CommandBuildEvent extends PicocliEvent {
+        @Label("Command Class")
+        String commandClass;
+        @Label("Argument Count")
+        @Description("The number of options and positional parameters of the command")
+        int argCount;
+
+        void init(int argCount, String detail) { this.argCount = argCount; this.commandClass = detail; }
+    }
+
+    @Name("picocli.Parse")
+    @Label("Parse")
+    @Description("Parsing command line arguments, including subcommands")
+    static final class ParseEvent extends PicocliEvent {
+        @Label("Argument Count")
+        @Description("The number of command line arguments")
+        int argCount;
+
+        void init(int argCount, String detail) { this.argCount = argCount; }
+    }
+
+    @Name("picocli.Convert")
+    @Label("Convert")
+    @Description("Converting a command line argument to the type of an option or positional parameter")
+    static final class ConvertEvent extends PicocliEvent {
+        @Label("Converter")
+        String converter;
+
+        void init(int argCount, String detail) { this.converter = detail; }
+    }
+
+    @Name("picocli.Execute")
+    @Label("Execute")
+    @Description("Running or calling a command after its arguments were parsed")
+    static final class ExecuteEvent extends PicocliEvent {
+    }
+
+    @Name("picocli.RenderHelp")
+    @Label("Render Help")
+    @Description("Constructing and printing the usage help message of a command")
+    static final class RenderHelpEvent extends PicocliEvent {
+    }
+}
@@ -16,6 +16,7 @@
 package picocli;
 
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -23,10 +24,13 @@ import java.util.Map;
 
 import org.junit.Test;
 
+import picocli.CommandLine.ArgSpec;
 import picocli.CommandLine.CommandSpec;
+import picocli.CommandLine.IFactory;
 import picocli.CommandLine.Help.Ansi;
 import picocli.CommandLine.ITypeConverter;
 import picocli.CommandLine.InitializationException;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.OptionSpec;
 import picocli.CommandLine.PositionalParamSpec;
 import picocli.CommandLine.Range;
@@ -409,4 +413,154 @@ public class CommandLineModelTest {
             assertEquals("Invalid names: []", ex.getMessage());
         }
     }
+
+    static class Rebind {
+        @Option(names = "-x") int x;
+        @Option(names = "-y", converter = CommandLineTypeConversionTest.SqlTypeConverter.class) int y;
+        Rebind(int x) { this.x = x; }
+    }
+    @Test
+    public void testSpecsBuiltForSameClassAreBoundToTheirOwnInstance() throws Exception {
+        Rebind first = new Rebind(1);
+        Rebind second = new Rebind(2);
+        CommandLine firstCommandLine = new CommandLine(first);
+        CommandLine secondCommandLine = new CommandLine(second);
+        OptionSpec firstOption = firstCommandLine.getCommandSpec().optionsMap().get("-x");
+        OptionSpec secondOption = secondCommandLine.getCommandSpec().optionsMap().get("-x");
+        assertNotSame(firstOption, secondOption);
+        assertEquals(1, firstOption.defaultValue());
+        assertEquals(2, secondOption.defaultValue());
+
+        secondCommandLine.parse("-x", "22");
+        firstCommandLine.parse("-x", "11");
+        assertEquals(11, first.x);
+        assertEquals(22, second.x);
+        assertEquals(2, secondOption.defaultValue());
+    }
+    @Test
+    public void testConvertersAreSharedOnlyWhenCreatedByDefaultFactory() throws Exception {
+        ITypeConverter<?> first = new CommandLine(new Rebind(0)).getCommandSpec().optionsMap().get("-y").converters()[0];
+        ITypeConverter<?> second = new CommandLine(new Rebind(0)).getCommandSpec().optionsMap().get("-y").converters()[0];
+        assertSame(first, second);
+
+        IFactory factory = new IFactory() {
+            public <T> T create(Class<T> cls) throws Exception { return cls.newInstance(); }
+        };
+        ITypeConverter<?> custom1 = new CommandLine(new Rebind(0), factory).getCommandSpec().optionsMap().get("-y").converters()[0];
+        ITypeConverter<?> custom2 = new CommandLine(new Rebind(0), factory).getCommandSpec().optionsMap().get("-y").converters()[0];
+        assertNotSame(custom1, custom2);
+        assertNotSame(first, custom1);
+    }
+
+    static class Accessed {
+        @Option(names = "-i") int i;
+        @Option(names = "-l") long l;
+        @Option(names = "-b") boolean b;
+        @Option(names = "-s") private String s = "abc";
+        @Option(names = "-L") final List<String> list = new ArrayList<String>();
+    }
+    @Test
+    public void testPrimitiveSettersForAnnotatedFields() throws Exception {
+        Accessed accessed = new Accessed();
+        CommandSpec spec = new CommandLine(accessed).getCommandSpec();
+        ArgSpec.ISetter intSetter = spec.optionsMap().get("-i").setter();
+        ArgSpec.ISetter longSetter = spec.optionsMap().get("-l").setter();
+        ArgSpec.ISetter booleanSetter = spec.optionsMap().get("-b").setter();
+        assertTrue(intSetter instanceof ArgSpec.IIntSetter);
+        assertTrue(longSetter instanceof ArgSpec.ILongSetter);
+        assertTrue(booleanSetter instanceof ArgSpec.IBooleanSetter);
+        ((ArgSpec.IIntSetter) intSetter).setInt(42);
+        ((ArgSpec.ILongSetter) longSetter).setLong(43L);
+        ((ArgSpec.IBooleanSetter) booleanSetter).setBoolean(true);
+        assertEquals(42, accessed.i);
+        assertEquals(43L, accessed.l);
+        assertTrue(accessed.b);
+        assertEquals("abc", spec.optionsMap().get("-s").getter().get());
+    }
+    @Test
+    public void testFieldSettersReturnPreviousValue() throws Exception {
+        Accessed accessed = new Accessed();
+        CommandSpec spec = new CommandLine(accessed).getCommandSpec();
+        accessed.i = 5;
+        assertEquals(Integer.valueOf(5), spec.optionsMap().get("-i").setter().set(6));
+        assertEquals(6, accessed.i);
+        assertEquals("abc", spec.optionsMap().get("-s").setter().set("xyz"));
+        assertEquals("xyz", accessed.s);
+        assertEquals("xyz", spec.optionsMap().get("-s").setValue("uvw"));
+    }
+    @Test
+    public void testFieldAccessorsSetFieldValues() throws Exception {
+        Accessed accessed = new Accessed();
+        new CommandLine(accessed).parse("-i", "1", "-l", "2", "-b", "-s", "x", "-L", "a", "-L", "b");
+        assertEquals(1, accessed.i);
+        assertEquals(2L, accessed.l);
+        assertTrue(accessed.b);
+        assertEquals("x", accessed.s);
+        assertEquals(Arrays.asList("a", "b"), accessed.list);
+    }
+    @Test
+    public void testParsePlanIsReusedUntilModelOrConvertersChange() throws Exception {
+        CommandSpec spec = new CommandSpec();
+        spec.add(new OptionSpec("-s").type(int.class));
+        CommandLine commandLine = new CommandLine(spec);
+        commandLine.parse("-s", "1");
+        CommandLine.ParsePlan plan = commandLine.parsePlan();
+        commandLine.parse("-s", "2");
+        assertSame(plan, commandLine.parsePlan());
+
+        spec.optionsMap().get("-s").converters(new CommandLineTypeConversionTest.SqlTypeConverter());
+        commandLine.parse("-s", "BLOB");
+        assertEquals(Types.BLOB, spec.optionsMap().get("-s").getValue());
+
+        commandLine.registerConverter(Integer.TYPE, new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return value.length(); }
+        });
+        spec.optionsMap().get("-s").converters(new ITypeConverter[0]);
+        commandLine.parse("-s", "abc");
+        assertEquals(3, spec.optionsMap().get("-s").getValue());
+    }
+    @Test
+    public void testParsePlanDispatchesPositionalParametersByIndex() throws Exception {
+        CommandSpec spec = new CommandSpec();
+        spec.add(new PositionalParamSpec().index("0").type(String.class));
+        spec.add(new PositionalParamSpec().index("1..2").arity("1").type(String[].class));
+        spec.add(new PositionalParamSpec().index("1..*").arity("1").type(List.class).auxiliaryTypes(String.class));
+        new CommandLine(spec).parse("a", "b", "c", "d");
+        assertEquals("a", spec.positionalParameters().get(0).getValue());
+        assertArrayEquals(new String[] {"b", "c"}, (String[]) spec.positionalParameters().get(1).getValue());
+        assertEquals(Arrays.asList("b", "c", "d"), spec.positionalParameters().get(2).getValue());
+    }
+    @Test
+    public void testSplitterSplitsLikeStringSplit() {
+        String[] regexes = {"", ",", "=", "\\|", "\\.", ";\\s*", "[,;]"};
+        String[] values = {"", "a", ",", ",,", "a,b", ",a", "a,", "a,,b,,", "a|b||", ".a.b", "a; b;c", "a=b=c", "==", "a=", "=b"};
+        for (String regex : regexes) {
+            CommandLine.Splitter splitter = CommandLine.Splitter.compile(regex);
+            for (String value : values) {
+                String[] expected = regex.length() == 0 ? new String[] {value} : value.split(regex);
+                assertArrayEquals(regex + " " + value, expected, splitter.split(value));
+            }
+        }
+        assertTrue(CommandLine.Splitter.compile("\\|").isLiteral());
+        assertFalse(CommandLine.Splitter.compile("|").isLiteral());
+    }
+    @Test
+    public void testSplitMapEntriesAndLiteralSeparator() throws Exception {
+        CommandSpec spec = new CommandSpec();
+        spec.add(new OptionSpec("-D").splitRegex(",").type(Map.class).auxiliaryTypes(String.class, String.class));
+        spec.add(new OptionSpec("-n").splitRegex("\\|").type(int[].class));
+        new CommandLine(spec).parse("-D", "a=1,b=2=3,c==4", "-n", "1|2|3||");
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        expected.put("c", "");
+        assertEquals(expected, spec.optionsMap().get("-D").getValue());
+        assertArrayEquals(new int[] {1, 2, 3}, (int[]) spec.optionsMap().get("-n").getValue());
+        try {
+            new CommandLine(spec).parse("-D", "a==");
+            fail("Expected exception");
+        } catch (CommandLine.ParameterException ex) {
+            assertEquals("Value for option option '-D' (PARAM) should be in KEY=VALUE[,KEY=VALUE]... format but was a==", ex.getMessage());
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package picocli;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -23,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
@@ -31,6 +33,7 @@ import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
 import java.text.SimpleDateFormat;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,6 +41,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -57,6 +61,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 import static picocli.CommandLine.*;
 import static picocli.HelpTestUtil.setTraceLevel;
 
@@ -132,6 +137,36 @@ public class CommandLineTest {
         assertNotSame(array, params.array);
         assertArrayEquals(new int[]{0, 0, 0, 3, 2, 1}, params.array);
     }
+    @Test
+    public void testArrayOptionSpecifiedManyTimes() {
+        class App {
+            @Option(names = "-I") String[] includes = {"a"};
+            @Option(names = "-n") long[] numbers;
+            @Option(names = "-c") char[] chars;
+        }
+        int count = 20000;
+        List<String> args = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            args.addAll(Arrays.asList("-I", "dir" + i, "-n", String.valueOf(i)));
+        }
+        args.addAll(Arrays.asList("-c", "x", "-c", "y"));
+        App app = CommandLine.populateCommand(new App(), args.toArray(new String[0]));
+        assertEquals(count + 1, app.includes.length);
+        assertEquals("a", app.includes[0]);
+        assertEquals("dir" + (count - 1), app.includes[count]);
+        assertEquals(count, app.numbers.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, app.numbers[i]);
+        }
+        assertArrayEquals(new char[] {'x', 'y'}, app.chars);
+
+        App detached = new App();
+        ParseResult result = new CommandLine(detached).parseArgs("-n", "1", "-n", "2", "-I", "b");
+        assertArrayEquals(new long[] {1, 2}, result.matchedOptionValue("-n", (long[]) null));
+        assertArrayEquals(new String[] {"a", "b"}, result.matchedOptionValue("-I", (String[]) null));
+        assertArrayEquals(new String[] {"a"}, detached.includes);
+        assertNull(detached.numbers);
+    }
     private class ListPositionalParams {
         @Parameters(type = Integer.class) List<Integer> list;
     }
@@ -663,6 +698,498 @@ public class CommandLineTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testDebugOutputAbbreviatesLongRemainder() throws Exception {
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(baos));
+        final String PROPERTY = "picocli.trace";
+        String old = System.getProperty(PROPERTY);
+        System.setProperty(PROPERTY, "DEBUG");
+        String[] args = new String[25];
+        for (int i = 0; i < args.length; i++) { args[i] = "p" + i; }
+        try {
+            CommandLine.populateCommand(new CompactFields(), args);
+        } finally {
+            System.setErr(originalErr);
+            if (old == null) {
+                System.clearProperty(PROPERTY);
+            } else {
+                System.setProperty(PROPERTY, old);
+            }
+        }
+        String actual = new String(baos.toByteArray(), "UTF8");
+        assertTrue(actual, actual.contains("Processing argument 'p0'. Remainder=[p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, " +
+                "p11, p12, p13, p14, p15, p16, p17, p18, p19, p20, ... (4 more)]"));
+        assertTrue(actual, actual.contains("Processing next arg as a positional parameter at index=20. Remainder=[p20, p21, p22, p23, p24]"));
+    }
+    @Test
+    public void testManyPositionalParameters() {
+        class App {
+            @Parameters(index = "0") String first;
+            @Parameters List<String> all;
+        }
+        String[] args = new String[100000];
+        for (int i = 0; i < args.length; i++) { args[i] = String.valueOf(i); }
+        App app = CommandLine.populateCommand(new App(), args);
+        assertEquals("0", app.first);
+        assertEquals(Arrays.asList(args), app.all);
+    }
+    @Test
+    public void testOptionNamesWithSameHashCodeAreDistinguished() {
+        class App {
+            @Option(names = "--Aa") String aa; // "Aa".hashCode() == "BB".hashCode()
+            @Option(names = "--BB") String bb;
+            @Option(names = "--BB=x") boolean greedy;
+            @Parameters List<String> params;
+        }
+        App app = CommandLine.populateCommand(new App(), "--BB=1", "--Aa=2", "--BB=x", "BB=3");
+        assertEquals("2", app.aa);
+        assertEquals("1", app.bb);
+        assertTrue(app.greedy);
+        assertEquals(Arrays.asList("BB=3"), app.params);
+    }
+    @Test
+    public void testLongClusterOfShortOptions() {
+        class App {
+            @Option(names = "-v") List<Boolean> verbosity;
+            @Option(names = "-x") boolean x;
+            @Option(names = "-\u00e9") boolean nonAscii;
+            @Option(names = "-f") String file;
+        }
+        StringBuilder cluster = new StringBuilder("-");
+        for (int i = 0; i < 50000; i++) { cluster.append('v'); }
+        App app = CommandLine.populateCommand(new App(), cluster + "x\u00e9fFILE");
+        assertEquals(50000, app.verbosity.size());
+        assertTrue(app.x);
+        assertTrue(app.nonAscii);
+        assertEquals("FILE", app.file);
+    }
+    @Test
+    public void testDebugOutputForFlagsInCluster() throws Exception {
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(2500);
+        System.setErr(new PrintStream(baos));
+        final String PROPERTY = "picocli.trace";
+        String old = System.getProperty(PROPERTY);
+        System.setProperty(PROPERTY, "DEBUG");
+        CompactFields compact;
+        CompactFields attached;
+        try {
+            compact = CommandLine.populateCommand(new CompactFields(), "-rv", "p1");
+            attached = CommandLine.populateCommand(new CompactFields(), "-rv=false");
+        } finally {
+            System.setErr(originalErr);
+            if (old == null) {
+                System.clearProperty(PROPERTY);
+            } else {
+                System.setProperty(PROPERTY, old);
+            }
+        }
+        verifyCompact(compact, true, true, null, fileArray("p1"));
+        verifyCompact(attached, false, true, null, null);
+        String actual = new String(baos.toByteArray(), "UTF8");
+        assertTrue(actual, actual.contains(String.format("[picocli DEBUG] Trying to process 'v' as option parameter%n")));
+        assertTrue(actual, actual.contains(String.format("[picocli DEBUG] Trying to process 'false' as option parameter%n")));
+    }
+
+    static class ParseArgsApp {
+        @Option(names = {"-v", "--verbose"}) boolean verbose;
+        @Option(names = "-n") int count = 3;
+        @Option(names = "-L") List<String> list = new ArrayList<String>(Arrays.asList("default"));
+        @Option(names = "-h", usageHelp = true) boolean help;
+        @Parameters List<String> params;
+    }
+    @Command(name = "sub")
+    static class ParseArgsSub {
+        @Option(names = "-x") int x;
+    }
+    @Test
+    public void testParseArgsDoesNotModifyAnnotatedFields() {
+        ParseArgsApp app = new ParseArgsApp();
+        CommandLine commandLine = new CommandLine(app).addSubcommand("sub", new ParseArgsSub());
+        ParseResult result = commandLine.parseArgs("--verbose", "-n", "5", "-L", "a", "p1", "p2", "sub", "-x", "7");
+
+        assertTrue(result.hasMatchedOption("-v"));
+        assertFalse(result.hasMatchedOption("-h"));
+        assertEquals(Boolean.TRUE, result.matchedOptionValue("--verbose", false));
+        assertEquals(Integer.valueOf(5), result.matchedOptionValue("-n", 0));
+        assertEquals(Arrays.asList("default", "a"), result.matchedOptionValue("-L", null));
+        assertEquals(Integer.valueOf(-1), result.matchedOptionValue("-h", -1));
+        assertEquals(1, result.matchedPositionals().size());
+        assertEquals(Arrays.asList("p1", "p2"), result.matchedValue(result.matchedPositionals().get(0), null));
+        assertFalse(result.isUsageHelpRequested());
+        assertTrue(result.hasSubcommand());
+        assertEquals(Integer.valueOf(7), result.subcommand().matchedOptionValue("-x", 0));
+
+        assertFalse(app.verbose);
+        assertEquals(3, app.count);
+        assertEquals(Arrays.asList("default"), app.list);
+        assertNull(app.params);
+        assertEquals(0, ((ParseArgsSub) commandLine.getSubcommands().get("sub").getCommand()).x);
+    }
+    @Test
+    public void testParseArgsReportsHelpAndUnmatchedWithoutChangingCommandLine() {
+        CommandLine commandLine = new CommandLine(new ParseArgsApp()).setUnmatchedArgumentsAllowed(true);
+        commandLine.parse("-h", "--unknown");
+        ParseResult result = commandLine.parseArgs("-v", "--other");
+        assertFalse(result.isUsageHelpRequested());
+        assertEquals(Arrays.asList("--other"), result.unmatched());
+        assertTrue(commandLine.isUsageHelpRequested());
+        assertEquals(Arrays.asList("--unknown"), commandLine.getUnmatchedArguments());
+    }
+    @Test
+    public void testParseArgsConcurrently() throws Exception {
+        final CommandLine commandLine = new CommandLine(new ParseArgsApp());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            String value = id + "-" + i;
+                            ParseResult result = commandLine.parseArgs("-n", String.valueOf(i), "-L", value, value);
+                            assertEquals(Integer.valueOf(i), result.matchedOptionValue("-n", -1));
+                            assertEquals(Arrays.asList("default", value), result.matchedOptionValue("-L", null));
+                            assertEquals(Arrays.asList(value), result.matchedValue(result.matchedPositionals().get(0), null));
+                        }
+                    } catch (Throwable ex) {
+                        failures.add(ex);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) { thread.join(); }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    static class CountingConverter implements ITypeConverter<Integer>, CommandLine.IPureConverter {
+        int count;
+        public Integer convert(String value) { count++; return Integer.valueOf(value); }
+    }
+    @Test
+    public void testStopParsingAtHelpDoesNotProcessRemainingArguments() {
+        CountingConverter converter = new CountingConverter();
+        CommandLine commandLine = new CommandLine(new ParseArgsApp()).addSubcommand("sub", new ParseArgsSub())
+                .registerConverter(Integer.TYPE, converter);
+        assertFalse(commandLine.isStopParsingAtHelp());
+        assertEquals(2, commandLine.parse("-n", "1", "-h", "sub", "-x", "3").size());
+        assertEquals(2, converter.count);
+
+        converter.count = 0;
+        commandLine.setStopParsingAtHelp(true);
+        assertTrue(commandLine.getSubcommands().get("sub").isStopParsingAtHelp());
+        List<CommandLine> parsed = commandLine.parse("-n", "1", "-h", "-n", "invalid", "sub", "-x", "3", "--unknown");
+        assertEquals(1, converter.count);
+        assertEquals(Arrays.asList(commandLine), parsed);
+        assertTrue(commandLine.isUsageHelpRequested());
+        assertEquals(1, ((ParseArgsApp) commandLine.getCommand()).count);
+        assertTrue(commandLine.getUnmatchedArguments().isEmpty());
+
+        converter.count = 0;
+        for (String[] args : new String[][] {{"-hn", "invalid", "-n", "2"}, {"-hninvalid"}, {"-n", "1", "-hn=invalid", "sub", "-x", "3"}}) {
+            parsed = commandLine.parse(args);
+            assertEquals(Arrays.asList(commandLine), parsed);
+            assertTrue(commandLine.isUsageHelpRequested());
+            assertTrue(commandLine.getUnmatchedArguments().isEmpty());
+        }
+        assertEquals(1, converter.count);
+    }
+
+    @Test
+    public void testParseResultCacheReplaysConvertedValues() {
+        ParseArgsApp app = new ParseArgsApp();
+        CountingConverter converter = new CountingConverter();
+        CommandLine commandLine = new CommandLine(app).addSubcommand("sub", new ParseArgsSub())
+                .registerConverter(Integer.TYPE, converter).setParseResultCacheSize(2);
+        ParseArgsSub sub = (ParseArgsSub) commandLine.getSubcommands().get("sub").getCommand();
+        String[] args = {"-v", "-n", "5", "-L", "a", "p1", "sub", "-x", "7"};
+        List<CommandLine> parsed = commandLine.parse(args);
+        assertEquals(2, converter.count);
+
+        app.verbose = true;
+        app.count = 0;
+        app.params = null;
+        sub.x = 0;
+        args[2] = "5"; // a different array with the same arguments
+        List<CommandLine> replayed = commandLine.parse(args.clone());
+        assertEquals(2, converter.count);
+        assertEquals(parsed, replayed);
+        assertFalse(app.verbose); // toggled, as a real parse would
+        assertEquals(5, app.count);
+        assertEquals(Arrays.asList("default", "a", "a"), app.list);
+        assertEquals(Arrays.asList("p1"), app.params);
+        assertEquals(7, sub.x);
+
+        commandLine.parse("-n", "1");
+        commandLine.parse("-n", "2");
+        assertEquals(4, converter.count);
+        commandLine.parse(args); // evicted
+        assertEquals(6, converter.count);
+        commandLine.setOverwrittenOptionsAllowed(true);
+        commandLine.parse(args); // settings changed
+        assertEquals(8, converter.count);
+        commandLine.parse(args);
+        assertEquals(8, converter.count);
+    }
+    @Test
+    public void testParseResultCacheIsNotReplayedAfterSeparatorChanges() throws Exception {
+        CommandSpec spec = new CommandSpec();
+        spec.add(new OptionSpec("--n").type(int.class));
+        CommandLine commandLine = new CommandLine(spec).setParseResultCacheSize(2);
+        commandLine.parse("--n=5");
+        assertEquals(5, spec.optionsMap().get("--n").getValue());
+        commandLine.setSeparator(":");
+        try {
+            commandLine.parse("--n=5");
+            fail("Expected UnmatchedArgumentException");
+        } catch (UnmatchedArgumentException expected) {
+        }
+        commandLine.parse("--n:6");
+        assertEquals(6, spec.optionsMap().get("--n").getValue());
+    }
+    @Test
+    public void testParseResultCacheIsNotReplayedAfterSubcommandIsAdded() {
+        ParseArgsApp app = new ParseArgsApp();
+        CommandLine commandLine = new CommandLine(app).setParseResultCacheSize(2);
+        assertEquals(1, commandLine.parse("sub").size());
+        assertEquals(Arrays.asList("sub"), app.params);
+
+        commandLine.addSubcommand("sub", new ParseArgsSub());
+        app.params = null;
+        List<CommandLine> parsed = commandLine.parse("sub");
+        assertEquals(2, parsed.size());
+        assertSame(commandLine.getSubcommands().get("sub"), parsed.get(1));
+        assertNull(app.params);
+    }
+    @Test
+    public void testParseResultCacheRequiresPureConverters() {
+        class Impure implements ITypeConverter<Integer> {
+            int count;
+            public Integer convert(String value) { count++; return Integer.valueOf(value); }
+        }
+        Impure converter = new Impure();
+        ParseArgsApp app = new ParseArgsApp();
+        CommandLine commandLine = new CommandLine(app).registerConverter(Integer.TYPE, converter).setParseResultCacheSize(10);
+        commandLine.parse("-n", "5", "p1");
+        commandLine.parse("-n", "5", "p1");
+        assertEquals(2, converter.count);
+        commandLine.parse("p1");
+        app.params = null;
+        commandLine.parse("p1");
+        assertEquals(Arrays.asList("p1"), app.params);
+    }
+
+    static class RecordingParseListener implements CommandLine.IParseListener {
+        final List<String> events = new ArrayList<String>();
+        public void optionMatched(CommandLine commandLine, OptionSpec option, String name) { events.add("option " + name); }
+        public void valueConverted(CommandLine commandLine, ArgSpec argSpec, String text, Object value, long elapsedNanos) {
+            assertTrue(elapsedNanos >= 0);
+            events.add("value " + text + "=" + value);
+        }
+        public void subcommandEntered(CommandLine parent, CommandLine subcommand, String name) { events.add("subcommand " + name); }
+        public void unmatched(CommandLine commandLine, String arg) { events.add("unmatched " + arg); }
+        public void error(ParameterException exception) { events.add("error " + exception.getClass().getSimpleName()); }
+    }
+    @Command(name = "leaf")
+    static class ParseListenerLeaf {
+        @Option(names = "-x") int x;
+    }
+    @Command(name = "mid", subcommands = ParseListenerLeaf.class)
+    static class ParseListenerMid {}
+    @Command(lazySubcommands = true, subcommands = ParseListenerMid.class)
+    static class ParseListenerTop {}
+    @Test
+    public void testParseListenerIsNotifiedOfParseEvents() {
+        RecordingParseListener listener = new RecordingParseListener();
+        CommandLine commandLine = new CommandLine(new ParseArgsApp()).addSubcommand("sub", new ParseArgsSub())
+                .setUnmatchedArgumentsAllowed(true).setParseListener(listener);
+        commandLine.parse("-vn", "5", "-L", "a", "p1", "--unknown", "sub", "-x", "7");
+        assertEquals(Arrays.asList("option -v", "value true=true", "option -n", "value 5=5", "option -L", "value a=a",
+                "value p1=p1", "unmatched --unknown", "subcommand sub", "option -x", "value 7=7"), listener.events);
+
+        listener.events.clear();
+        try {
+            commandLine.parse("-n", "x");
+            fail("Expected exception");
+        } catch (ParameterException expected) {
+        }
+        assertEquals(Arrays.asList("option -n", "error ParameterException"), listener.events);
+
+        commandLine.setParseResultCacheSize(1); // replayed results notify the listener of everything but converted values
+        String[] args = {"-vn", "5", "-L", "a", "p1", "--unknown", "sub", "-x", "7"};
+        commandLine.parse(args);
+        listener.events.clear();
+        commandLine.parse(args);
+        assertEquals(Arrays.asList("option -v", "option -n", "option -L", "unmatched --unknown", "subcommand sub", "option -x"),
+                listener.events);
+
+        listener.events.clear(); // the listener is applied to lazily instantiated subcommands and their subcommands
+        commandLine = new CommandLine(new ParseListenerTop()).setParseListener(listener);
+        List<CommandLine> parsed = commandLine.parse("mid", "leaf", "-x", "1");
+        assertSame(listener, parsed.get(2).getParseListener());
+        assertEquals(Arrays.asList("subcommand mid", "subcommand leaf", "option -x", "value 1=1"), listener.events);
+    }
+
+    @Command(name = "metricsApp")
+    static class MetricsApp {
+        @Option(names = "-n") int count;
+        @Option(names = "-L") List<String> list;
+    }
+    @Command(name = "run")
+    static class MetricsSub implements Runnable {
+        @Option(names = "-x") int x;
+        public void run() {}
+    }
+    @Test
+    public void testMetricsCountParsesConversionsErrorsAndExecutions() throws Exception {
+        assertNull(new CommandLine(new MetricsApp()).getMetrics());
+        CommandLine commandLine = new CommandLine(new MetricsApp()).addSubcommand("run", new MetricsSub()).setMetricsEnabled(true);
+        CommandMetrics metrics = commandLine.getMetrics();
+        CommandMetrics subMetrics = commandLine.getSubcommands().get("run").getMetrics();
+        metrics.reset();
+        subMetrics.reset();
+        assertEquals("metricsApp", metrics.getCommandName());
+        assertEquals("metricsApp run", subMetrics.getCommandName());
+        assertSame(metrics, new CommandLine(new MetricsApp()).setMetricsEnabled(true).getMetrics());
+
+        commandLine.parseWithHandler(new RunLast(), System.out, "-n", "5", "-L", "a", "run", "-x", "7");
+        try {
+            commandLine.parse("run", "-x", "seven");
+            fail("Expected exception");
+        } catch (ParameterException expected) {
+        }
+        String integerConverter = "picocli.CommandLine$BuiltIn$IntegerConverter";
+        String stringConverter = "picocli.CommandLine$BuiltIn$StringConverter";
+        assertEquals(2, metrics.getParseCount());
+        assertEquals(2, sum(metrics.getParseLatencyHistogram()));
+        assertEquals(0, metrics.getParameterExceptionCount());
+        assertEquals(0, metrics.getExecutionCount());
+        assertEquals(Long.valueOf(1), metrics.getConversionCounts().get(integerConverter));
+        assertEquals(Long.valueOf(1), metrics.getConversionCounts().get(stringConverter));
+        assertEquals(metrics.getConversionCounts().keySet(), metrics.getConversionTimeNanos().keySet());
+
+        assertEquals(0, subMetrics.getParseCount());
+        assertEquals(1, subMetrics.getParameterExceptionCount());
+        assertEquals(1, subMetrics.getExecutionCount());
+        assertEquals(1, sum(subMetrics.getExecutionLatencyHistogram()));
+        assertEquals(Collections.singletonMap(integerConverter, 1L), subMetrics.getConversionCounts());
+
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        assertEquals("picocli:type=CommandMetrics,name=\"metricsApp run\"", subMetrics.objectName());
+        javax.management.ObjectName name = new javax.management.ObjectName(metrics.objectName());
+        assertEquals(2L, server.getAttribute(name, "ParseCount"));
+        assertEquals(1L, server.getAttribute(new javax.management.ObjectName(subMetrics.objectName()), "ParameterExceptionCount"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(name));
+        CommandMetrics newMetrics = commandLine.getMetrics();
+        assertNotSame(metrics, newMetrics);
+        assertEquals(0, newMetrics.getParseCount());
+        assertTrue(server.isRegistered(name));
+        CommandMetrics.unregisterAll();
+        assertFalse(server.isRegistered(name));
+    }
+    @Test
+    public void testLightweightExceptionsHaveNoStackTraceAndPrintSynopsis() throws Exception {
+        CommandLine commandLine = new CommandLine(new ParseArgsApp()).addSubcommand("sub", new ParseArgsSub());
+        try {
+            commandLine.parse("-n", "x");
+            fail("Expected exception");
+        } catch (ParameterException ex) {
+            assertFalse(ex.getStackTrace()[0].getClassName().startsWith(ParameterException.class.getName()));
+        }
+        commandLine.setLightweightExceptions(true);
+        assertTrue(commandLine.getSubcommands().get("sub").isLightweightExceptions());
+        try {
+            commandLine.parse("sub", "-x", "y");
+            fail("Expected exception");
+        } catch (ParameterException ex) {
+            assertSame(commandLine.getSubcommands().get("sub"), ex.getCommandLine());
+            assertEquals(0, ex.getStackTrace().length);
+            ex.fillInStackTrace();
+            assertTrue(ex.getStackTrace().length > 0);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        commandLine.parseWithHandlers(new RunLast(), new PrintStream(baos), Help.Ansi.OFF, new DefaultExceptionHandler(), "sub", "-x", "y");
+        String expected = String.format("" +
+                "Could not convert 'y' to int for option '-x': java.lang.NumberFormatException: For input string: \"y\"%n" +
+                "Usage: sub [-x=<x>]%n");
+        assertEquals(expected, baos.toString());
+
+        CommandLine sub = commandLine.getSubcommands().get("sub");
+        sub.getCommandSpec().add(new CommandLine.OptionSpec("-v").arity("0").type(boolean.class));
+        baos.reset();
+        commandLine.parseWithHandlers(new RunLast(), new PrintStream(baos), Help.Ansi.OFF, new DefaultExceptionHandler(), "sub", "-x", "y");
+        assertTrue(baos.toString(), baos.toString().endsWith(String.format("Usage: sub [-v] [-x=<x>]%n")));
+    }
+
+    @Test
+    public void testProfilerDoesNotCreateEventsWithoutRecording() throws Exception {
+        String expected = isFlightRecorderAvailable() ? "picocli.FlightRecorderProfiler" : "picocli.CommandLine$Profiler";
+        assertEquals(expected, Profiler.INSTANCE.getClass().getName()); // picocli.jfr is not set
+        assertEquals(expected, Profiler.load("true").getClass().getName());
+        assertEquals("picocli.CommandLine$Profiler", Profiler.load("false").getClass().getName());
+
+        Profiler profiler = Profiler.load(null);
+        for (int type = Profiler.BUILD; type <= Profiler.RENDER_HELP; type++) {
+            assertNull(profiler.begin(type));
+        }
+    }
+    @Test
+    public void testProfilerEmitsEventsDuringRecording() throws Exception {
+        assumeTrue(isFlightRecorderAvailable());
+        Profiler profiler = Profiler.load(null);
+        // jdk.jfr is not available to Java 5 source, so the recording is controlled reflectively
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Class<?> pathClass = Class.forName("java.nio.file.Path");
+        Object recording = recordingClass.newInstance();
+        File file = File.createTempFile("picocli", ".jfr");
+        file.deleteOnExit();
+        Object path = File.class.getMethod("toPath").invoke(file);
+        try {
+            recordingClass.getMethod("enable", String.class).invoke(recording, "picocli.Parse");
+            recordingClass.getMethod("start").invoke(recording);
+            Object event = profiler.begin(Profiler.PARSE);
+            assertNotNull(event);
+            profiler.end(event, "app", 3, null);
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+        }
+        assertNull(profiler.begin(Profiler.PARSE)); // no recording is running
+
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", pathClass).invoke(null, path);
+        List<String> parseEvents = new ArrayList<String>();
+        for (Object recorded : events) {
+            Object type = recordedEvent.getMethod("getEventType").invoke(recorded);
+            if ("picocli.Parse".equals(type.getClass().getMethod("getName").invoke(type))) {
+                parseEvents.add(recordedEvent.getMethod("getString", String.class).invoke(recorded, "commandName")
+                        + ":" + recordedEvent.getMethod("getInt", String.class).invoke(recorded, "argCount"));
+            }
+        }
+        assertEquals(Arrays.asList("app:3"), parseEvents);
+    }
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+    private static long sum(long[] values) {
+        long result = 0;
+        for (long value : values) { result += value; }
+        return result;
+    }
+
     private File[] fileArray(final String ... paths) {
         File[] result = new File[paths.length];
         for (int i = 0; i < result.length; i++) {
@@ -897,6 +1424,23 @@ public class CommandLineTest {
         }
     }
 
+    @Test
+    public void testUnmatchedArgumentSuggestions() {
+        class App {
+            @Option(names = {"-v", "--verbose"}) boolean verbose;
+            @Option(names = "--version") boolean version;
+            @Option(names = "--output") String output;
+        }
+        try {
+            CommandLine.populateCommand(new App(), "--verbos", "--outptu=x");
+            fail("expected exception");
+        } catch (UnmatchedArgumentException ex) {
+            assertEquals("Unmatched arguments [--verbos, --outptu=x]", ex.getMessage());
+            assertEquals(Arrays.asList("--verbos", "--outptu=x"), ex.getUnmatched());
+            assertEquals(Arrays.asList("--verbose", "--output"), ex.getSuggestions());
+        }
+    }
+
     @Test
     public void testOptionParameterQuotesRemovedFromValue() {
         class TextOption {
@@ -2133,6 +2677,61 @@ public class CommandLineTest {
         @Command class Top {}
         assertNull(new CommandLine(new Top()).getParent());
     }
+    @Command(name = "lazy", subcommands = {SubSub1_testDeclarativelyAddSubcommands.class})
+    static class Lazy_testLazySubcommands {
+        static int instances;
+        @ParentCommand MainCommand_testLazySubcommands parent;
+        @Option(names = "-x") int x;
+        public Lazy_testLazySubcommands() { instances++; }
+    }
+    @Command(name = "eager")
+    static class Eager_testLazySubcommands {}
+
+    @Command(lazySubcommands = true, subcommands = {Lazy_testLazySubcommands.class, Eager_testLazySubcommands.class})
+    static class MainCommand_testLazySubcommands {}
+    @Test
+    public void testLazySubcommandsAreInstantiatedWhenMatched() {
+        Lazy_testLazySubcommands.instances = 0;
+        MainCommand_testLazySubcommands top = new MainCommand_testLazySubcommands();
+        CommandLine main = new CommandLine(top);
+        assertEquals(Arrays.asList("lazy", "eager"), new ArrayList<String>(main.getSubcommands().keySet()));
+        CommandLine lazy = main.getSubcommands().get("lazy");
+        assertSame(main, lazy.getParent());
+        assertEquals(0, Lazy_testLazySubcommands.instances);
+
+        List<CommandLine> parsed = main.parse("lazy", "-x", "3");
+        assertEquals(1, Lazy_testLazySubcommands.instances);
+        assertSame(lazy, parsed.get(1));
+        Lazy_testLazySubcommands sub = lazy.getCommand();
+        assertEquals(3, sub.x);
+        assertSame(top, sub.parent);
+        assertSame(main, lazy.getParent());
+        assertSame(lazy, lazy.getSubcommands().get("subsub1").getParent());
+
+        main.parse("lazy", "-x", "4");
+        assertEquals(1, Lazy_testLazySubcommands.instances);
+        assertEquals(4, sub.x);
+    }
+    @Test
+    public void testLazySubcommandsReceiveSettingsOfParent() {
+        CommandLine main = new CommandLine(new MainCommand_testLazySubcommands());
+        main.setUnmatchedArgumentsAllowed(true);
+        main.registerConverter(Integer.TYPE, new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return Integer.parseInt(value) * 10; }
+        });
+        main.parse("lazy", "-x", "3", "unknown");
+        CommandLine lazy = main.getSubcommands().get("lazy");
+        assertEquals(30, ((Lazy_testLazySubcommands) lazy.getCommand()).x);
+        assertEquals(Arrays.asList("unknown"), lazy.getUnmatchedArguments());
+        assertTrue(lazy.getSubcommands().get("subsub1").isUnmatchedArgumentsAllowed());
+    }
+    @Test
+    public void testLazySubcommandsAreInstantiatedForUsageHelp() {
+        Lazy_testLazySubcommands.instances = 0;
+        CommandLine main = new CommandLine(new MainCommand_testLazySubcommands());
+        main.usage(new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(1, Lazy_testLazySubcommands.instances);
+    }
     @Test
     public void testDeclarativelyAddSubcommandsSucceedsWithDefaultConstructorForDefaultFactory() {
         @Command(subcommands = {SubSub1_testDeclarativelyAddSubcommands.class}) class MainCommand {}
@@ -2481,6 +3080,12 @@ public class CommandLineTest {
         } catch (ParameterException ex) {
             assertEquals("IllegalStateException: Queue full while processing argument at or before arg[1] 'a,b,c' in [-queue, a,b,c]: java.lang.IllegalStateException: Queue full", ex.getMessage());
         }
+        try {
+            new CommandLine(new App()).parse(Arrays.asList("-queue", "a,b,c", "more").iterator());
+            fail("ParameterException expected");
+        } catch (ParameterException ex) {
+            assertEquals("IllegalStateException: Queue full while processing argument at or before arg[1] 'a,b,c': java.lang.IllegalStateException: Queue full", ex.getMessage());
+        }
     }
     @Test
     public void test149UnmatchedShortOptionsAreMisinterpretedAsOperands() {
@@ -3141,6 +3746,82 @@ public class CommandLineTest {
         assertEquals(Arrays.asList("aa", "@" + file.getAbsolutePath(), "bb"), app.files);
     }
 
+    @Test
+    public void testAtDashReadsArgumentsFromStandardInput() {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Parameters List<String> files;
+        }
+        InputStream in = System.in;
+        try {
+            System.setIn(new ByteArrayInputStream("-v 'a b' # comment\nc".getBytes()));
+            App app = CommandLine.populateCommand(new App(), "x", "@-", "y");
+            assertTrue(app.verbose);
+            assertEquals(Arrays.asList("x", "a b", "c", "y"), app.files);
+
+            System.setIn(new ByteArrayInputStream("a\nb".getBytes()));
+            app = new App();
+            new CommandLine(app).parse(Arrays.asList("x", "@-", "@" + findFile("/argfile1.txt").getAbsolutePath()).iterator());
+            assertTrue(app.verbose);
+            assertEquals(Arrays.asList("x", "a", "b", "1111", "2222", "3333"), app.files);
+        } finally {
+            System.setIn(in);
+        }
+    }
+
+    @Test
+    public void testParseReader() {
+        class App {
+            @Option(names = "-n") int count;
+            @Parameters List<String> files;
+        }
+        App app = new App();
+        new CommandLine(app).parse(new StringReader("-n 3 \"a b\" c # ignored"));
+        assertEquals(3, app.count);
+        assertEquals(Arrays.asList("a b", "c"), app.files);
+    }
+
+    @Test
+    public void testParseIteratorDeliversPositionalParametersIncrementally() {
+        class Counter extends AbstractCollection<Object> {
+            int count;
+            long sum;
+            public boolean add(Object value) { count++; sum += (Integer) value; return true; }
+            public Iterator<Object> iterator() { return Collections.emptyList().iterator(); }
+            public int size() { return 0; }
+        }
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Parameters(type = Integer.class) Counter counter = new Counter();
+        }
+        final int total = 1000000;
+        Iterator<String> args = new Iterator<String>() {
+            int i = -1;
+            public boolean hasNext() { return i < total; }
+            public String next() { return i++ < 0 ? "-v" : String.valueOf(i); }
+            public void remove() { throw new UnsupportedOperationException(); }
+        };
+        App app = new App();
+        new CommandLine(app).parse(args);
+        assertTrue(app.verbose);
+        assertEquals(total, app.counter.count);
+        assertEquals((long) total * (total + 1) / 2, app.counter.sum);
+    }
+
+    @Test
+    public void testParseIteratorWithOverlappingPositionalParameters() {
+        class App {
+            @Parameters(index = "0..*") List<String> all;
+            @Parameters(index = "1..*") List<String> rest;
+        }
+        List<String> args = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) { args.add("a" + i); }
+        App app = new App();
+        new CommandLine(app).parse(args.iterator());
+        assertEquals(args, app.all);
+        assertEquals(args.subList(1, args.size()), app.rest);
+    }
+
     @Test
     public void testMultipleAtFilesExpandedMixedWithOtherParams() {
         class App {
@@ -17,6 +17,7 @@ package picocli;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -34,16 +35,18 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
-import org.junit.Ignore;
 import org.junit.Test;
 
 import picocli.CommandLine.ITypeConverter;
@@ -311,6 +314,28 @@ public class CommandLineTypeConversionTest {
         assertEquals(Integer.valueOf(34), bean.anIntegerField);
     }
     @Test
+    public void testCustomConverterDoesNotAffectOtherCommandLines() {
+        SupportedTypes custom = new SupportedTypes();
+        SupportedTypes standard = new SupportedTypes();
+        CommandLine customCommandLine = new CommandLine(custom);
+        CommandLine standardCommandLine = new CommandLine(standard);
+        customCommandLine.registerConverter(Integer.TYPE, new ITypeConverter<Integer>() {
+            public Integer convert(String s) { return Integer.decode(s); }
+        });
+        customCommandLine.parse("-int", "0x10");
+        assertEquals(16, custom.intField);
+
+        try {
+            standardCommandLine.parse("-int", "0x10");
+            fail("Should fail on hex input");
+        } catch (CommandLine.ParameterException expected) {
+            assertEquals("Could not convert '0x10' to int for option '-int'" +
+                    ": java.lang.NumberFormatException: For input string: \"0x10\"", expected.getMessage());
+        }
+        standardCommandLine.parse("-int", "10");
+        assertEquals(10, standard.intField);
+    }
+    @Test
     public void testLongFieldsAreDecimal() {
         try {
             CommandLine.populateCommand(new SupportedTypes(), "-long", "0xAABBCC", "-Long", "0xAABBCCDD");
@@ -343,6 +368,46 @@ public class CommandLineTypeConversionTest {
         assertEquals(34, bean.longField);
         assertEquals(Long.valueOf(34), bean.aLongField);
     }
+    static class PrimitiveDoubleConverter implements CommandLine.IDoubleConverter {
+        int boxed;
+        public Double convert(String value) { boxed++; return Double.valueOf(value); }
+        public double convertDouble(String value) { return Double.parseDouble(value) / 100; }
+    }
+    @Test
+    public void testPrimitiveConverterIsUsedForPrimitiveFieldsAndArrays() {
+        class App {
+            @Option(names = "-d") double single;
+            @Option(names = "-w") double[] weights;
+            @Option(names = "-D") Double boxed;
+        }
+        App app = new App();
+        PrimitiveDoubleConverter converter = new PrimitiveDoubleConverter();
+        CommandLine commandLine = new CommandLine(app).registerConverter(Double.TYPE, converter).registerConverter(Double.class, converter);
+        commandLine.parse("-d", "50", "-w", "25", "-w", "75", "-D", "1.5");
+        assertEquals(0.5, app.single, 0.0);
+        assertArrayEquals(new double[] {0.25, 0.75}, app.weights, 0.0);
+        assertEquals(Double.valueOf(1.5), app.boxed);
+        assertEquals(1, converter.boxed);
+
+        try {
+            commandLine.parse("-w", "x");
+            fail("Expected exception");
+        } catch (CommandLine.ParameterException ex) {
+            assertEquals("Could not convert 'x' to double for option '-w' (<weights>)" +
+                    ": java.lang.NumberFormatException: For input string: \"x\"", ex.getMessage());
+        }
+    }
+    @Test
+    public void testPrimitiveConverterWithSetterThatRequiresBoxing() throws Exception {
+        PrimitiveDoubleConverter converter = new PrimitiveDoubleConverter();
+        CommandLine.OptionSpec option = new CommandLine.OptionSpec("-d").type(double.class).converters(converter);
+        CommandLine.CommandSpec spec = new CommandLine.CommandSpec();
+        spec.add(option);
+        CommandLine commandLine = new CommandLine(spec);
+        commandLine.parse("-d", "50");
+        assertEquals(Double.valueOf(50), option.getValue());
+        assertEquals(1, converter.boxed);
+    }
     @Test
     public void testTimeFormatHHmmSupported() throws ParseException {
         SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "23:59");
@@ -373,6 +438,45 @@ public class CommandLineTypeConversionTest {
         }
     }
     @Test
+    public void testDateAndTimeConvertersUseCurrentDefaultTimeZone() throws Exception {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+            SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "01:00:00.500", "-Date", "1970-01-02");
+            assertEquals(3600500, bean.aTimeField.getTime());
+            assertEquals(86400000, bean.aDateField.getTime());
+
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+            bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "01:00:00,500", "-Date", "1970-01-02");
+            assertEquals(3600500 - 7200000, bean.aTimeField.getTime());
+            assertEquals(86400000 - 7200000, bean.aDateField.getTime());
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+    @Test
+    public void testTimeConverterIsThreadSafe() throws Exception {
+        final Time expected = new Time(new SimpleDateFormat("HH:mm:ss.SSS").parse("12:34:56.789").getTime());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            assertEquals(expected, CommandLine.populateCommand(new SupportedTypes(), "-Time", "12:34:56.789").aTimeField);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) { thread.join(); }
+        assertEquals(Collections.emptyList(), failures);
+    }
+    @Test
     public void testTimeFormatHHmmssDotInvalidError() throws ParseException {
         try {
             CommandLine.populateCommand(new SupportedTypes(), "-Time", "23:59:58.");
@@ -665,17 +769,111 @@ public class CommandLineTypeConversionTest {
             CommandLine.populateCommand(new EnumParams(), "-timeUnit", "xyz");
             fail("Accepted invalid timeunit");
         } catch (Exception ex) {
-            String prefix = "Could not convert 'xyz' to TimeUnit for option '-timeUnit'" +
-                    ": java.lang.IllegalArgumentException: No enum cons";
-            String suffix = " java.util.concurrent.TimeUnit.xyz";
-            assertEquals(prefix, ex.getMessage().substring(0, prefix.length()));
-            assertEquals(suffix, ex.getMessage().substring(ex.getMessage().length() - suffix.length(), ex.getMessage().length()));
+            assertEquals("'xyz' is not a valid TimeUnit, expected one of " + TIME_UNITS + " for option '-timeUnit'", ex.getMessage());
         }
     }
-    @Ignore("Requires #14 case-insensitive enum parsing")
+    private static final String TIME_UNITS = "[NANOSECONDS, MICROSECONDS, MILLISECONDS, SECONDS, MINUTES, HOURS, DAYS]";
+    enum Speed { FAST, FASTER, SLOW, slow, MEDIUM }
+    static class SpeedParams {
+        @Option(names = "-s") Speed speed;
+    }
+    @Test
+    public void testEnumCaseInsensitiveAndAbbreviatedMatching() {
+        SpeedParams params = new SpeedParams();
+        CommandLine commandLine = new CommandLine(params);
+        assertEnumConversionFails(commandLine, "fast", "'fast' is not a valid Speed, expected one of [FAST, FASTER, SLOW, slow, MEDIUM] for option '-s'");
+
+        commandLine.setCaseInsensitiveEnumValuesAllowed(true);
+        commandLine.parse("-s", "fast");
+        assertEquals(Speed.FAST, params.speed);
+        commandLine.parse("-s", "slow");
+        assertEquals(Speed.slow, params.speed);
+        assertEnumConversionFails(commandLine, "Slow", "'Slow' is ambiguous: it could be SLOW or slow for option '-s'");
+        assertEnumConversionFails(commandLine, "med", "'med' is not a valid Speed");
+
+        commandLine.setAbbreviatedEnumValuesAllowed(true);
+        commandLine.parse("-s", "med");
+        assertEquals(Speed.MEDIUM, params.speed);
+        commandLine.parse("-s", "FAST");
+        assertEquals(Speed.FAST, params.speed);
+        assertEnumConversionFails(commandLine, "fa", "'fa' is ambiguous: it could be FAST or FASTER for option '-s'");
+        assertEnumConversionFails(commandLine, "sl", "'sl' is ambiguous: it could be SLOW or slow for option '-s'");
+
+        commandLine.setCaseInsensitiveEnumValuesAllowed(false);
+        commandLine.parse("-s", "M");
+        assertEquals(Speed.MEDIUM, params.speed);
+        commandLine.parse("-s", "s");
+        assertEquals(Speed.slow, params.speed);
+        assertEnumConversionFails(commandLine, "m", "'m' is not a valid Speed");
+    }
+    private static void assertEnumConversionFails(CommandLine commandLine, String value, String expected) {
+        try {
+            commandLine.parse("-s", value);
+            fail("Accepted " + value);
+        } catch (CommandLine.ParameterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(expected));
+        }
+    }
+    static class SupertypeConverterApp {
+        @Option(names = "-n") AtomicLong number;
+        @Option(names = "-l") List<AtomicLong> numbers;
+        @Option(names = "-i") int plain;
+        @Option(names = "-t") StringBuffer text;
+    }
+    @Test
+    public void testConverterRegisteredForSupertypeIsUsedForSubtypes() {
+        SupertypeConverterApp app = new SupertypeConverterApp();
+        CommandLine commandLine = new CommandLine(app).registerConverter(Number.class, new ITypeConverter<Number>() {
+            public Number convert(String value) { return new AtomicLong(Long.parseLong(value)); }
+        });
+        commandLine.parse("-n", "3", "-l", "4", "-l", "5", "-i", "6");
+        assertEquals(3L, app.number.get());
+        assertEquals(2, app.numbers.size());
+        assertEquals(5L, app.numbers.get(1).get());
+        assertEquals(6, app.plain); // the built-in converter for the exact type wins
+
+        try {
+            commandLine.parse("-t", "abc"); // built-in converters are not used for subtypes
+            fail("Expected missing converter");
+        } catch (CommandLine.MissingTypeConverterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("No TypeConverter registered for java.lang.StringBuffer"));
+        }
+        commandLine.registerConverter(CharSequence.class, new ITypeConverter<CharSequence>() {
+            public CharSequence convert(String value) { return new StringBuffer(value); }
+        });
+        commandLine.parse("-t", "abc");
+        assertEquals("abc", app.text.toString());
+    }
+    interface Coded { String code(); }
+    enum Level implements Coded {
+        LOW("l"), HIGH("h");
+        private final String code;
+        Level(String code) { this.code = code; }
+        public String code() { return code; }
+    }
+    static class LevelParams {
+        @Option(names = "-l") Level level;
+    }
+    @Test
+    public void testConverterRegisteredForSupertypeIsUsedForEnums() {
+        LevelParams params = new LevelParams();
+        CommandLine commandLine = new CommandLine(params);
+        commandLine.parse("-l", "HIGH");
+        assertEquals(Level.HIGH, params.level);
+
+        commandLine.registerConverter(Coded.class, new ITypeConverter<Coded>() {
+            public Coded convert(String value) {
+                for (Level level : Level.values()) { if (level.code().equals(value)) { return level; } }
+                throw new CommandLine.TypeConversionException("Unknown code " + value);
+            }
+        });
+        commandLine.parse("-l", "l");
+        assertEquals(Level.LOW, params.level);
+    }
     @Test
     public void testEnumTypeConversionIsCaseInsensitive() {
-        EnumParams params = CommandLine.populateCommand(new EnumParams(),
+        EnumParams params = new EnumParams();
+        new CommandLine(params).setCaseInsensitiveEnumValuesAllowed(true).parse(
                 "-timeUnit sEcONds -timeUnitArray milliSeconds miCroSeConds -timeUnitList SEConds MiCROsEconds nanoSEConds".split(" "));
         assertEquals(SECONDS, params.timeUnit);
         assertArrayEquals(new TimeUnit[]{MILLISECONDS, TimeUnit.MICROSECONDS}, params.timeUnitArray);
@@ -688,11 +886,8 @@ public class CommandLineTypeConversionTest {
             CommandLine.populateCommand(new EnumParams(), "-timeUnitArray", "a", "b");
             fail("Accepted invalid timeunit");
         } catch (Exception ex) {
-            String prefix = "Could not convert 'a' to TimeUnit for option '-timeUnitArray' at index 0 (<timeUnitArray>)" +
-                    ": java.lang.IllegalArgumentException: No enum const";
-            String suffix = " java.util.concurrent.TimeUnit.a";
-            assertEquals(prefix, ex.getMessage().substring(0, prefix.length()));
-            assertEquals(suffix, ex.getMessage().substring(ex.getMessage().length() - suffix.length(), ex.getMessage().length()));
+            assertEquals("'a' is not a valid TimeUnit, expected one of " + TIME_UNITS +
+                    " for option '-timeUnitArray' at index 0 (<timeUnitArray>)", ex.getMessage());
         }
     }
     @Test
@@ -701,11 +896,8 @@ public class CommandLineTypeConversionTest {
             CommandLine.populateCommand(new EnumParams(), "-timeUnitList", "SECONDS", "b", "c");
             fail("Accepted invalid timeunit");
         } catch (Exception ex) {
-            String prefix = "Could not convert 'b' to TimeUnit for option '-timeUnitList' at index 1 (<timeUnitList>)" +
-                    ": java.lang.IllegalArgumentException: No enum const";
-            String suffix = " java.util.concurrent.TimeUnit.b";
-            assertEquals(prefix, ex.getMessage().substring(0, prefix.length()));
-            assertEquals(suffix, ex.getMessage().substring(ex.getMessage().length() - suffix.length(), ex.getMessage().length()));
+            assertEquals("'b' is not a valid TimeUnit, expected one of " + TIME_UNITS +
+                    " for option '-timeUnitList' at index 1 (<timeUnitList>)", ex.getMessage());
         }
     }
 
@@ -770,6 +962,71 @@ public class CommandLineTypeConversionTest {
         verifyReflectedConverter(registry, "java.time.ZoneOffset", "+0800", "+08:00");
     }
 
+    static class LazyValues {
+        @Option(names = "-a") CommandLine.Lazy<InetAddress> address;
+        @Option(names = "-n") CommandLine.Lazy<Integer> number;
+        @Option(names = "-c") Callable<Integer> callable;
+        @Parameters CommandLine.Lazy<File> file;
+    }
+    @Test
+    public void testLazyFieldsAreConvertedOnFirstUse() throws Exception {
+        final int[] count = {0};
+        LazyValues values = new LazyValues();
+        new CommandLine(values).registerConverter(InetAddress.class, new ITypeConverter<InetAddress>() {
+            public InetAddress convert(String value) throws Exception { count[0]++; return InetAddress.getByName(value); }
+        }).parse("-a", "127.0.0.1", "-n", "x", "-c", "5", "a.txt");
+        assertEquals(0, count[0]);
+        assertEquals("127.0.0.1", values.address.text());
+        assertFalse(values.address.isConverted());
+
+        assertEquals(InetAddress.getByName("127.0.0.1"), values.address.get());
+        assertSame(values.address.get(), values.address.call());
+        assertEquals(1, count[0]);
+        assertTrue(values.address.isConverted());
+        assertEquals(Integer.valueOf(5), values.callable.call());
+        assertEquals(new File("a.txt"), values.file.get());
+        try {
+            values.number.get();
+            fail("Expected exception");
+        } catch (CommandLine.TypeConversionException ex) {
+            assertEquals("Could not convert 'x' to Integer for option '-n': java.lang.NumberFormatException: For input string: \"x\"", ex.getMessage());
+        }
+    }
+    static class NestedLazyValues {
+        @Option(names = "-l") CommandLine.Lazy<List<Integer>> list;
+        @Option(names = "-u") CommandLine.Lazy<? extends TimeUnit> unit;
+    }
+    @Test
+    public void testLazyFieldsWithGenericTypeArguments() {
+        NestedLazyValues values = new NestedLazyValues();
+        CommandLine commandLine = new CommandLine(values).registerConverter(List.class, new ITypeConverter<List>() {
+            public List convert(String value) { return Arrays.asList(Integer.valueOf(value)); }
+        });
+        commandLine.parse("-l", "1", "-u", "SECONDS");
+        assertEquals(Arrays.asList(1), values.list.get());
+        assertEquals(SECONDS, values.unit.get());
+
+        commandLine.parse("-u", "weeks");
+        try {
+            values.unit.get();
+            fail("Expected exception");
+        } catch (CommandLine.TypeConversionException ex) {
+            assertEquals("'weeks' is not a valid TimeUnit, expected one of " + TIME_UNITS + " for option '-u'", ex.getMessage());
+        }
+    }
+    static class TypeVariableLazyValue<T> {
+        @Option(names = "-t") CommandLine.Lazy<T> value;
+    }
+    @Test
+    public void testLazyFieldWithTypeVariableIsRejected() {
+        try {
+            new CommandLine(new TypeVariableLazyValue<String>());
+            fail("Expected exception");
+        } catch (CommandLine.InitializationException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Cannot infer the type to convert picocli.CommandLine$Lazy<T> values to"));
+        }
+    }
+
     private void verifyReflectedConverter(Map<Class<?>, ITypeConverter<?>> registry, String clsName, String value, String expectedToString) throws Exception {
         Class<?> cls = Class.forName(clsName);
         ITypeConverter<?> converter = registry.get(cls);
@@ -779,8 +1036,9 @@ public class CommandLineTypeConversionTest {
     }
 
     private Map<Class<?>, ITypeConverter<?>> extractRegistry(CommandLine commandLine) throws Exception {
-        Object interpreter = makeAccessible(CommandLine.class.getDeclaredField("interpreter")).get(commandLine);
-        return (Map<Class<?>, ITypeConverter<?>>) makeAccessible(interpreter.getClass().getDeclaredField("converterRegistry")).get(interpreter);
+        Method converters = Class.forName("picocli.CommandLine$BuiltIn").getDeclaredMethod("converters");
+        converters.setAccessible(true);
+        return (Map<Class<?>, ITypeConverter<?>>) converters.invoke(null); // built-in converters are shared by all interpreters
     }
     private static Field makeAccessible(Field f) { f.setAccessible(true); return f; }
 }